@@ -18,7 +18,11 @@
  *******************************************************************************/
 package org.apache.ofbiz.service;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 import javax.transaction.Transaction;
@@ -32,6 +36,7 @@ import org.apache.ofbiz.service.jms.JmsListenerFactory;
 import org.apache.ofbiz.service.job.JobManager;
 import org.apache.ofbiz.service.job.JobManagerException;
 import org.apache.ofbiz.base.util.Debug;
+import org.apache.ofbiz.base.util.UtilProperties;
 
 /**
  * Generic Services Local Dispatcher
@@ -39,6 +44,9 @@ import org.apache.ofbiz.base.util.Debug;
 public abstract class GenericAbstractDispatcher implements LocalDispatcher {
 
     public static final String module = GenericAbstractDispatcher.class.getName();
+    // transaction timeout of scheduleAll: a base timeout in seconds, plus a time per scheduled job
+    private static final long scheduleAllTimeoutSeconds = UtilProperties.getPropertyAsLong("service", "scheduleAll.transactionTimeout", 60);
+    private static final long scheduleAllTimeoutMillisPerJob = UtilProperties.getPropertyAsLong("service", "scheduleAll.transactionTimeoutMillisPerJob", 5);
 
     protected DispatchContext ctx = null;
     protected ServiceDispatcher dispatcher = null;
@@ -46,6 +54,13 @@ public abstract class GenericAbstractDispatcher implements LocalDispatcher {
 
     public GenericAbstractDispatcher() {}
 
+    /**
+     * @see org.apache.ofbiz.service.LocalDispatcher#runParallel(java.util.List, java.time.Duration)
+     */
+    public List<Map<String, Object>> runParallel(List<ServiceCall> calls, Duration deadline) {
+        return ParallelServiceRunner.runAll(this, calls, deadline);
+    }
+
     /**
      * @see org.apache.ofbiz.service.LocalDispatcher#schedule(java.lang.String, java.lang.String, java.util.Map, long, int, int, int, long, int)
      */
@@ -61,6 +76,18 @@ public abstract class GenericAbstractDispatcher implements LocalDispatcher {
      * @see org.apache.ofbiz.service.LocalDispatcher#schedule(java.lang.String, java.lang.String, java.lang.String, java.util.Map, long, int, int, int, long, int)
      */
     public void schedule(String jobName, String poolName, String serviceName, Map<String, ? extends Object> context, long startTime, int frequency, int interval, int count, long endTime, int maxRetry) throws GenericServiceException {
+        schedule(jobName, poolName, serviceName, context, startTime, frequency, interval, count, endTime, maxRetry, null);
+    }
+
+    /**
+     * @see org.apache.ofbiz.service.LocalDispatcher#schedule(java.lang.String, java.lang.String, java.lang.String, java.util.Map, long, int, int, int, long, int, long)
+     */
+    public void schedule(String jobName, String poolName, String serviceName, Map<String, ? extends Object> context, long startTime, int frequency, int interval, int count, long endTime, int maxRetry, long priority) throws GenericServiceException {
+        schedule(jobName, poolName, serviceName, context, startTime, frequency, interval, count, endTime, maxRetry, Long.valueOf(priority));
+    }
+
+    // a null priority uses the priority of the service definition
+    private void schedule(String jobName, String poolName, String serviceName, Map<String, ? extends Object> context, long startTime, int frequency, int interval, int count, long endTime, int maxRetry, Long priority) throws GenericServiceException {
         Transaction suspendedTransaction = null;
         try {
             boolean beganTransaction = false;
@@ -68,7 +95,11 @@ public abstract class GenericAbstractDispatcher implements LocalDispatcher {
             try {
                 beganTransaction = TransactionUtil.begin();
                 try {
-                    getJobManager().schedule(jobName, poolName, serviceName, context, startTime, frequency, interval, count, endTime, maxRetry);
+                    if (priority == null) {
+                        getJobManager().schedule(jobName, poolName, serviceName, context, startTime, frequency, interval, count, endTime, maxRetry);
+                    } else {
+                        getJobManager().schedule(jobName, poolName, serviceName, context, startTime, frequency, interval, count, endTime, maxRetry, priority.longValue());
+                    }
 
                     if (Debug.verboseOn()) {
                         Debug.logVerbose("[LocalDispatcher.schedule] : Current time : " + (new Date()).getTime(), module);
@@ -115,6 +146,63 @@ public abstract class GenericAbstractDispatcher implements LocalDispatcher {
         schedule(jobName, poolName, serviceName, ServiceUtil.makeContext(context), startTime, frequency, interval, count, endTime, maxRetry);
     }
 
+    /**
+     * @see org.apache.ofbiz.service.LocalDispatcher#scheduleAll(java.util.List)
+     */
+    public List<String> scheduleAll(List<ScheduledCall> calls) throws GenericServiceException {
+        Transaction suspendedTransaction = null;
+        try {
+            boolean beganTransaction = false;
+            suspendedTransaction = TransactionUtil.suspend();
+            try {
+                long timeout = scheduleAllTimeoutSeconds + calls.size() * scheduleAllTimeoutMillisPerJob / 1000;
+                beganTransaction = TransactionUtil.begin((int) Math.min(timeout, Integer.MAX_VALUE));
+                List<String> jobIds = getJobManager().scheduleAll(calls);
+                TransactionUtil.commit(beganTransaction);
+                if (Debug.verboseOn()) Debug.logVerbose("[LocalDispatcher.scheduleAll] : Scheduled " + jobIds.size() + " jobs", module);
+                return jobIds;
+            } catch (Exception e) {
+                String errMsg = "General error while scheduling " + calls.size() + " jobs";
+                Debug.logError(e, errMsg, module);
+                try {
+                    TransactionUtil.rollback(beganTransaction, errMsg, e);
+                } catch (GenericTransactionException gte1) {
+                    Debug.logError(gte1, "Unable to rollback transaction", module);
+                }
+                throw new GenericServiceException(errMsg + ": " + e.getMessage(), e);
+            }
+        } catch (GenericTransactionException gte) {
+            Debug.logError(gte, "Error suspending transaction while scheduling jobs", module);
+            throw new GenericServiceException("Error suspending transaction while scheduling jobs", gte);
+        } finally {
+            if (suspendedTransaction != null) {
+                try {
+                    TransactionUtil.resume(suspendedTransaction);
+                } catch (GenericTransactionException gte3) {
+                    Debug.logError(gte3, "Error resuming suspended transaction after scheduling jobs", module);
+                }
+            }
+        }
+    }
+
+    /**
+     * @see org.apache.ofbiz.service.LocalDispatcher#runAsyncPersistAll(java.lang.String, java.util.List)
+     */
+    public List<String> runAsyncPersistAll(String serviceName, List<? extends Map<String, ? extends Object>> contexts) throws ServiceValidationException, GenericServiceException {
+        ModelService model = getDispatchContext().getModelService(serviceName);
+        long startTime = System.currentTimeMillis();
+        List<ScheduledCall> calls = new ArrayList<ScheduledCall>(contexts.size());
+        for (Map<String, ? extends Object> context : contexts) {
+            ScheduledCall call = new ScheduledCall(serviceName, context, startTime);
+            if (model.validate) {
+                Locale locale = (Locale) call.getContext().get("locale");
+                model.validate(call.getContext(), ModelService.IN_PARAM, locale != null ? locale : Locale.getDefault());
+            }
+            calls.add(call);
+        }
+        return scheduleAll(calls);
+    }
+
     public void addRollbackService(String serviceName, Map<String, ? extends Object> context, boolean persist) throws GenericServiceException {
         ServiceSynchronization.registerRollbackService(this.getDispatchContext(), serviceName, null, context, true, persist);
     }
@@ -19,6 +19,8 @@
 package org.apache.ofbiz.service;
 
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.ofbiz.base.util.Debug;
 import org.apache.ofbiz.base.util.UtilValidate;
@@ -154,6 +156,15 @@ public class GenericDispatcherFactory implements LocalDispatcherFactory {
             runAsync(serviceName, ServiceUtil.makeContext(context), requester, persist, transactionTimeout, requireNewTransaction);
         }
 
+        @Override
+        public void runAsync(String serviceName, Map<String, ? extends Object> context, GenericRequester requester, boolean persist, long priority) throws ServiceAuthException, ServiceValidationException, GenericServiceException {
+            ModelService service = ctx.getModelService(serviceName);
+            // clone the model service for updates
+            ModelService cloned = new ModelService(service);
+            cloned.priority = priority;
+            dispatcher.runAsync(this.name, cloned, context, requester, persist);
+        }
+
         @Override
         public void runAsync(String serviceName, Map<String, ? extends Object> context, GenericRequester requester, boolean persist) throws ServiceAuthException, ServiceValidationException, GenericServiceException {
             ModelService service = ctx.getModelService(serviceName);
@@ -207,6 +218,24 @@ public class GenericDispatcherFactory implements LocalDispatcherFactory {
         public GenericResultWaiter runAsyncWait(String serviceName, Map<String, ? extends Object> context) throws ServiceAuthException, ServiceValidationException, GenericServiceException {
             return runAsyncWait(serviceName, context, true);
         }
+
+        @Override
+        public CompletableFuture<Map<String, Object>> runAsyncFuture(String serviceName, Map<String, ? extends Object> context) throws ServiceAuthException, ServiceValidationException, GenericServiceException {
+            return runAsyncFuture(serviceName, context, 0, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public CompletableFuture<Map<String, Object>> runAsyncFuture(String serviceName, Object... context) throws ServiceAuthException, ServiceValidationException, GenericServiceException {
+            return runAsyncFuture(serviceName, ServiceUtil.makeContext(context));
+        }
+
+        @Override
+        public CompletableFuture<Map<String, Object>> runAsyncFuture(String serviceName, Map<String, ? extends Object> context, long timeout, TimeUnit unit) throws ServiceAuthException, ServiceValidationException, GenericServiceException {
+            GenericResultFuture future = new GenericResultFuture();
+            // a persisted job is run from the job sandbox and can't complete the future
+            this.runAsync(serviceName, context, future, false);
+            return future.setTimeout(timeout, unit);
+        }
     }
 
 }
@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.service;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.ofbiz.base.util.Debug;
+import org.apache.ofbiz.service.job.Job;
+import org.apache.ofbiz.service.job.JobPoller;
+
+/**
+ * A <code>GenericRequester</code> that exposes the result of an asynchronous service call as a
+ * <code>CompletableFuture</code>, see {@link LocalDispatcher#runAsyncFuture(String, Map)}.
+ * <p>The future is completed by the job running the service. Cancelling the future, or letting it
+ * time out, removes the job from the job queue if it has not started yet; a job that is already
+ * running is not interrupted and its result is ignored.</p>
+ * <p>Like the result of a synchronous call, a service error is returned as a result map, the
+ * future completes exceptionally only when the service invocation throws.</p>
+ */
+@SuppressWarnings("serial")
+public class GenericResultFuture extends CompletableFuture<Map<String, Object>> implements GenericRequester {
+
+    public static final String module = GenericResultFuture.class.getName();
+    private static final ScheduledThreadPoolExecutor timer = createTimer();
+
+    private static ScheduledThreadPoolExecutor createTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "OFBiz-ServiceFutureTimer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    private volatile Job job = null;
+    private volatile ScheduledFuture<?> timeoutTask = null;
+
+    /**
+     * Associates the job running the service with this future, so it can be dequeued on cancellation.
+     */
+    public void setJob(Job job) {
+        this.job = job;
+    }
+
+    /**
+     * Completes this future with a <code>TimeoutException</code> if it has not completed within the given time.
+     * @return this future
+     */
+    public GenericResultFuture setTimeout(long timeout, TimeUnit unit) {
+        if (timeout > 0 && !isDone()) {
+            timeoutTask = timer.schedule(new Runnable() {
+                public void run() {
+                    if (completeExceptionally(new TimeoutException("Asynchronous service call did not complete within the timeout"))) {
+                        removeJob();
+                    }
+                }
+            }, timeout, unit);
+        }
+        return this;
+    }
+
+    /**
+     * @see org.apache.ofbiz.service.GenericRequester#receiveResult(java.util.Map)
+     */
+    public void receiveResult(Map<String, Object> result) {
+        if (!complete(result) && Debug.verboseOn()) {
+            Debug.logVerbose("Ignoring the result of a cancelled or timed out asynchronous service call", module);
+        }
+        cancelTimeout();
+    }
+
+    /**
+     * @see org.apache.ofbiz.service.GenericRequester#receiveThrowable(java.lang.Throwable)
+     */
+    public void receiveThrowable(Throwable t) {
+        completeExceptionally(t);
+        cancelTimeout();
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if (cancelled) {
+            removeJob();
+            cancelTimeout();
+        }
+        return cancelled;
+    }
+
+    private void cancelTimeout() {
+        ScheduledFuture<?> task = timeoutTask;
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+
+    private void removeJob() {
+        Job job = this.job;
+        if (job != null && JobPoller.getInstance().remove(job)) {
+            if (Debug.verboseOn()) Debug.logVerbose("Removed job [" + job.getJobId() + "] from the queue", module);
+        }
+    }
+}
@@ -18,7 +18,11 @@
  *******************************************************************************/
 package org.apache.ofbiz.service;
 
+import java.time.Duration;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.ofbiz.entity.Delegator;
 import org.apache.ofbiz.security.Security;
@@ -113,6 +117,19 @@ public interface LocalDispatcher {
     void runAsync(String serviceName, Map<String, ? extends Object> context, GenericRequester requester, boolean persist, int transactionTimeout, boolean requireNewTransaction) throws ServiceAuthException, ServiceValidationException, GenericServiceException;
     void runAsync(String serviceName, GenericRequester requester, boolean persist, int transactionTimeout, boolean requireNewTransaction, Object... context) throws ServiceAuthException, ServiceValidationException, GenericServiceException;
 
+    /**
+     * Run the service asynchronously with a job priority, passing an instance of GenericRequester that will receive the result.
+     * @param serviceName Name of the service to run.
+     * @param context Map of name, value pairs composing the context.
+     * @param requester Object implementing GenericRequester interface which will receive the result.
+     * @param persist True for store/run; False for run.
+     * @param priority the overriding job priority, see {@link org.apache.ofbiz.service.job.JobPriority}.
+     * @throws ServiceAuthException
+     * @throws ServiceValidationException
+     * @throws GenericServiceException
+     */
+    void runAsync(String serviceName, Map<String, ? extends Object> context, GenericRequester requester, boolean persist, long priority) throws ServiceAuthException, ServiceValidationException, GenericServiceException;
+
     /**
      * Run the service asynchronously, passing an instance of GenericRequester that will receive the result.
      * @param serviceName Name of the service to run.
@@ -185,6 +202,46 @@ public interface LocalDispatcher {
      */
     GenericResultWaiter runAsyncWait(String serviceName, Map<String, ? extends Object> context) throws ServiceAuthException, ServiceValidationException, GenericServiceException;
 
+    /**
+     * Run the service asynchronously, without persisting the job, and return a future completed with its result.
+     * Cancelling the future removes the job from the queue if it has not started yet.
+     * @param serviceName Name of the service to run.
+     * @param context Map of name, value pairs composing the context.
+     * @return A new GenericResultFuture object.
+     * @throws ServiceAuthException
+     * @throws ServiceValidationException
+     * @throws GenericServiceException
+     */
+    CompletableFuture<Map<String, Object>> runAsyncFuture(String serviceName, Map<String, ? extends Object> context) throws ServiceAuthException, ServiceValidationException, GenericServiceException;
+    CompletableFuture<Map<String, Object>> runAsyncFuture(String serviceName, Object... context) throws ServiceAuthException, ServiceValidationException, GenericServiceException;
+
+    /**
+     * Run the service asynchronously, without persisting the job, and return a future completed with its result.
+     * The future completes with a <code>TimeoutException</code> if the service has not finished within the timeout,
+     * and the job is removed from the queue if it has not started yet.
+     * @param serviceName Name of the service to run.
+     * @param context Map of name, value pairs composing the context.
+     * @param timeout The maximum time to wait for the result, 0 for no timeout.
+     * @param unit The unit of the timeout.
+     * @return A new GenericResultFuture object.
+     * @throws ServiceAuthException
+     * @throws ServiceValidationException
+     * @throws GenericServiceException
+     */
+    CompletableFuture<Map<String, Object>> runAsyncFuture(String serviceName, Map<String, ? extends Object> context, long timeout, TimeUnit unit) throws ServiceAuthException, ServiceValidationException, GenericServiceException;
+
+    /**
+     * Run independent services concurrently and wait for all of them. Each service runs in its own
+     * transaction as defined by the service (or by the <code>ServiceCall</code> overrides), never in the
+     * transaction of the caller.
+     * @param calls The services to run.
+     * @param deadline The maximum time to wait for all the results, null to wait until all are done.
+     * @return The results in the same order as the calls; a call that throws, or that did not complete before
+     * the deadline, gets an error result. Running calls are not interrupted at the deadline, they complete in
+     * their own transaction and their result is discarded.
+     */
+    List<Map<String, Object>> runParallel(List<ServiceCall> calls, Duration deadline);
+
     /**
      * Register a callback listener on a specific service.
      * @param serviceName Name of the service to link callback to.
@@ -229,6 +286,47 @@ public interface LocalDispatcher {
     void schedule(String jobName, String poolName, String serviceName, Map<String, ? extends Object> context, long startTime, int frequency, int interval, int count, long endTime, int maxRetry) throws GenericServiceException;
     void schedule(String jobName, String poolName, String serviceName, long startTime, int frequency, int interval, int count, long endTime, int maxRetry, Object... context) throws GenericServiceException;
 
+    /**
+     * Schedule a service to run asynchronously at a specific start time with a job priority.
+     * @param jobName Name of the job
+     * @param poolName Name of the service pool to send to.
+     * @param serviceName Name of the service to invoke.
+     * @param context The name/value pairs composing the context.
+     * @param startTime The time to run this service.
+     * @param frequency The frequency of the recurrence (RecurrenceRule.DAILY, etc).
+     * @param interval The interval of the frequency recurrence.
+     * @param count The number of times to repeat.
+     * @param endTime The time in milliseconds the service should expire
+     * @param maxRetry The number of times we should retry on failure
+     * @param priority The job priority, see {@link org.apache.ofbiz.service.job.JobPriority}
+     * @throws ServiceAuthException
+     * @throws ServiceValidationException
+     * @throws GenericServiceException
+     */
+    void schedule(String jobName, String poolName, String serviceName, Map<String, ? extends Object> context, long startTime, int frequency, int interval, int count, long endTime, int maxRetry, long priority) throws GenericServiceException;
+
+    /**
+     * Schedule a list of non-recurring services. All the jobs are created in a single new transaction,
+     * either all of them are scheduled or none is. The transaction timeout grows with the number of jobs,
+     * see the <code>scheduleAll.transactionTimeout</code> properties in <code>service.properties</code>.
+     * @param calls The services to schedule.
+     * @return The ids of the created jobs, in the same order as the calls.
+     * @throws GenericServiceException
+     */
+    List<String> scheduleAll(List<ScheduledCall> calls) throws GenericServiceException;
+
+    /**
+     * Run a service asynchronously once for each context, like {@link #runAsync(String, Map, boolean)} with
+     * persist set to true. All the jobs are created in a single new transaction. The contexts are validated
+     * against the service definition before any job is created, authorization is checked when the jobs run.
+     * @param serviceName Name of the service to run.
+     * @param contexts The contexts of the service runs.
+     * @return The ids of the created jobs, in the same order as the contexts.
+     * @throws ServiceValidationException
+     * @throws GenericServiceException
+     */
+    List<String> runAsyncPersistAll(String serviceName, List<? extends Map<String, ? extends Object>> contexts) throws ServiceValidationException, GenericServiceException;
+
 
     /**
      * Schedule a service to run asynchronously at a specific start time.
@@ -19,6 +19,10 @@
 package org.apache.ofbiz.service;
 
 import java.io.Serializable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
 import java.util.List;
 import java.util.Locale;
 
@@ -28,6 +32,7 @@ import javax.wsdl.WSDLException;
 import javax.xml.namespace.QName;
 
 import org.apache.ofbiz.base.util.Debug;
+import org.apache.ofbiz.base.util.GeneralException;
 import org.apache.ofbiz.base.util.ObjectType;
 import org.apache.ofbiz.base.util.UtilProperties;
 import org.apache.ofbiz.base.util.UtilValidate;
@@ -293,6 +298,7 @@ public class ModelParam implements Serializable {
         protected String failMessage;
         protected String failResource;
         protected String failProperty;
+        private transient volatile MethodHandle validatorHandle = null;
 
         public ModelParamValidator(String className, String methodName, String failMessage, String failResource, String failProperty) {
             this.className = className;
@@ -310,6 +316,79 @@ public class ModelParam implements Serializable {
             return methodName;
         }
 
+        /**
+         * Runs the validation method against <code>testValue</code>. The validation method
+         * is looked up on first use and kept for later calls.
+         */
+        public boolean validate(Object testValue) throws GeneralException {
+            MethodHandle handle = this.validatorHandle;
+            if (handle == null) {
+                handle = resolveValidatorHandle();
+                this.validatorHandle = handle;
+            }
+
+            Object param;
+            if (handle.type().parameterType(0) == String.class) {
+                // convert to string
+                try {
+                    param = ObjectType.simpleTypeConvert(testValue, "String", null, null);
+                } catch (GeneralException e) {
+                    throw new GeneralException("Unable to convert parameter to String");
+                }
+            } else {
+                // use plain object
+                param = testValue;
+            }
+
+            // run the validator
+            Boolean resultBool;
+            try {
+                resultBool = (Boolean) handle.invoke(param);
+            } catch (ClassCastException e) {
+                throw new GeneralException("Validation method [" + methodName + "] in class [" + className + "] did not return expected Boolean");
+            } catch (Throwable t) {
+                throw new GeneralException("Unable to run validation method [" + methodName + "] in class [" + className + "]");
+            }
+            return resultBool.booleanValue();
+        }
+
+        // finds the validation method, taking an Object first and then a String
+        private MethodHandle resolveValidatorHandle() throws GeneralException {
+            Class<?> validatorClass = null;
+            try {
+                validatorClass = ObjectType.loadClass(className);
+            } catch (ClassNotFoundException e) {
+                Debug.logWarning(e, module);
+            }
+
+            if (validatorClass == null) {
+                throw new GeneralException("Unable to load validation class [" + className + "]");
+            }
+
+            Method validatorMethod = null;
+            try {
+                // try object type first
+                validatorMethod = validatorClass.getMethod(methodName, Object.class);
+            } catch (NoSuchMethodException e) {
+                // next try string type
+                try {
+                    validatorMethod = validatorClass.getMethod(methodName, String.class);
+                } catch (NoSuchMethodException e2) {
+                    Debug.logWarning(e2, module);
+                }
+            }
+
+            if (validatorMethod == null) {
+                throw new GeneralException("Unable to find validation method [" + methodName + "] in class [" + className + "]");
+            }
+            try {
+                MethodHandle handle = MethodHandles.publicLookup().unreflect(validatorMethod);
+                return handle.asType(MethodType.methodType(Object.class, validatorMethod.getParameterTypes()[0]));
+            } catch (IllegalAccessException e) {
+                throw new GeneralException("Unable to run validation method [" + methodName + "] in class [" + className + "]");
+            }
+        }
+
         public String getFailMessage(Locale locale) {
             if (failMessage != null) {
                 return this.failMessage;
@@ -20,7 +20,6 @@ package org.apache.ofbiz.service;
 
 import java.io.Serializable;
 import java.lang.reflect.Field;
-import java.lang.reflect.Method;
 import java.util.AbstractMap;
 import java.util.AbstractSet;
 import java.util.HashMap;
@@ -63,13 +62,13 @@ import org.apache.ofbiz.base.metrics.Metrics;
 import org.apache.ofbiz.base.util.Debug;
 import org.apache.ofbiz.base.util.GeneralException;
 import org.apache.ofbiz.base.util.ObjectType;
-import org.apache.ofbiz.base.util.UtilCodec;
 import org.apache.ofbiz.base.util.UtilMisc;
 import org.apache.ofbiz.base.util.UtilProperties;
 import org.apache.ofbiz.base.util.UtilValidate;
 import org.apache.ofbiz.service.group.GroupModel;
 import org.apache.ofbiz.service.group.GroupServiceModel;
 import org.apache.ofbiz.service.group.ServiceGroupReader;
+import org.apache.ofbiz.service.job.JobPriority;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
@@ -161,6 +160,9 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
     /** Sets the max number of times this service will retry when failed (persisted async only) */
     public int maxRetry = -1;
 
+    /** The priority of the jobs running this service (async only), see {@link JobPriority} */
+    public long priority = JobPriority.NORMAL;
+
     /** Permission service name */
     public String permissionServiceName;
 
@@ -206,6 +208,13 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
     /** Flag to say if we have pulled in our addition parameters from our implemented service(s) */
     protected boolean inheritedParameters = false;
 
+    /** Compiled parameter validators, built on first use */
+    private transient volatile ModelServiceValidator inValidator = null;
+    private transient volatile ModelServiceValidator outValidator = null;
+
+    /** Compiled makeValid binders by mode (IN, OUT, INOUT) and internal setting, built on first use */
+    private transient volatile ModelServiceBinder[] binders = null;
+
     /**
      * Service metrics.
      */
@@ -239,6 +248,7 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
         }
         this.transactionTimeout = model.transactionTimeout;
         this.maxRetry = model.maxRetry;
+        this.priority = model.priority;
         this.permissionServiceName = model.permissionServiceName;
         this.permissionMainAction = model.permissionMainAction;
         this.permissionResourceDesc = model.permissionResourceDesc;
@@ -399,6 +409,7 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
         if (param != null) {
             contextInfo.put(param.name, param);
             contextParamList.add(param);
+            clearCompiledParams();
         }
     }
 
@@ -496,107 +507,47 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
      * @param locale the actual locale to use
      */
     public void validate(Map<String, Object> context, String mode, Locale locale) throws ServiceValidationException {
-        Map<String, String> requiredInfo = new HashMap<String, String>();
-        Map<String, String> optionalInfo = new HashMap<String, String>();
-        boolean verboseOn = Debug.verboseOn();
-
-        if (verboseOn) Debug.logVerbose("[ModelService.validate] : {" + this.name + "} : Validating context - " + context, module);
+        if (Debug.verboseOn()) Debug.logVerbose("[ModelService.validate] : {" + this.name + "} : Validating context - " + context, module);
 
         // do not validate results with errors
         if (mode.equals(OUT_PARAM) && context != null && context.containsKey(RESPONSE_MESSAGE)) {
             if (RESPOND_ERROR.equals(context.get(RESPONSE_MESSAGE)) || RESPOND_FAIL.equals(context.get(RESPONSE_MESSAGE))) {
-                if (verboseOn) Debug.logVerbose("[ModelService.validate] : {" + this.name + "} : response was an error, not validating.", module);
+                if (Debug.verboseOn()) Debug.logVerbose("[ModelService.validate] : {" + this.name + "} : response was an error, not validating.", module);
                 return;
             }
         }
 
-        // get the info values
-        for (ModelParam modelParam: this.contextParamList) {
-            // Debug.logInfo("In ModelService.validate preparing parameter [" + modelParam.name + (modelParam.optional?"(optional):":"(required):") + modelParam.mode + "] for service [" + this.name + "]", module);
-            if ("INOUT".equals(modelParam.mode) || mode.equals(modelParam.mode)) {
-                if (modelParam.optional) {
-                    optionalInfo.put(modelParam.name, modelParam.type);
-                } else {
-                    requiredInfo.put(modelParam.name, modelParam.type);
-                }
-            }
-        }
-
-        // get the test values
-        Map<String, Object> requiredTest = new HashMap<String, Object>();
-        Map<String, Object> optionalTest = new HashMap<String, Object>();
-
-        if (context == null) context = new HashMap<String, Object>();
-        requiredTest.putAll(context);
-
-        List<String> requiredButNull = new LinkedList<String>();
-        List<String> keyList = new LinkedList<String>();
-        keyList.addAll(requiredTest.keySet());
-        for (String key: keyList) {
-            Object value = requiredTest.get(key);
+        getValidator(mode).validate(context, locale);
+    }
 
-            if (!requiredInfo.containsKey(key)) {
-                requiredTest.remove(key);
-                optionalTest.put(key, value);
-            } else if (value == null) {
-                requiredButNull.add(key);
+    // returns the validator of the given mode, building it the first time it is used for the current parameters
+    private ModelServiceValidator getValidator(String mode) {
+        ModelServiceValidator validator;
+        if (IN_PARAM.equals(mode)) {
+            validator = this.inValidator;
+            if (validator == null) {
+                validator = new ModelServiceValidator(this, IN_PARAM);
+                this.inValidator = validator;
             }
-        }
-
-        // check for requiredButNull fields and return an error since null values are not allowed for required fields
-        if (requiredButNull.size() > 0) {
-            List<String> missingMsg = new LinkedList<String>();
-            for (String missingKey: requiredButNull) {
-                String message = this.getParam(missingKey).getPrimaryFailMessage(locale);
-                if (message == null) {
-                    String errMsg = UtilProperties.getMessage(ServiceUtil.getResource(), "ModelService.following_required_parameter_missing", locale);
-                    message = errMsg + " [" + this.name + "." + missingKey + "]";
-                }
-                missingMsg.add(message);
+        } else if (OUT_PARAM.equals(mode)) {
+            validator = this.outValidator;
+            if (validator == null) {
+                validator = new ModelServiceValidator(this, OUT_PARAM);
+                this.outValidator = validator;
             }
-            throw new ServiceValidationException(missingMsg, this, requiredButNull, null, mode);
-        }
-
-        if (verboseOn) {
-            StringBuilder requiredNames = new StringBuilder();
-
-            for (String key: requiredInfo.keySet()) {
-                if (requiredNames.length() > 0) {
-                    requiredNames.append(", ");
-                }
-                requiredNames.append(key);
-            }
-            Debug.logVerbose("[ModelService.validate] : required fields - " + requiredNames, module);
-
-            Debug.logVerbose("[ModelService.validate] : {" + name + "} : (" + mode + ") Required - " +
-                requiredTest.size() + " / " + requiredInfo.size(), module);
-            Debug.logVerbose("[ModelService.validate] : {" + name + "} : (" + mode + ") Optional - " +
-                optionalTest.size() + " / " + optionalInfo.size(), module);
-        }
-
-        try {
-            validate(requiredInfo, requiredTest, true, this, mode, locale);
-            validate(optionalInfo, optionalTest, false, this, mode, locale);
-        } catch (ServiceValidationException e) {
-            Debug.logError("[ModelService.validate] : {" + name + "} : (" + mode + ") Required test error: " + e.toString(), module);
-            throw e;
+        } else {
+            validator = new ModelServiceValidator(this, mode);
         }
+        return validator;
+    }
 
-        // required and type validation complete, do allow-html validation
-        if ("IN".equals(mode)) {
-            List<String> errorMessageList = new LinkedList<String>();
-            for (ModelParam modelParam : this.contextInfo.values()) {
-                // the param is a String, allow-html is not any, and we are looking at an IN parameter during input parameter validation
-                if (context.get(modelParam.name) != null && ("String".equals(modelParam.type) || "java.lang.String".equals(modelParam.type)) 
-                        && !"any".equals(modelParam.allowHtml) && ("INOUT".equals(modelParam.mode) || "IN".equals(modelParam.mode))) {
-                    String value = (String) context.get(modelParam.name);
-                    UtilCodec.checkStringForHtmlStrictNone(modelParam.name, value, errorMessageList);
-                }
-            }
-            if (errorMessageList.size() > 0) {
-                throw new ServiceValidationException(errorMessageList, this, mode);
-            }
-        }
+    /**
+     * Discards the compiled parameter validators and binders, must be called when the parameters of this service change.
+     */
+    protected void clearCompiledParams() {
+        this.inValidator = null;
+        this.outValidator = null;
+        this.binders = null;
     }
 
     /**
@@ -727,64 +678,7 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
     }
 
     public static boolean typeValidate(ModelParam.ModelParamValidator vali, Object testValue) throws GeneralException {
-        // find the validator class
-        Class<?> validatorClass = null;
-        try {
-            validatorClass = ObjectType.loadClass(vali.getClassName());
-        } catch (ClassNotFoundException e) {
-            Debug.logWarning(e, module);
-        }
-
-        if (validatorClass == null) {
-            throw new GeneralException("Unable to load validation class [" + vali.getClassName() + "]");
-        }
-
-        boolean foundObjectParam = true;
-
-        Method validatorMethod = null;
-        try {
-            // try object type first
-            validatorMethod = validatorClass.getMethod(vali.getMethodName(), Object.class);
-        } catch (NoSuchMethodException e) {
-            foundObjectParam = false;
-            // next try string type
-            try {
-                validatorMethod = validatorClass.getMethod(vali.getMethodName(), String.class);
-            } catch (NoSuchMethodException e2) {
-                Debug.logWarning(e2, module);
-            }
-        }
-
-        if (validatorMethod == null) {
-            throw new GeneralException("Unable to find validation method [" + vali.getMethodName() + "] in class [" + vali.getClassName() + "]");
-        }
-
-        Object param;
-        if (!foundObjectParam) {
-            // convert to string
-            String converted;
-            try {
-                converted = (String) ObjectType.simpleTypeConvert(testValue, "String", null, null);
-            } catch (GeneralException e) {
-                throw new GeneralException("Unable to convert parameter to String");
-            }
-            param = converted;
-        } else {
-            // use plain object
-            param = testValue;
-        }
-
-        // run the validator
-        Boolean resultBool;
-        try {
-            resultBool = (Boolean) validatorMethod.invoke(null, param);
-        } catch (ClassCastException e) {
-            throw new GeneralException("Validation method [" + vali.getMethodName() + "] in class [" + vali.getClassName() + "] did not return expected Boolean");
-        } catch (Exception e) {
-            throw new GeneralException("Unable to run validation method [" + vali.getMethodName() + "] in class [" + vali.getClassName() + "]");
-        }
-
-        return resultBool.booleanValue();
+        return vali.validate(testValue);
     }
 
     /**
@@ -897,70 +791,23 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
             }
         }
 
-        for (ModelParam param: contextParamList) {
-            //boolean internalParam = param.internal;
-
-            if (param.mode.equals("INOUT") || param.mode.equals(mode)) {
-                String key = param.name;
-
-                // internal map of strings
-                if (UtilValidate.isNotEmpty(param.stringMapPrefix) && !source.containsKey(key)) {
-                    Map<String, Object> paramMap = this.makePrefixMap(source, param);
-                    if (UtilValidate.isNotEmpty(paramMap)) {
-                        target.put(key, paramMap);
-                    }
-                // internal list of strings
-                } else if (UtilValidate.isNotEmpty(param.stringListSuffix) && !source.containsKey(key)) {
-                    List<Object> paramList = this.makeSuffixList(source, param);
-                    if (UtilValidate.isNotEmpty(paramList)) {
-                        target.put(key, paramList);
-                    }
-                // other attributes
-                } else {
-                    if (source.containsKey(key)) {
-                        if ((param.internal && includeInternal) || (!param.internal)) {
-                            Object value = source.get(key);
-
-                            try {
-                                // no need to fail on type conversion; the validator will catch this
-                                value = ObjectType.simpleTypeConvert(value, param.type, null, timeZone, locale, false);
-                            } catch (GeneralException e) {
-                                String errMsg = "Type conversion of field [" + key + "] to type [" + param.type + "] failed for value \"" + value + "\": " + e.toString();
-                                Debug.logWarning("[ModelService.makeValid] : " + errMsg, module);
-                                if (errorMessages != null) {
-                                    errorMessages.add(errMsg);
-                                }
-                            }
-                            target.put(key, value);
-                        }
-                    }
-                }
-            }
-        }
-        return target;
+        return getBinder(mode, includeInternal).bind(source, errorMessages, timeZone, locale);
     }
 
-    private Map<String, Object> makePrefixMap(Map<String, ? extends Object> source, ModelParam param) {
-        Map<String, Object> paramMap = new HashMap<String, Object>();
-        for (Map.Entry<String, ? extends Object> entry: source.entrySet()) {
-            String key = entry.getKey();
-            if (key.startsWith(param.stringMapPrefix)) {
-                key=key.replace(param.stringMapPrefix,"");
-                paramMap.put(key, entry.getValue());
-            }
+    // returns the binder of the given mode and internal setting, building it the first time it is used for the current parameters
+    private ModelServiceBinder getBinder(String mode, boolean includeInternal) {
+        ModelServiceBinder[] binders = this.binders;
+        if (binders == null) {
+            binders = new ModelServiceBinder[6];
+            this.binders = binders;
         }
-        return paramMap;
-    }
-
-    private List<Object> makeSuffixList(Map<String, ? extends Object> source, ModelParam param) {
-        List<Object> paramList = new LinkedList<Object>();
-        for (Map.Entry<String, ? extends Object> entry: source.entrySet()) {
-            String key = entry.getKey();
-            if (key.endsWith(param.stringListSuffix)) {
-                paramList.add(entry.getValue());
-            }
+        int index = ("IN".equals(mode) ? 0 : ("OUT".equals(mode) ? 2 : 4)) + (includeInternal ? 1 : 0);
+        ModelServiceBinder binder = binders[index];
+        if (binder == null) {
+            binder = new ModelServiceBinder(this, mode, includeInternal);
+            binders[index] = binder;
         }
-        return paramList;
+        return binder;
     }
 
     public boolean containsPermissions() {
@@ -1211,6 +1058,7 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
 
             // set the flag so we don't do this again
             this.inheritedParameters = true;
+            clearCompiledParams();
         }
     }
 
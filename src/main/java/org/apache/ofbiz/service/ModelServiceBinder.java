@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+import org.apache.ofbiz.base.util.Debug;
+import org.apache.ofbiz.base.util.GeneralException;
+import org.apache.ofbiz.base.util.ObjectType;
+import org.apache.ofbiz.base.util.UtilGenerics;
+import org.apache.ofbiz.base.util.UtilValidate;
+
+/**
+ * Builds a valid context for a <code>ModelService</code> from an arbitrary map, see
+ * {@link ModelService#makeValid(Map, String, boolean, List, TimeZone, Locale)}.
+ * <p>A binder is compiled for one mode and internal setting: it keeps only the parameters that
+ * apply, with their target type resolved once, and collects all string-map-prefix and
+ * string-list-suffix parameters in a single pass over the source map.
+ * A binder must be discarded when the parameters of its service change.</p>
+ */
+final class ModelServiceBinder {
+
+    public static final String module = ModelServiceBinder.class.getName();
+
+    private final ParamBinding[] bindings;
+
+    ModelServiceBinder(ModelService model, String mode, boolean includeInternal) {
+        List<ParamBinding> bindingList = new ArrayList<ParamBinding>();
+        for (ModelParam param : model.contextParamList) {
+            if (param.mode.equals("INOUT") || param.mode.equals(mode)) {
+                ParamBinding binding = new ParamBinding(param, includeInternal);
+                // internal parameters excluded by the caller have nothing to bind, unless they are collected from prefixes/suffixes
+                if (binding.include || binding.prefix != null || binding.suffix != null) {
+                    bindingList.add(binding);
+                }
+            }
+        }
+        this.bindings = bindingList.toArray(new ParamBinding[bindingList.size()]);
+    }
+
+    Map<String, Object> bind(Map<String, ? extends Object> source, List<Object> errorMessages, TimeZone timeZone, Locale locale) {
+        Map<String, Object> target = new HashMap<String, Object>();
+        // the prefix/suffix parameters that are not given directly, filled in one pass over the source below
+        List<ParamBinding> activeCollectors = null;
+        List<Object> collected = null;
+
+        for (ParamBinding binding : bindings) {
+            String key = binding.name;
+            if ((binding.prefix != null || binding.suffix != null) && !source.containsKey(key)) {
+                if (activeCollectors == null) {
+                    activeCollectors = new ArrayList<ParamBinding>();
+                    collected = new ArrayList<Object>();
+                }
+                activeCollectors.add(binding);
+                if (binding.prefix != null) {
+                    collected.add(new HashMap<String, Object>());
+                } else {
+                    collected.add(new LinkedList<Object>());
+                }
+            } else if (binding.include && source.containsKey(key)) {
+                target.put(key, binding.convert(source.get(key), errorMessages, timeZone, locale));
+            }
+        }
+
+        if (activeCollectors != null) {
+            int size = activeCollectors.size();
+            for (Map.Entry<String, ? extends Object> entry : source.entrySet()) {
+                String entryKey = entry.getKey();
+                for (int i = 0; i < size; i++) {
+                    ParamBinding binding = activeCollectors.get(i);
+                    if (binding.prefix != null) {
+                        if (entryKey.startsWith(binding.prefix)) {
+                            Map<String, Object> paramMap = UtilGenerics.cast(collected.get(i));
+                            paramMap.put(entryKey.replace(binding.prefix, ""), entry.getValue());
+                        }
+                    } else if (entryKey.endsWith(binding.suffix)) {
+                        List<Object> paramList = UtilGenerics.cast(collected.get(i));
+                        paramList.add(entry.getValue());
+                    }
+                }
+            }
+            for (int i = 0; i < size; i++) {
+                Object value = collected.get(i);
+                if (UtilValidate.isNotEmpty(value)) {
+                    target.put(activeCollectors.get(i).name, value);
+                }
+            }
+        }
+        return target;
+    }
+
+    /**
+     * A parameter with its conversion target resolved once.
+     */
+    private static final class ParamBinding {
+        private final String name;
+        private final String type;
+        private final String prefix;
+        private final String suffix;
+        private final boolean include;
+        // null when every value must go through ObjectType.simpleTypeConvert
+        private final Class<?> targetClass;
+        private final boolean passThrough;
+
+        private ParamBinding(ModelParam param, boolean includeInternal) {
+            this.name = param.name;
+            this.type = param.type;
+            this.prefix = UtilValidate.isNotEmpty(param.stringMapPrefix) ? param.stringMapPrefix : null;
+            this.suffix = this.prefix == null && UtilValidate.isNotEmpty(param.stringListSuffix) ? param.stringListSuffix : null;
+            this.include = !param.internal || includeInternal;
+            this.passThrough = UtilValidate.isEmpty(type) || "Object".equals(type) || "java.lang.Object".equals(type);
+            Class<?> targetClass = null;
+            if (!passThrough && !"PlainString".equals(type)) {
+                String className = type;
+                int genericsStart = className.indexOf("<");
+                if (genericsStart != -1) {
+                    className = className.substring(0, genericsStart);
+                }
+                try {
+                    targetClass = ObjectType.loadClass(className);
+                } catch (Exception e) {
+                    // leave it null, simpleTypeConvert will report the problem
+                }
+            }
+            this.targetClass = targetClass;
+        }
+
+        private Object convert(Object value, List<Object> errorMessages, TimeZone timeZone, Locale locale) {
+            // values that already have the exact target type are returned as is by simpleTypeConvert
+            if (value == null || passThrough || (targetClass != null && value.getClass() == targetClass)) {
+                return value;
+            }
+            try {
+                // no need to fail on type conversion; the validator will catch this
+                return ObjectType.simpleTypeConvert(value, type, null, timeZone, locale, false);
+            } catch (GeneralException e) {
+                String errMsg = "Type conversion of field [" + name + "] to type [" + type + "] failed for value \"" + value + "\": " + e.toString();
+                Debug.logWarning("[ModelService.makeValid] : " + errMsg, module);
+                if (errorMessages != null) {
+                    errorMessages.add(errMsg);
+                }
+                return value;
+            }
+        }
+    }
+}
@@ -45,6 +45,7 @@ import org.apache.ofbiz.entity.model.ModelField;
 import org.apache.ofbiz.entity.model.ModelFieldType;
 import org.apache.ofbiz.service.ModelParam.ModelParamValidator;
 import org.apache.ofbiz.service.group.GroupModel;
+import org.apache.ofbiz.service.job.JobPriority;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -256,6 +257,16 @@ public class ModelServiceReader implements Serializable {
         }
         service.maxRetry = maxRetry;
 
+        // set the job priority
+        String priorityStr = UtilXml.checkEmpty(serviceElement.getAttribute("priority"));
+        if (UtilValidate.isNotEmpty(priorityStr)) {
+            try {
+                service.priority = Long.parseLong(priorityStr);
+            } catch (NumberFormatException e) {
+                Debug.logWarning(e, "Setting priority to " + JobPriority.NORMAL + " (default)", module);
+            }
+        }
+
         // get the timeout and convert to int
         String timeoutStr = UtilXml.checkEmpty(serviceElement.getAttribute("transaction-timeout"), serviceElement.getAttribute("transaction-timout"));
         int timeout = 0;
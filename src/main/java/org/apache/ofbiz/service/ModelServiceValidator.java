@@ -0,0 +1,277 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.ofbiz.base.util.Debug;
+import org.apache.ofbiz.base.util.GeneralException;
+import org.apache.ofbiz.base.util.ObjectType;
+import org.apache.ofbiz.base.util.UtilCodec;
+import org.apache.ofbiz.base.util.UtilProperties;
+import org.apache.ofbiz.base.util.UtilValidate;
+
+/**
+ * Validates a context against the parameters of a <code>ModelService</code> for one mode (IN or OUT).
+ * <p>The parameter descriptors (required/optional, resolved type class, validators) are computed
+ * once when the validator is created, and the context is checked in a single pass without copying it.
+ * A validator must be discarded when the parameters of its service change.</p>
+ */
+final class ModelServiceValidator {
+
+    public static final String module = ModelServiceValidator.class.getName();
+
+    private final ModelService model;
+    private final String mode;
+    private final Map<String, ParamCheck> checks;
+    private final ParamCheck[] required;
+    // String IN parameters that do not allow HTML
+    private final ModelParam[] noHtmlParams;
+
+    ModelServiceValidator(ModelService model, String mode) {
+        this.model = model;
+        this.mode = mode;
+        this.checks = new HashMap<String, ParamCheck>();
+        List<ParamCheck> requiredList = new ArrayList<ParamCheck>();
+        List<ModelParam> noHtmlList = new ArrayList<ModelParam>();
+        for (ModelParam modelParam : model.contextParamList) {
+            if ("INOUT".equals(modelParam.mode) || mode.equals(modelParam.mode)) {
+                ParamCheck check = new ParamCheck(modelParam);
+                checks.put(modelParam.name, check);
+                if (check.required) {
+                    requiredList.add(check);
+                }
+            }
+        }
+        if (ModelService.IN_PARAM.equals(mode)) {
+            for (ModelParam modelParam : model.contextInfo.values()) {
+                if (("String".equals(modelParam.type) || "java.lang.String".equals(modelParam.type))
+                        && !"any".equals(modelParam.allowHtml) && ("INOUT".equals(modelParam.mode) || "IN".equals(modelParam.mode))) {
+                    noHtmlList.add(modelParam);
+                }
+            }
+        }
+        this.required = requiredList.toArray(new ParamCheck[requiredList.size()]);
+        this.noHtmlParams = noHtmlList.toArray(new ModelParam[noHtmlList.size()]);
+    }
+
+    /**
+     * Validates the context, reporting errors in the same order as the historical implementation:
+     * required parameters with a null value, missing required parameters, type errors of required
+     * parameters, unknown parameters, type errors of optional parameters and finally HTML content.
+     */
+    void validate(Map<String, Object> context, Locale locale) throws ServiceValidationException {
+        if (context == null) {
+            context = new HashMap<String, Object>();
+        }
+
+        List<String> requiredButNull = null;
+        Set<String> extra = null;
+        List<String> requiredFailMsgs = null;
+        List<String> optionalFailMsgs = null;
+        int requiredFound = 0;
+        for (Map.Entry<String, Object> entry : context.entrySet()) {
+            String key = entry.getKey();
+            Object value = entry.getValue();
+            ParamCheck check = checks.get(key);
+            if (check == null) {
+                if (extra == null) {
+                    extra = new TreeSet<String>();
+                }
+                extra.add(key);
+            } else if (check.required) {
+                if (value == null) {
+                    if (requiredButNull == null) {
+                        requiredButNull = new LinkedList<String>();
+                    }
+                    requiredButNull.add(key);
+                } else {
+                    requiredFound++;
+                    requiredFailMsgs = check.checkType(model, value, locale, requiredFailMsgs);
+                }
+            } else {
+                optionalFailMsgs = check.checkType(model, value, locale, optionalFailMsgs);
+            }
+        }
+
+        // check for requiredButNull fields and return an error since null values are not allowed for required fields
+        if (requiredButNull != null) {
+            List<String> missingMsg = new LinkedList<String>();
+            for (String missingKey: requiredButNull) {
+                String message = model.getParam(missingKey).getPrimaryFailMessage(locale);
+                if (message == null) {
+                    String errMsg = UtilProperties.getMessage(ServiceUtil.getResource(), "ModelService.following_required_parameter_missing", locale);
+                    message = errMsg + " [" + model.name + "." + missingKey + "]";
+                }
+                missingMsg.add(message);
+            }
+            throw new ServiceValidationException(missingMsg, model, requiredButNull, null, mode);
+        }
+
+        try {
+            if (requiredFound < required.length) {
+                Set<String> missing = new TreeSet<String>();
+                for (ParamCheck check : required) {
+                    if (!context.containsKey(check.name)) {
+                        missing.add(check.name);
+                    }
+                }
+                List<String> missingMsgs = new LinkedList<String>();
+                for (String key: missing) {
+                    String msg = model.getParam(key).getPrimaryFailMessage(locale);
+                    if (msg == null) {
+                        String errMsg = UtilProperties.getMessage(ServiceUtil.getResource(), "ModelService.following_required_parameter_missing", locale) ;
+                        msg = errMsg + " [" + mode + "] [" + model.name + "." + key + "]";
+                    }
+                    missingMsgs.add(msg);
+                }
+                throw new ServiceValidationException(missingMsgs, model, new LinkedList<String>(missing), null, mode);
+            }
+            if (requiredFailMsgs != null) {
+                throw new ServiceValidationException(requiredFailMsgs, model, mode);
+            }
+            if (extra != null) {
+                List<String> extraMsgs = new LinkedList<String>();
+                for (String key: extra) {
+                    ModelParam param = model.getParam(key);
+                    String msg = null;
+                    if (param != null) {
+                        msg = param.getPrimaryFailMessage(locale);
+                    }
+                    if (msg == null) {
+                        msg = "Unknown parameter found: [" + model.name + "." + key + "]";
+                    }
+                    extraMsgs.add(msg);
+                }
+                throw new ServiceValidationException(extraMsgs, model, null, new LinkedList<String>(extra), mode);
+            }
+            if (optionalFailMsgs != null) {
+                throw new ServiceValidationException(optionalFailMsgs, model, mode);
+            }
+        } catch (ServiceValidationException e) {
+            Debug.logError("[ModelService.validate] : {" + model.name + "} : (" + mode + ") Required test error: " + e.toString(), module);
+            throw e;
+        }
+
+        // required and type validation complete, do allow-html validation
+        if (noHtmlParams.length > 0) {
+            List<String> errorMessageList = null;
+            for (ModelParam modelParam : noHtmlParams) {
+                String value = (String) context.get(modelParam.name);
+                if (value != null) {
+                    if (errorMessageList == null) {
+                        errorMessageList = new LinkedList<String>();
+                    }
+                    UtilCodec.checkStringForHtmlStrictNone(modelParam.name, value, errorMessageList);
+                }
+            }
+            if (UtilValidate.isNotEmpty(errorMessageList)) {
+                throw new ServiceValidationException(errorMessageList, model, mode);
+            }
+        }
+    }
+
+    /**
+     * A parameter descriptor with its type class resolved once.
+     */
+    private static final class ParamCheck {
+        private final ModelParam param;
+        private final String name;
+        private final String type;
+        private final Class<?> typeClass;
+        private final boolean required;
+        private final ModelParam.ModelParamValidator[] validators;
+
+        private ParamCheck(ModelParam param) {
+            this.param = param;
+            this.name = param.name;
+            this.type = param.type;
+            this.required = !param.optional;
+            Class<?> typeClass = null;
+            try {
+                typeClass = ObjectType.loadClass(param.type);
+            } catch (Exception e) {
+                // leave it null, the type will be resolved by name on each check and report the problem there
+            }
+            this.typeClass = typeClass;
+            if (UtilValidate.isNotEmpty(param.validators)) {
+                this.validators = param.validators.toArray(new ModelParam.ModelParamValidator[param.validators.size()]);
+            } else {
+                this.validators = null;
+            }
+        }
+
+        private boolean isInstance(Object testObject) {
+            if (typeClass != null) {
+                return ObjectType.instanceOf(testObject, typeClass);
+            }
+            return ObjectType.instanceOf(testObject, type, null);
+        }
+
+        // adds the type check failure messages to failMsgs, creating the list when needed
+        private List<String> checkType(ModelService model, Object testObject, Locale locale, List<String> failMsgs) {
+            if (validators != null) {
+                for (ModelParam.ModelParamValidator val: validators) {
+                    String msg = null;
+                    if (UtilValidate.isNotEmpty(val.getMethodName())) {
+                        try {
+                            if (!val.validate(testObject)) {
+                                msg = val.getFailMessage(locale);
+                                if (msg == null) {
+                                    msg = "The following parameter failed validation: [" + model.name + "." + name + "]";
+                                }
+                            }
+                        } catch (GeneralException e) {
+                            Debug.logError(e, module);
+                            msg = param.getPrimaryFailMessage(locale);
+                            if (msg == null) {
+                                msg = "The following parameter failed validation: [" + model.name + "." + name + "]";
+                            }
+                        }
+                    } else if (!isInstance(testObject)) {
+                        msg = val.getFailMessage(locale);
+                        if (msg == null) {
+                            msg = "The following parameter failed validation: [" + model.name + "." + name + "]";
+                        }
+                    }
+                    if (msg != null) {
+                        if (failMsgs == null) {
+                            failMsgs = new LinkedList<String>();
+                        }
+                        failMsgs.add(msg);
+                    }
+                }
+            } else if (!isInstance(testObject)) {
+                String testType = testObject == null ? "null" : testObject.getClass().getName();
+                if (failMsgs == null) {
+                    failMsgs = new LinkedList<String>();
+                }
+                failMsgs.add("Type check failed for field [" + model.name + "." + name + "]; expected type is [" + type + "]; actual type is [" + testType + "]");
+            }
+            return failMsgs;
+        }
+    }
+}
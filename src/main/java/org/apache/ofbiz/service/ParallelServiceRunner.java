@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.transaction.Transaction;
+
+import org.apache.ofbiz.base.util.Debug;
+import org.apache.ofbiz.base.util.UtilProperties;
+import org.apache.ofbiz.entity.transaction.GenericTransactionException;
+import org.apache.ofbiz.entity.transaction.TransactionUtil;
+
+/**
+ * Runs independent synchronous service calls concurrently, see
+ * {@link LocalDispatcher#runParallel(List, Duration)} and the "parallel" service group send mode.
+ * <p>Calls run on a dedicated bounded pool, separate from the job poller, configured with the
+ * <code>parallel.maxThreads</code> and <code>parallel.queueSize</code> properties in
+ * <code>service.properties</code>. Calls that don't fit in the pool, and nested parallel calls made
+ * from a pool thread, run in the calling thread. Every call runs outside of the caller transaction.</p>
+ * <p>Running calls are never interrupted, since they may be in the middle of a service transaction:
+ * a call still running at the deadline completes in its own transaction and its result is discarded.
+ * A call that would run in the calling thread after the deadline is not started, but one started in the
+ * calling thread before the deadline runs to completion, so it can delay the return past the deadline.</p>
+ */
+public final class ParallelServiceRunner {
+
+    public static final String module = ParallelServiceRunner.class.getName();
+    private static final AtomicInteger created = new AtomicInteger();
+    private static final ThreadPoolExecutor executor = createExecutor();
+
+    private static ThreadPoolExecutor createExecutor() {
+        int maxThreads = (int) UtilProperties.getPropertyAsLong("service", "parallel.maxThreads", 16);
+        int queueSize = (int) UtilProperties.getPropertyAsLong("service", "parallel.queueSize", 100);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(queueSize), new WorkerThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private ParallelServiceRunner() {}
+
+    /**
+     * Submits a task to the pool. The task runs in the calling thread, outside of the current transaction,
+     * when the pool is saturated or when called from a pool thread.
+     */
+    public static <T> Future<T> submit(Callable<T> callable) {
+        return submit(new FutureTask<T>(callable));
+    }
+
+    /**
+     * Submits a task to the pool, see {@link #submit(Callable)}.
+     */
+    public static <T> Future<T> submit(FutureTask<T> task) {
+        return submit(task, null);
+    }
+
+    /**
+     * Submits a task to the pool, see {@link #submit(Callable)}. When the task would run in the calling thread
+     * after the deadline, a <code>System.nanoTime()</code> value, it is cancelled instead.
+     */
+    private static <T> Future<T> submit(FutureTask<T> task, Long deadlineNanos) {
+        if (!(Thread.currentThread() instanceof WorkerThread)) {
+            try {
+                executor.execute(task);
+                return task;
+            } catch (RejectedExecutionException e) {
+                if (Debug.verboseOn()) Debug.logVerbose("Parallel service pool saturated, running the task in the calling thread", module);
+            }
+        }
+        if (deadlineNanos != null && System.nanoTime() - deadlineNanos >= 0) {
+            task.cancel(false);
+            return task;
+        }
+        runInline(task);
+        return task;
+    }
+
+    // runs the task in the calling thread, suspending the current transaction so it doesn't join it
+    private static void runInline(FutureTask<?> task) {
+        Transaction suspended = null;
+        try {
+            if (TransactionUtil.isTransactionInPlace()) {
+                suspended = TransactionUtil.suspend();
+            }
+        } catch (GenericTransactionException e) {
+            task.cancel(false);
+            Debug.logError(e, "Unable to suspend the current transaction for a parallel service task", module);
+            return;
+        }
+        try {
+            task.run();
+        } finally {
+            if (suspended != null) {
+                try {
+                    TransactionUtil.resume(suspended);
+                } catch (GenericTransactionException e) {
+                    Debug.logError(e, "Error resuming the suspended transaction after a parallel service task", module);
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the calls and returns their results in the same order. A call that throws or does not complete
+     * before the deadline gets an error result; the results of calls still running at the deadline are discarded.
+     */
+    static List<Map<String, Object>> runAll(LocalDispatcher dispatcher, List<ServiceCall> calls, Duration deadline) {
+        Long deadlineNanos = deadline == null ? null : System.nanoTime() + deadline.toNanos();
+        List<Future<Map<String, Object>>> futures = new ArrayList<Future<Map<String, Object>>>(calls.size());
+        for (ServiceCall call : calls) {
+            futures.add(submit(new FutureTask<Map<String, Object>>(new ServiceCallTask(dispatcher, call)), deadlineNanos));
+        }
+
+        List<Map<String, Object>> results = new ArrayList<Map<String, Object>>(calls.size());
+        for (int i = 0; i < futures.size(); i++) {
+            Future<Map<String, Object>> future = futures.get(i);
+            String serviceName = calls.get(i).getServiceName();
+            try {
+                if (deadline == null) {
+                    results.add(future.get());
+                } else {
+                    results.add(future.get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS));
+                }
+            } catch (TimeoutException e) {
+                // a running call completes in its own transaction, only its result is discarded
+                future.cancel(false);
+                Debug.logWarning("Parallel service call [" + serviceName + "] did not complete within " + deadline + ", result discarded", module);
+                results.add(timeoutError(serviceName));
+            } catch (CancellationException e) {
+                // only cancelled here when it would have started in the calling thread after the deadline
+                results.add(timeoutError(serviceName));
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                Debug.logError(cause, "Error in parallel service call [" + serviceName + "]", module);
+                results.add(ServiceUtil.returnError(cause.getMessage()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.cancel(false);
+                results.add(ServiceUtil.returnError("Interrupted while waiting for service [" + serviceName + "]"));
+            }
+        }
+        return results;
+    }
+
+    private static Map<String, Object> timeoutError(String serviceName) {
+        return ServiceUtil.returnError("Service [" + serviceName + "] did not complete within the deadline");
+    }
+
+    private static final class ServiceCallTask implements Callable<Map<String, Object>> {
+        private final LocalDispatcher dispatcher;
+        private final ServiceCall call;
+
+        private ServiceCallTask(LocalDispatcher dispatcher, ServiceCall call) {
+            this.dispatcher = dispatcher;
+            this.call = call;
+        }
+
+        public Map<String, Object> call() throws GenericServiceException {
+            if (call.overridesTransaction()) {
+                return dispatcher.runSync(call.getServiceName(), call.getContext(), call.getTransactionTimeout(), call.isRequireNewTransaction());
+            }
+            return dispatcher.runSync(call.getServiceName(), call.getContext());
+        }
+    }
+
+    private static final class WorkerThread extends Thread {
+        private WorkerThread(Runnable runnable, String name) {
+            super(runnable, name);
+        }
+    }
+
+    private static final class WorkerThreadFactory implements ThreadFactory {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new WorkerThread(runnable, "OFBiz-ParallelService-" + created.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.service;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.ofbiz.base.util.Assert;
+
+/**
+ * A persisted, non-recurring service invocation to be scheduled with {@link LocalDispatcher#scheduleAll(java.util.List)}.
+ */
+public final class ScheduledCall {
+
+    private final String jobName;
+    private final String poolName;
+    private final String serviceName;
+    private final Map<String, Object> context;
+    private final long startTime;
+    private final Integer maxRetry;
+    private final Long priority;
+
+    /**
+     * Creates a call to run as soon as possible, using the max retry and priority of the service definition.
+     */
+    public ScheduledCall(String serviceName, Map<String, ? extends Object> context) {
+        this(serviceName, context, System.currentTimeMillis());
+    }
+
+    /**
+     * Creates a call to run at the given time, using the max retry and priority of the service definition.
+     */
+    public ScheduledCall(String serviceName, Map<String, ? extends Object> context, long startTime) {
+        this(null, null, serviceName, context, startTime, null, null);
+    }
+
+    /**
+     * Creates a call to run at the given time.
+     * @param jobName The name of the job, null to generate one.
+     * @param poolName The pool to send the job to, null for the default send-to pool.
+     * @param maxRetry The number of times to retry on failure, null for the max retry of the service definition.
+     * @param priority The job priority, null for the priority of the service definition.
+     */
+    public ScheduledCall(String jobName, String poolName, String serviceName, Map<String, ? extends Object> context, long startTime, Integer maxRetry, Long priority) {
+        Assert.notNull("serviceName", serviceName);
+        this.jobName = jobName;
+        this.poolName = poolName;
+        this.serviceName = serviceName;
+        this.context = context == null ? new HashMap<String, Object>() : new HashMap<String, Object>(context);
+        this.startTime = startTime;
+        this.maxRetry = maxRetry;
+        this.priority = priority;
+    }
+
+    public String getJobName() {
+        return jobName;
+    }
+
+    public String getPoolName() {
+        return poolName;
+    }
+
+    public String getServiceName() {
+        return serviceName;
+    }
+
+    public Map<String, Object> getContext() {
+        return context;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public Integer getMaxRetry() {
+        return maxRetry;
+    }
+
+    public Long getPriority() {
+        return priority;
+    }
+
+    @Override
+    public String toString() {
+        return "ScheduledCall[" + serviceName + "]";
+    }
+}
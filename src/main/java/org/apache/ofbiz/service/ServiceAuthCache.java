@@ -0,0 +1,170 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.ofbiz.base.util.Debug;
+import org.apache.ofbiz.base.util.UtilProperties;
+import org.apache.ofbiz.base.util.UtilValidate;
+import org.apache.ofbiz.base.util.cache.UtilCache;
+import org.apache.ofbiz.entity.Delegator;
+import org.apache.ofbiz.entity.GenericEntityException;
+import org.apache.ofbiz.entity.GenericValue;
+
+/**
+ * Caches the successful verifications of <code>login.username</code>/<code>login.password</code>
+ * service authentications, so that callers passing credentials on every call do not run the
+ * authentication service (password hashing and database lookups) each time.
+ * <p>The cache is disabled by default, it is enabled with the <code>authCache.enable</code>
+ * property in <code>service.properties</code>. Entries are kept in the "service.AuthVerifications"
+ * <code>UtilCache</code>, bounded by <code>authCache.maxSize</code> and expiring after
+ * <code>authCache.expireTime</code> ms. The supplied password is never stored: entries are keyed by
+ * username and a digest of the password salted with a random value generated at startup.</p>
+ * <p>A cached verification is only used while the UserLogin record still has the same password,
+ * is not disabled and does not require a password change, as read from the entity cache on each hit,
+ * so there is no need to listen to UserLogin writes. Code that changes a login can still drop its
+ * verifications at once with the <code>clearServiceAuthCache</code> service. Other checks of the
+ * authentication service, such as the password expiry, are only run again when the entry expires.</p>
+ */
+public final class ServiceAuthCache {
+
+    public static final String module = ServiceAuthCache.class.getName();
+
+    private static final boolean enabled = UtilProperties.propertyValueEqualsIgnoreCase("service", "authCache.enable", "true");
+    private static final UtilCache<String, GenericValue> verifiedCache = UtilCache.createUtilCache("service.AuthVerifications",
+            (int) UtilProperties.getPropertyAsLong("service", "authCache.maxSize", 1000),
+            UtilProperties.getPropertyAsLong("service", "authCache.expireTime", 300000), false);
+    private static final byte[] salt = new byte[32];
+    private static final AtomicLong hitCount = new AtomicLong();
+    private static final AtomicLong missCount = new AtomicLong();
+    private static final char SEPARATOR = '\u0000';
+
+    static {
+        new SecureRandom().nextBytes(salt);
+    }
+
+    private ServiceAuthCache() {}
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns a copy of the UserLogin verified for these credentials, or <code>null</code> when
+     * there is no valid cached verification.
+     */
+    public static GenericValue get(Delegator delegator, String service, String username, String password) {
+        if (!enabled || password == null) {
+            return null;
+        }
+        String key = makeKey(delegator, service, username, password);
+        GenericValue userLogin = key != null ? verifiedCache.get(key) : null;
+        if (userLogin != null) {
+            if (isCurrent(delegator, userLogin)) {
+                hitCount.incrementAndGet();
+                return (GenericValue) userLogin.clone();
+            }
+            verifiedCache.remove(key);
+        }
+        missCount.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Records a successful verification of these credentials.
+     */
+    public static void put(Delegator delegator, String service, String username, String password, GenericValue userLogin) {
+        if (!enabled || password == null || userLogin == null) {
+            return;
+        }
+        String key = makeKey(delegator, service, username, password);
+        if (key != null) {
+            verifiedCache.put(key, (GenericValue) userLogin.clone());
+        }
+    }
+
+    /**
+     * Removes all the cached verifications.
+     */
+    public static void clear() {
+        verifiedCache.clear();
+    }
+
+    /**
+     * Removes the cached verifications of one user login. The username part of the keys is
+     * compared, ignoring the case like the authentication service may, so that the lookup does
+     * not count as a hit or a miss of the cache.
+     */
+    public static void clearUserLogin(String userLoginId) {
+        if (!enabled || UtilValidate.isEmpty(userLoginId)) {
+            return;
+        }
+        for (String key : verifiedCache.getCacheLineKeys()) {
+            String[] parts = key.split(String.valueOf(SEPARATOR));
+            if (parts.length == 4 && userLoginId.equalsIgnoreCase(parts[2])) {
+                verifiedCache.remove(key);
+            }
+        }
+    }
+
+    /** Returns the number of authentications served from the cache. */
+    public static long getHitCount() {
+        return hitCount.get();
+    }
+
+    /** Returns the number of cache lookups that had to run the authentication service. */
+    public static long getMissCount() {
+        return missCount.get();
+    }
+
+    // the cached UserLogin is only valid while the record has the same password, is not disabled and
+    // does not require a password change
+    private static boolean isCurrent(Delegator delegator, GenericValue userLogin) {
+        try {
+            GenericValue current = delegator.findOne("UserLogin", true, "userLoginId", userLogin.get("userLoginId"));
+            if (current == null || "N".equals(current.getString("enabled")) || "Y".equals(current.getString("requirePasswordChange"))) {
+                return false;
+            }
+            String currentPassword = current.getString("currentPassword");
+            return currentPassword == null ? userLogin.get("currentPassword") == null : currentPassword.equals(userLogin.getString("currentPassword"));
+        } catch (GenericEntityException e) {
+            Debug.logError(e, "Error looking up UserLogin for the service authentication cache", module);
+            return false;
+        }
+    }
+
+    private static String makeKey(Delegator delegator, String service, String username, String password) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(salt);
+            digest.update(password.getBytes(StandardCharsets.UTF_8));
+            return delegator.getDelegatorName() + SEPARATOR + service + SEPARATOR + username + SEPARATOR
+                    + Base64.getEncoder().encodeToString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            Debug.logError(e, "Unable to digest the password for the service authentication cache", module);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.service;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.ofbiz.base.util.Assert;
+
+/**
+ * A synchronous service invocation to be run with {@link LocalDispatcher#runParallel(java.util.List, java.time.Duration)}.
+ */
+public final class ServiceCall {
+
+    private final String serviceName;
+    private final Map<String, Object> context;
+    private final int transactionTimeout;
+    private final boolean requireNewTransaction;
+
+    /**
+     * Creates a call using the transaction settings of the service definition.
+     */
+    public ServiceCall(String serviceName, Map<String, ? extends Object> context) {
+        this(serviceName, context, -1, false);
+    }
+
+    /**
+     * Creates a call overriding the transaction settings of the service definition,
+     * see {@link LocalDispatcher#runSync(String, Map, int, boolean)}.
+     */
+    public ServiceCall(String serviceName, Map<String, ? extends Object> context, int transactionTimeout, boolean requireNewTransaction) {
+        Assert.notNull("serviceName", serviceName);
+        this.serviceName = serviceName;
+        this.context = context == null ? new HashMap<String, Object>() : new HashMap<String, Object>(context);
+        this.transactionTimeout = transactionTimeout;
+        this.requireNewTransaction = requireNewTransaction;
+    }
+
+    public String getServiceName() {
+        return serviceName;
+    }
+
+    public Map<String, Object> getContext() {
+        return context;
+    }
+
+    public int getTransactionTimeout() {
+        return transactionTimeout;
+    }
+
+    public boolean isRequireNewTransaction() {
+        return requireNewTransaction;
+    }
+
+    /**
+     * Returns <code>true</code> if this call overrides the transaction settings of the service definition.
+     */
+    public boolean overridesTransaction() {
+        return transactionTimeout != -1 || requireNewTransaction;
+    }
+
+    @Override
+    public String toString() {
+        return "ServiceCall[" + serviceName + "]";
+    }
+}
@@ -31,7 +31,6 @@ import org.apache.ofbiz.base.config.GenericConfigException;
 import org.apache.ofbiz.base.util.Debug;
 import org.apache.ofbiz.base.util.GeneralRuntimeException;
 import org.apache.ofbiz.base.util.UtilMisc;
-import org.apache.ofbiz.base.util.UtilProperties;
 import org.apache.ofbiz.base.util.UtilTimer;
 import org.apache.ofbiz.base.util.UtilValidate;
 import org.apache.ofbiz.entity.Delegator;
@@ -45,9 +44,10 @@ import org.apache.ofbiz.entity.transaction.TransactionUtil;
 import org.apache.ofbiz.security.Security;
 import org.apache.ofbiz.security.SecurityConfigurationException;
 import org.apache.ofbiz.security.SecurityFactory;
+import org.apache.ofbiz.service.config.ServiceConfigListener;
 import org.apache.ofbiz.service.config.ServiceConfigUtil;
+import org.apache.ofbiz.service.config.model.ServiceConfig;
 import org.apache.ofbiz.service.config.model.StartupService;
-import org.apache.ofbiz.service.eca.ServiceEcaRule;
 import org.apache.ofbiz.service.eca.ServiceEcaUtil;
 import org.apache.ofbiz.service.engine.GenericEngine;
 import org.apache.ofbiz.service.engine.GenericEngineFactory;
@@ -63,7 +63,7 @@ import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
  * The global service dispatcher. This is the "engine" part of the
  * Service Engine.
  */
-public class ServiceDispatcher {
+public class ServiceDispatcher implements ServiceConfigListener {
 
     public static final String module = ServiceDispatcher.class.getName();
     public static final int lruLogSize = 200;
@@ -82,6 +82,7 @@ public class ServiceDispatcher {
     protected Security security = null;
     protected Map<String, DispatchContext> localContext = new HashMap<String, DispatchContext>();
     protected Map<String, List<GenericServiceCallback>> callbacks = new HashMap<String, List<GenericServiceCallback>>();
+    protected final ConcurrentHashMap<String, ServiceInvocationPlan> invocationPlans = new ConcurrentHashMap<String, ServiceInvocationPlan>();
     protected JobManager jm = null;
     protected JmsListenerFactory jlf = null;
 
@@ -127,6 +128,9 @@ public class ServiceDispatcher {
         if (enableJMS) {
             this.jlf = JmsListenerFactory.getInstance(delegator);
         }
+
+        // drop the compiled invocation plans when serviceengine.xml is reloaded
+        ServiceConfigUtil.registerServiceConfigListener(this);
     }
 
     protected ServiceDispatcher(Delegator delegator) {
@@ -252,21 +256,35 @@ public class ServiceDispatcher {
      * @throws GenericServiceException
      */
     public Map<String, Object> runSync(String localName, ModelService modelService, Map<String, ? extends Object> params, boolean validateOut) throws ServiceAuthException, ServiceValidationException, GenericServiceException {
+        ServiceStats stats = ServiceStats.getStats(modelService.name);
+        long startNanos = stats.begin();
+        Map<String, Object> result = null;
+        try {
+            result = invokeSync(localName, modelService, params, validateOut);
+            return result;
+        } finally {
+            stats.end(startNanos, result);
+        }
+    }
+
+    // Runs the service, runSync records its statistics
+    private Map<String, Object> invokeSync(String localName, ModelService modelService, Map<String, ? extends Object> params, boolean validateOut) throws ServiceAuthException, ServiceValidationException, GenericServiceException {
         long serviceStartTime = System.currentTimeMillis();
         Map<String, Object> result = new HashMap<String, Object>();
         ServiceSemaphore lock = null;
-        Map<String, List<ServiceEcaRule>> eventMap = null;
         Map<String, Object> ecaContext = null;
         RunningService rs = null;
         DispatchContext ctx = localContext.get(localName);
-        GenericEngine engine = null;
+        // the plan resolves the engine, semaphore mode and ECA events once per service
+        ServiceInvocationPlan plan = getInvocationPlan(modelService);
+        GenericEngine engine = plan.getEngine();
         Transaction parentTransaction = null;
         boolean isFailure = false;
         boolean isError = false;
         boolean beganTrans = false;
         try {
             // check for semaphore and acquire a lock
-            if ("wait".equals(modelService.semaphore) || "fail".equals(modelService.semaphore)) {
+            if (plan.useSemaphore()) {
                 lock = new ServiceSemaphore(delegator, modelService);
                 lock.acquire();
             }
@@ -286,11 +304,6 @@ public class ServiceDispatcher {
             // set up the running service log
             rs = this.logService(localName, modelService, GenericEngine.SYNC_MODE);
 
-            // get eventMap once for all calls for speed, don't do event calls if it is null
-            eventMap = ServiceEcaUtil.getServiceEventMap(modelService.name);
-            engine = this.getGenericEngine(modelService.engineName);
-
-
             // set IN attributes with default-value as applicable
             modelService.updateDefaultValues(context, ModelService.IN_PARAM);
             //Debug.logInfo("=========================== " + modelService.name + " 1 tx status =" + TransactionUtil.getStatusString() + ", modelService.requireNewTransaction=" + modelService.requireNewTransaction + ", modelService.useTransaction=" + modelService.useTransaction + ", TransactionUtil.isTransactionInPlace()=" + TransactionUtil.isTransactionInPlace(), module);
@@ -337,11 +350,11 @@ public class ServiceDispatcher {
 
 
                     // setup global transaction ECA listeners to execute later
-                    if (eventMap != null) ServiceEcaUtil.evalRules(modelService.name, eventMap, "global-rollback", ctx, context, result, isError, isFailure);
-                    if (eventMap != null) ServiceEcaUtil.evalRules(modelService.name, eventMap, "global-commit", ctx, context, result, isError, isFailure);
+                    plan.evalRules(ServiceInvocationPlan.ECA_GLOBAL_ROLLBACK, ctx, context, result, isError, isFailure);
+                    plan.evalRules(ServiceInvocationPlan.ECA_GLOBAL_COMMIT, ctx, context, result, isError, isFailure);
 
                     // pre-auth ECA
-                    if (eventMap != null) ServiceEcaUtil.evalRules(modelService.name, eventMap, "auth", ctx, context, result, isError, isFailure);
+                    plan.evalRules(ServiceInvocationPlan.ECA_AUTH, ctx, context, result, isError, isFailure);
 
                     // check for pre-auth failure/errors
                     isFailure = ServiceUtil.isFailure(result);
@@ -362,7 +375,7 @@ public class ServiceDispatcher {
                     }
 
                     // pre-validate ECA
-                    if (eventMap != null) ServiceEcaUtil.evalRules(modelService.name, eventMap, "in-validate", ctx, context, result, isError, isFailure);
+                    plan.evalRules(ServiceInvocationPlan.ECA_IN_VALIDATE, ctx, context, result, isError, isFailure);
 
                     // check for pre-validate failure/errors
                     isFailure = ServiceUtil.isFailure(result);
@@ -381,7 +394,7 @@ public class ServiceDispatcher {
                     }
 
                     // pre-invoke ECA
-                    if (eventMap != null) ServiceEcaUtil.evalRules(modelService.name, eventMap, "invoke", ctx, context, result, isError, isFailure);
+                    plan.evalRules(ServiceInvocationPlan.ECA_INVOKE, ctx, context, result, isError, isFailure);
 
                     // check for pre-invoke failure/errors
                     isFailure = ServiceUtil.isFailure(result);
@@ -480,7 +493,7 @@ public class ServiceDispatcher {
                 // validate the result
                 if (modelService.validate && validateOut) {
                     // pre-out-validate ECA
-                    if (eventMap != null) ServiceEcaUtil.evalRules(modelService.name, eventMap, "out-validate", ctx, ecaContext, result, isError, isFailure);
+                    plan.evalRules(ServiceInvocationPlan.ECA_OUT_VALIDATE, ctx, ecaContext, result, isError, isFailure);
                     try {
                         modelService.validate(result, ModelService.OUT_PARAM, locale);
                     } catch (ServiceValidationException e) {
@@ -489,14 +502,14 @@ public class ServiceDispatcher {
                 }
 
                 // pre-commit ECA
-                if (eventMap != null) ServiceEcaUtil.evalRules(modelService.name, eventMap, "commit", ctx, ecaContext, result, isError, isFailure);
+                plan.evalRules(ServiceInvocationPlan.ECA_COMMIT, ctx, ecaContext, result, isError, isFailure);
 
                 // check for pre-commit failure/errors
                 isFailure = ServiceUtil.isFailure(result);
                 isError = ServiceUtil.isError(result);
 
                 // global-commit-post-run ECA, like global-commit but gets the context after the service is run
-                if (eventMap != null) ServiceEcaUtil.evalRules(modelService.name, eventMap, "global-commit-post-run", ctx, ecaContext, result, isError, isFailure);
+                plan.evalRules(ServiceInvocationPlan.ECA_GLOBAL_COMMIT_POST_RUN, ctx, ecaContext, result, isError, isFailure);
 
                 // check for failure and log on info level; this is used for debugging
                 if (isFailure) {
@@ -581,17 +594,14 @@ public class ServiceDispatcher {
         }
 
         // pre-return ECA
-        if (eventMap != null) ServiceEcaUtil.evalRules(modelService.name, eventMap, "return", ctx, ecaContext, result, isError, isFailure);
+        plan.evalRules(ServiceInvocationPlan.ECA_RETURN, ctx, ecaContext, result, isError, isFailure);
 
         rs.setEndStamp();
 
         long timeToRun = System.currentTimeMillis() - serviceStartTime;
-        long showServiceDurationThreshold = UtilProperties.getPropertyAsLong("service", "showServiceDurationThreshold", 0);
-        long showSlowServiceThreshold = UtilProperties.getPropertyAsLong("service", "showSlowServiceThreshold", 1000);
-                
-        if (Debug.timingOn() && timeToRun > showServiceDurationThreshold) {
+        if (Debug.timingOn() && timeToRun > plan.getShowServiceDurationThreshold()) {
             Debug.logTiming("Sync service [" + localName + "/" + modelService.name + "] finished in [" + timeToRun + "] milliseconds", module);
-        } else if (Debug.infoOn() && timeToRun > showSlowServiceThreshold) {
+        } else if (Debug.infoOn() && timeToRun > plan.getShowSlowServiceThreshold()) {
             Debug.logTiming("Slow sync service execution detected: service [" + localName + "/" + modelService.name + "] finished in [" + timeToRun + "] milliseconds", module);
         }
         if ((Debug.verboseOn() || modelService.debug) && timeToRun > 50 && !modelService.hideResultInLog) {
@@ -645,7 +655,8 @@ public class ServiceDispatcher {
 
         // setup the engine and context
         DispatchContext ctx = localContext.get(localName);
-        GenericEngine engine = this.getGenericEngine(service.engineName);
+        ServiceInvocationPlan plan = getInvocationPlan(service);
+        GenericEngine engine = plan.getEngine();
 
         // for isolated transactions
         Transaction parentTransaction = null;
@@ -676,11 +687,8 @@ public class ServiceDispatcher {
             }
 
             try {
-                // get eventMap once for all calls for speed, don't do event calls if it is null
-                Map<String, List<ServiceEcaRule>> eventMap = ServiceEcaUtil.getServiceEventMap(service.name);
-
                 // pre-auth ECA
-                if (eventMap != null) ServiceEcaUtil.evalRules(service.name, eventMap, "auth", ctx, context, result, isError, isFailure);
+                plan.evalRules(ServiceInvocationPlan.ECA_AUTH, ctx, context, result, isError, isFailure);
 
                 context = checkAuth(localName, context, service);
                 Object userLogin = context.get("userLogin");
@@ -690,7 +698,7 @@ public class ServiceDispatcher {
                 }
 
                 // pre-validate ECA
-                if (eventMap != null) ServiceEcaUtil.evalRules(service.name, eventMap, "in-validate", ctx, context, result, isError, isFailure);
+                plan.evalRules(ServiceInvocationPlan.ECA_IN_VALIDATE, ctx, context, result, isError, isFailure);
 
                 // check for pre-validate failure/errors
                 isFailure = ModelService.RESPOND_FAIL.equals(result.get(ModelService.RESPONSE_MESSAGE));
@@ -713,6 +721,7 @@ public class ServiceDispatcher {
                     } else {
                         engine.runAsync(localName, service, context, persist);
                     }
+                    ServiceStats.getStats(service.name).asyncDispatched();
                     engine.sendCallbacks(service, context, GenericEngine.ASYNC_MODE);
                 }
 
@@ -788,6 +797,26 @@ public class ServiceDispatcher {
         return factory.getGenericEngine(engineName);
     }
 
+    /**
+     * Returns the invocation plan of the given service, building it if it does not exist yet
+     * or if the cached one is stale (new <code>ModelService</code> instance or reloaded ECAs).
+     * @param modelService Service model object.
+     * @return the ServiceInvocationPlan for the service
+     */
+    private ServiceInvocationPlan getInvocationPlan(ModelService modelService) throws GenericServiceException {
+        ServiceInvocationPlan plan = invocationPlans.get(modelService.name);
+        if (plan == null || !plan.isValidFor(modelService)) {
+            plan = new ServiceInvocationPlan(modelService, this.getGenericEngine(modelService.engineName));
+            invocationPlans.put(modelService.name, plan);
+        }
+        return plan;
+    }
+
+    @Override
+    public void onServiceConfigChange(ServiceConfig serviceConfig) {
+        invocationPlans.clear();
+    }
+
     /**
      * Gets the JobManager associated with this dispatcher
      * @return JobManager that is associated with this dispatcher
@@ -916,7 +945,7 @@ public class ServiceDispatcher {
         // evaluate permissions for the service or throw exception if fail.
         DispatchContext dctx = this.getLocalContext(localName);
         if (UtilValidate.isNotEmpty(origService.permissionServiceName)) {
-            Map<String, Object> permResp = origService.evalPermission(dctx, context);
+            Map<String, Object> permResp = ServicePermissionCache.evalPermission(origService, dctx, context);
             Boolean hasPermission = (Boolean) permResp.get("hasPermission");
             if (hasPermission == null) {
                 throw new ServiceAuthException("ERROR: the permission-service [" + origService.permissionServiceName + "] did not return a result. Not running the service [" + origService.name + "]");
@@ -935,7 +964,7 @@ public class ServiceDispatcher {
                 throw new ServiceAuthException(message);
             }
         } else {
-            if (!origService.evalPermissions(dctx, context)) {
+            if (!ServicePermissionCache.evalPermissions(origService, dctx, context)) {
                 throw new ServiceAuthException("You do not have permission to invoke the service [" + origService.name + "]");
             }
         }
@@ -953,12 +982,22 @@ public class ServiceDispatcher {
         DispatchContext dctx = getLocalContext(localName);
         ModelService model = dctx.getModelService(service);
 
+        // a recent successful verification of the same credentials
+        GenericValue userLogin = ServiceAuthCache.get(dctx.getDelegator(), service, username, password);
+        if (userLogin != null) {
+            return userLogin;
+        }
+
         // get the service engine
         GenericEngine engine = getGenericEngine(model.engineName);
 
         // invoke the service and get the UserLogin value object
         Map<String, Object> result = engine.runSync(localName, model, context);
-        return (GenericValue) result.get("userLogin");
+        userLogin = (GenericValue) result.get("userLogin");
+        if (userLogin != null && !ServiceUtil.isError(result)) {
+            ServiceAuthCache.put(dctx.getDelegator(), service, username, password, userLogin);
+        }
+        return userLogin;
     }
 
     // checks the locale object in the context
@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.service;
+
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ofbiz.base.util.UtilProperties;
+import org.apache.ofbiz.base.util.UtilValidate;
+import org.apache.ofbiz.service.eca.ServiceEcaRule;
+import org.apache.ofbiz.service.eca.ServiceEcaUtil;
+import org.apache.ofbiz.service.engine.GenericEngine;
+
+/**
+ * An immutable snapshot of everything <code>ServiceDispatcher</code> needs to know
+ * about a <code>ModelService</code> before invoking it: the resolved engine, the
+ * semaphore mode, which ECA events have rules and the service duration thresholds.
+ * <p>Plans are built once per service and dispatcher, and are rebuilt when the
+ * <code>ModelService</code> instance or the ECA definitions change.</p>
+ */
+final class ServiceInvocationPlan {
+
+    public static final String module = ServiceInvocationPlan.class.getName();
+
+    // ECA events evaluated by the dispatcher, the index is used as bit position in the ecaEvents mask
+    static final int ECA_GLOBAL_ROLLBACK = 0;
+    static final int ECA_GLOBAL_COMMIT = 1;
+    static final int ECA_AUTH = 2;
+    static final int ECA_IN_VALIDATE = 3;
+    static final int ECA_INVOKE = 4;
+    static final int ECA_OUT_VALIDATE = 5;
+    static final int ECA_COMMIT = 6;
+    static final int ECA_GLOBAL_COMMIT_POST_RUN = 7;
+    static final int ECA_RETURN = 8;
+    private static final String[] ECA_EVENT_NAMES = { "global-rollback", "global-commit", "auth", "in-validate", "invoke",
+            "out-validate", "commit", "global-commit-post-run", "return" };
+
+    private final ModelService modelService;
+    private final GenericEngine engine;
+    private final boolean useSemaphore;
+    private final Map<String, List<ServiceEcaRule>> eventMap;
+    private final int ecaEvents;
+    private final int ecaGeneration;
+    private final long showServiceDurationThreshold;
+    private final long showSlowServiceThreshold;
+
+    ServiceInvocationPlan(ModelService modelService, GenericEngine engine) {
+        this.modelService = modelService;
+        this.engine = engine;
+        this.useSemaphore = "wait".equals(modelService.semaphore) || "fail".equals(modelService.semaphore);
+        // read the generation before the event map so a concurrent reload makes this plan stale rather than incomplete
+        this.ecaGeneration = ServiceEcaUtil.getGeneration();
+        this.eventMap = ServiceEcaUtil.getServiceEventMap(modelService.name);
+        int events = 0;
+        if (eventMap != null) {
+            for (int i = 0; i < ECA_EVENT_NAMES.length; i++) {
+                if (UtilValidate.isNotEmpty(eventMap.get(ECA_EVENT_NAMES[i]))) {
+                    events |= 1 << i;
+                }
+            }
+        }
+        this.ecaEvents = events;
+        this.showServiceDurationThreshold = UtilProperties.getPropertyAsLong("service", "showServiceDurationThreshold", 0);
+        this.showSlowServiceThreshold = UtilProperties.getPropertyAsLong("service", "showSlowServiceThreshold", 1000);
+    }
+
+    /**
+     * Returns <code>true</code> if this plan was built for the given model and the ECA
+     * definitions have not been reloaded since.
+     */
+    boolean isValidFor(ModelService modelService) {
+        return this.modelService == modelService && this.ecaGeneration == ServiceEcaUtil.getGeneration();
+    }
+
+    ModelService getModelService() {
+        return modelService;
+    }
+
+    GenericEngine getEngine() {
+        return engine;
+    }
+
+    boolean useSemaphore() {
+        return useSemaphore;
+    }
+
+    long getShowServiceDurationThreshold() {
+        return showServiceDurationThreshold;
+    }
+
+    long getShowSlowServiceThreshold() {
+        return showSlowServiceThreshold;
+    }
+
+    /**
+     * Evaluates the ECA rules registered for the given event, does nothing if there are none.
+     */
+    void evalRules(int event, DispatchContext dctx, Map<String, Object> context, Map<String, Object> result, boolean isError, boolean isFailure) throws GenericServiceException {
+        if ((ecaEvents & (1 << event)) != 0) {
+            ServiceEcaUtil.evalRules(modelService.name, eventMap, ECA_EVENT_NAMES[event], dctx, context, result, isError, isFailure);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.service;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.ofbiz.base.util.Debug;
+import org.apache.ofbiz.base.util.UtilProperties;
+import org.apache.ofbiz.base.util.UtilValidate;
+import org.apache.ofbiz.base.util.cache.UtilCache;
+import org.apache.ofbiz.entity.GenericValue;
+
+/**
+ * Caches the outcome of service permission checks: the permission-service response
+ * ({@link ModelService#evalPermission(DispatchContext, Map)}) and the
+ * required-permissions evaluation ({@link ModelService#evalPermissions(DispatchContext, Map)}).
+ * <p>The cache is disabled by default, it is enabled with the <code>permissionCache.enable</code>
+ * property in <code>service.properties</code>. Entries are kept in the "service.PermissionDecisions"
+ * <code>UtilCache</code>, its size limit and expiration time are set with the
+ * <code>permissionCache.maxSize</code> and <code>permissionCache.expireTime</code> properties
+ * (or in <code>cache.properties</code>).</p>
+ * <p>A decision is keyed by delegator, user login, service and the simple-typed IN parameters of the
+ * permission service; calls with parameters that cannot be used in a key are never cached.
+ * Entries must be invalidated when security data changes, see {@link #clearUserLogin(String)}
+ * and {@link #clear()} and the <code>clearServicePermissionCache</code> service.</p>
+ */
+public final class ServicePermissionCache {
+
+    public static final String module = ServicePermissionCache.class.getName();
+
+    private static final boolean enabled = UtilProperties.propertyValueEqualsIgnoreCase("service", "permissionCache.enable", "true");
+    private static final UtilCache<String, Map<String, Object>> decisionCache = UtilCache.createUtilCache("service.PermissionDecisions",
+            (int) UtilProperties.getPropertyAsLong("service", "permissionCache.maxSize", 10000),
+            UtilProperties.getPropertyAsLong("service", "permissionCache.expireTime", 60000), false);
+    private static final Map<String, Object> PERMISSIONS_GRANTED = Collections.<String, Object>singletonMap("hasPermission", Boolean.TRUE);
+    private static final Map<String, Object> PERMISSIONS_DENIED = Collections.<String, Object>singletonMap("hasPermission", Boolean.FALSE);
+    private static final char SEPARATOR = '\u0000';
+
+    private ServicePermissionCache() {}
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Evaluates the permission-service of <code>model</code>, using a cached response when there is one.
+     * @see ModelService#evalPermission(DispatchContext, Map)
+     */
+    public static Map<String, Object> evalPermission(ModelService model, DispatchContext dctx, Map<String, ? extends Object> context) {
+        if (!enabled) {
+            return model.evalPermission(dctx, context);
+        }
+        String key = null;
+        try {
+            ModelService permission = dctx.getModelService(model.permissionServiceName);
+            key = makeKey(dctx, context, "S", model.name, permission.makeValid(context, ModelService.IN_PARAM, false, null));
+        } catch (GenericServiceException e) {
+            // let evalPermission report the missing permission service
+        }
+        if (key == null) {
+            return model.evalPermission(dctx, context);
+        }
+        Map<String, Object> response = decisionCache.get(key);
+        if (response == null) {
+            response = model.evalPermission(dctx, context);
+            if (response.get("hasPermission") != null && !ServiceUtil.isError(response)) {
+                decisionCache.put(key, Collections.unmodifiableMap(new HashMap<String, Object>(response)));
+            }
+            return response;
+        }
+        // callers may add to the response
+        return new HashMap<String, Object>(response);
+    }
+
+    /**
+     * Evaluates the required permissions of <code>model</code>, using a cached decision when there is one.
+     * Services with a permission-service inside their required permissions are not cached.
+     * @see ModelService#evalPermissions(DispatchContext, Map)
+     */
+    public static boolean evalPermissions(ModelService model, DispatchContext dctx, Map<String, ? extends Object> context) {
+        if (!enabled || !model.containsPermissions() || usesPermissionService(model)) {
+            return model.evalPermissions(dctx, context);
+        }
+        String key = makeKey(dctx, context, "P", model.name, null);
+        if (key == null) {
+            return model.evalPermissions(dctx, context);
+        }
+        Map<String, Object> decision = decisionCache.get(key);
+        if (decision == null) {
+            decision = model.evalPermissions(dctx, context) ? PERMISSIONS_GRANTED : PERMISSIONS_DENIED;
+            decisionCache.put(key, decision);
+        }
+        return decision == PERMISSIONS_GRANTED;
+    }
+
+    /**
+     * Removes all the cached decisions.
+     */
+    public static void clear() {
+        decisionCache.clear();
+    }
+
+    /**
+     * Removes the cached decisions of one user login, to be called when its security groups change.
+     */
+    public static void clearUserLogin(String userLoginId) {
+        if (UtilValidate.isEmpty(userLoginId)) {
+            return;
+        }
+        String userPart = SEPARATOR + userLoginId + SEPARATOR;
+        for (String key : decisionCache.getCacheLineKeys()) {
+            if (key.contains(userPart)) {
+                decisionCache.remove(key);
+            }
+        }
+        if (Debug.verboseOn()) Debug.logVerbose("Cleared service permission decisions for user login [" + userLoginId + "]", module);
+    }
+
+    private static boolean usesPermissionService(ModelService model) {
+        for (ModelPermGroup group : model.permissionGroups) {
+            for (ModelPermission permission : group.permissions) {
+                if (permission.permissionType == ModelPermission.PERMISSION_SERVICE) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // returns null when the call can't be cached: no user login or parameters that are not simple values
+    private static String makeKey(DispatchContext dctx, Map<String, ? extends Object> context, String kind, String serviceName, Map<String, Object> params) {
+        GenericValue userLogin = (GenericValue) context.get("userLogin");
+        if (userLogin == null || userLogin.getString("userLoginId") == null) {
+            return null;
+        }
+        StringBuilder key = new StringBuilder();
+        key.append(dctx.getDelegator().getDelegatorName());
+        key.append(SEPARATOR).append(userLogin.getString("userLoginId")).append(SEPARATOR);
+        key.append(kind).append(SEPARATOR).append(serviceName);
+        if (params != null) {
+            params.remove("userLogin");
+            params.remove("locale");
+            params.remove("timeZone");
+            for (Map.Entry<String, Object> entry : new TreeMap<String, Object>(params).entrySet()) {
+                Object value = entry.getValue();
+                if (value != null && !(value instanceof String || value instanceof Number || value instanceof Boolean
+                        || value instanceof Character || value instanceof java.util.Date)) {
+                    return null;
+                }
+                key.append(SEPARATOR).append(entry.getKey()).append('=').append(value);
+            }
+        }
+        return key.toString();
+    }
+}
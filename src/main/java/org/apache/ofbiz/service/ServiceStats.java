@@ -0,0 +1,283 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.service;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.apache.ofbiz.base.util.Debug;
+
+/**
+ * Latency histogram, call counts and in-flight gauges of a service, recorded for every call
+ * run by this instance.
+ * <p>Latencies are counted in log-linear buckets of microseconds, four per power of two, so a
+ * percentile is reported at most 25% above its actual value and never above the maximum. The
+ * counters are <code>LongAdder</code>s and the buckets are created on first use: concurrent calls
+ * of a service do not contend on a lock, and a service only holds the buckets it used.</p>
+ * <p>Asynchronous calls are counted when they are dispatched and while their job runs; the job
+ * runs the service through <code>runSync</code>, so its execution is part of the latencies.
+ * The statistics are read with the <code>getServiceStats</code> service or the
+ * <code>org.apache.ofbiz.service:type=ServiceStats</code> MBean.</p>
+ */
+public final class ServiceStats {
+
+    public static final String module = ServiceStats.class.getName();
+    public static final String OBJECT_NAME = "org.apache.ofbiz.service:type=ServiceStats";
+
+    // 2^SUB_BUCKET_BITS buckets per power of two, up to 2^MAX_BITS microseconds (19 hours)
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_BITS = 36;
+    private static final int BUCKETS = (MAX_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private static final ConcurrentHashMap<String, ServiceStats> statsMap = new ConcurrentHashMap<String, ServiceStats>();
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(new Management(), ServiceStatsMXBean.class, true),
+                    new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            Debug.logWarning(e, "Could not register the " + OBJECT_NAME + " MBean", module);
+        }
+    }
+
+    private final String serviceName;
+    private final AtomicReferenceArray<LongAdder> buckets = new AtomicReferenceArray<LongAdder>(BUCKETS);
+    private final LongAdder callCount = new LongAdder();
+    private final LongAdder errorCount = new LongAdder();
+    private final LongAdder failureCount = new LongAdder();
+    private final LongAdder totalMicros = new LongAdder();
+    private final LongAdder inFlight = new LongAdder();
+    private final LongAdder asyncCount = new LongAdder();
+    private final LongAdder asyncInFlight = new LongAdder();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    private ServiceStats(String serviceName) {
+        this.serviceName = serviceName;
+    }
+
+    /** Returns the statistics of a service, creating them on its first call. */
+    public static ServiceStats getStats(String serviceName) {
+        ServiceStats stats = statsMap.get(serviceName);
+        if (stats == null) {
+            stats = new ServiceStats(serviceName);
+            ServiceStats existing = statsMap.putIfAbsent(serviceName, stats);
+            if (existing != null) {
+                stats = existing;
+            }
+        }
+        return stats;
+    }
+
+    /** Returns the statistics of a service, or <code>null</code> if it was not called. */
+    public static ServiceStats findStats(String serviceName) {
+        return statsMap.get(serviceName);
+    }
+
+    /** Returns the sorted names of the services that were called. */
+    public static List<String> getServiceNames() {
+        return new ArrayList<String>(new TreeSet<String>(statsMap.keySet()));
+    }
+
+    /** Returns the names of the services with the highest 99th percentile latency, highest first. */
+    public static List<String> getSlowestServiceNames(int count) {
+        final Map<String, Long> p99s = new HashMap<String, Long>();
+        for (ServiceStats stats : statsMap.values()) {
+            p99s.put(stats.serviceName, stats.getSnapshot().get("p99Micros"));
+        }
+        List<String> names = new ArrayList<String>(p99s.keySet());
+        Collections.sort(names, new Comparator<String>() {
+            @Override
+            public int compare(String name1, String name2) {
+                return p99s.get(name2).compareTo(p99s.get(name1));
+            }
+        });
+        return names.size() > count ? names.subList(0, Math.max(count, 0)) : names;
+    }
+
+    /** Clears the statistics of all the services. */
+    public static void reset() {
+        statsMap.clear();
+    }
+
+    /**
+     * Records the start of a call.
+     * @return The start time to pass to {@link #end}
+     */
+    public long begin() {
+        inFlight.increment();
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the end of a call.
+     * @param startNanos The time returned by {@link #begin}
+     * @param result The service result, <code>null</code> when the call threw an exception
+     */
+    public void end(long startNanos, Map<String, ? extends Object> result) {
+        long micros = (System.nanoTime() - startNanos) / 1000;
+        inFlight.decrement();
+        callCount.increment();
+        totalMicros.add(micros);
+        bucket(bucketIndex(micros)).increment();
+        long max = maxMicros.get();
+        while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+            max = maxMicros.get();
+        }
+        if (result == null || ServiceUtil.isError(result)) {
+            errorCount.increment();
+        } else if (ServiceUtil.isFailure(result)) {
+            failureCount.increment();
+        }
+    }
+
+    /** Records an asynchronous call handed to the job manager. */
+    public void asyncDispatched() {
+        asyncCount.increment();
+    }
+
+    /** Records the start of an asynchronous job running the service. */
+    public void asyncBegin() {
+        asyncInFlight.increment();
+    }
+
+    /** Records the end of an asynchronous job running the service. */
+    public void asyncEnd() {
+        asyncInFlight.decrement();
+    }
+
+    public String getServiceName() {
+        return serviceName;
+    }
+
+    /**
+     * Returns the current statistics: <code>callCount</code>, <code>errorCount</code> (including
+     * exceptions), <code>failureCount</code>, <code>inFlight</code>, <code>asyncCount</code>,
+     * <code>asyncInFlight</code>, and the <code>meanMicros</code>, <code>p50Micros</code>,
+     * <code>p95Micros</code>, <code>p99Micros</code> and <code>maxMicros</code> latencies.
+     */
+    public Map<String, Long> getSnapshot() {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            LongAdder bucket = buckets.get(i);
+            if (bucket != null) {
+                counts[i] = bucket.sum();
+                total += counts[i];
+            }
+        }
+        long max = maxMicros.get();
+        Map<String, Long> snapshot = new LinkedHashMap<String, Long>();
+        snapshot.put("callCount", callCount.sum());
+        snapshot.put("errorCount", errorCount.sum());
+        snapshot.put("failureCount", failureCount.sum());
+        snapshot.put("inFlight", inFlight.sum());
+        snapshot.put("asyncCount", asyncCount.sum());
+        snapshot.put("asyncInFlight", asyncInFlight.sum());
+        snapshot.put("meanMicros", total > 0 ? totalMicros.sum() / total : 0);
+        snapshot.put("p50Micros", percentile(counts, total, 0.50, max));
+        snapshot.put("p95Micros", percentile(counts, total, 0.95, max));
+        snapshot.put("p99Micros", percentile(counts, total, 0.99, max));
+        snapshot.put("maxMicros", max);
+        return snapshot;
+    }
+
+    private LongAdder bucket(int index) {
+        LongAdder bucket = buckets.get(index);
+        if (bucket == null) {
+            buckets.compareAndSet(index, null, new LongAdder());
+            bucket = buckets.get(index);
+        }
+        return bucket;
+    }
+
+    // values below SUB_BUCKETS have their own bucket, larger ones share a bucket with the values
+    // having the same SUB_BUCKET_BITS + 1 highest bits
+    private static int bucketIndex(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) Math.max(micros, 0);
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+        int index = (shift + 1) * SUB_BUCKETS + (int) (micros >>> shift) - SUB_BUCKETS;
+        return Math.min(index, BUCKETS - 1);
+    }
+
+    private static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        return ((long) (SUB_BUCKETS + index % SUB_BUCKETS + 1) << shift) - 1;
+    }
+
+    private static long percentile(long[] counts, long total, double percentile, long max) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile);
+        long cumulative = 0;
+        for (int i = 0; i < counts.length; i++) {
+            cumulative += counts[i];
+            if (cumulative >= rank) {
+                return Math.min(bucketUpperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    private static final class Management implements ServiceStatsMXBean {
+        @Override
+        public String[] getServiceNames() {
+            List<String> names = ServiceStats.getServiceNames();
+            return names.toArray(new String[names.size()]);
+        }
+
+        @Override
+        public Map<String, Long> getServiceStats(String serviceName) {
+            ServiceStats stats = findStats(serviceName);
+            return stats != null ? stats.getSnapshot() : null;
+        }
+
+        @Override
+        public String[] getSlowestServices(int count) {
+            List<String> names = getSlowestServiceNames(count);
+            return names.toArray(new String[names.size()]);
+        }
+
+        @Override
+        public void reset() {
+            ServiceStats.reset();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.service;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link ServiceStats}, registered as <code>org.apache.ofbiz.service:type=ServiceStats</code>.
+ */
+public interface ServiceStatsMXBean {
+
+    /** Returns the sorted names of the services that were called. */
+    String[] getServiceNames();
+
+    /** Returns the statistics of a service, see {@link ServiceStats#getSnapshot}. */
+    Map<String, Long> getServiceStats(String serviceName);
+
+    /** Returns the names of the services with the highest 99th percentile latency, highest first. */
+    String[] getSlowestServices(int count);
+
+    /** Clears the statistics of all the services. */
+    void reset();
+}
@@ -18,9 +18,9 @@
  *******************************************************************************/
 package org.apache.ofbiz.service;
 
-import java.math.BigDecimal;
 import java.sql.Timestamp;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
@@ -41,14 +41,15 @@ import org.apache.ofbiz.entity.Delegator;
 import org.apache.ofbiz.entity.GenericEntityException;
 import org.apache.ofbiz.entity.GenericValue;
 import org.apache.ofbiz.entity.condition.EntityCondition;
-import org.apache.ofbiz.entity.condition.EntityExpr;
 import org.apache.ofbiz.entity.condition.EntityOperator;
 import org.apache.ofbiz.entity.transaction.GenericTransactionException;
 import org.apache.ofbiz.entity.transaction.TransactionUtil;
-import org.apache.ofbiz.entity.util.EntityListIterator;
 import org.apache.ofbiz.entity.util.EntityQuery;
 import org.apache.ofbiz.security.Security;
+import org.apache.ofbiz.service.calendar.TemporalExpressionWorker;
 import org.apache.ofbiz.service.config.ServiceConfigUtil;
+import org.apache.ofbiz.service.job.JobPriority;
+import org.apache.ofbiz.service.job.JobPurger;
 
 import com.ibm.icu.util.Calendar;
 
@@ -387,137 +388,17 @@ public final class ServiceUtil {
         Delegator delegator = dctx.getDelegator();
 
         Timestamp purgeTime = new Timestamp(cal.getTimeInMillis());
+        EntityCondition condition = EntityCondition.makeCondition(UtilMisc.toList(EntityCondition.makeCondition("poolId", sendPool), JobPurger.makeDoneCondition(purgeTime)));
 
-        // create the conditions to query
-        EntityCondition pool = EntityCondition.makeCondition("poolId", sendPool);
-
-        List<EntityExpr> finExp = UtilMisc.toList(EntityCondition.makeCondition("finishDateTime", EntityOperator.NOT_EQUAL, null));
-        finExp.add(EntityCondition.makeCondition("finishDateTime", EntityOperator.LESS_THAN, purgeTime));
-
-        List<EntityExpr> canExp = UtilMisc.toList(EntityCondition.makeCondition("cancelDateTime", EntityOperator.NOT_EQUAL, null));
-        canExp.add(EntityCondition.makeCondition("cancelDateTime", EntityOperator.LESS_THAN, purgeTime));
-
-        EntityCondition cancelled = EntityCondition.makeCondition(canExp);
-        EntityCondition finished = EntityCondition.makeCondition(finExp);
-
-        EntityCondition doneCond = EntityCondition.makeCondition(UtilMisc.toList(cancelled, finished), EntityOperator.OR);
-
-        // always suspend the current transaction; use the one internally
+        // always suspend the current transaction; the purge commits each chunk on its own
         Transaction parent = null;
         try {
             if (TransactionUtil.getStatus() != TransactionUtil.STATUS_NO_TRANSACTION) {
                 parent = TransactionUtil.suspend();
             }
-
-            // lookup the jobs - looping 1000 at a time to avoid problems with cursors
-            // also, using unique transaction to delete as many as possible even with errors
-            boolean noMoreResults = false;
-            boolean beganTx1 = false;
-            while (!noMoreResults) {
-                // current list of records
-                List<GenericValue> curList = null;
-                try {
-                    // begin this transaction
-                    beganTx1 = TransactionUtil.begin();
-
-                    EntityListIterator foundJobs = null;
-                    try {
-                        foundJobs = EntityQuery.use(delegator)
-                                               .select("jobId")
-                                               .from("JobSandbox")
-                                               .where(EntityCondition.makeCondition(UtilMisc.toList(doneCond, pool)))
-                                               .cursorScrollInsensitive()
-                                               .maxRows(1000)
-                                               .queryIterator();
-                        curList = foundJobs.getPartialList(1, 1000);
-                    } finally {
-                        if (foundJobs != null) {
-                            foundJobs.close();
-                         }
-                    }
-                } catch (GenericEntityException e) {
-                    Debug.logError(e, "Cannot obtain job data from datasource", module);
-                    try {
-                        TransactionUtil.rollback(beganTx1, e.getMessage(), e);
-                    } catch (GenericTransactionException e1) {
-                        Debug.logWarning(e1, module);
-                    }
-                    return ServiceUtil.returnError(e.getMessage());
-                } finally {
-                    try {
-                        TransactionUtil.commit(beganTx1);
-                    } catch (GenericTransactionException e) {
-                        Debug.logWarning(e, module);
-                    }
-                }
-                // remove each from the list in its own transaction
-                if (UtilValidate.isNotEmpty(curList)) {
-                    for (GenericValue job: curList) {
-                        String jobId = job.getString("jobId");
-                        boolean beganTx2 = false;
-                        try {
-                            beganTx2 = TransactionUtil.begin();
-                            job.remove();
-                        } catch (GenericEntityException e) {
-                            Debug.logInfo("Cannot remove job data for ID: " + jobId, module);
-                            try {
-                                TransactionUtil.rollback(beganTx2, e.getMessage(), e);
-                            } catch (GenericTransactionException e1) {
-                                Debug.logWarning(e1, module);
-                            }
-                        } finally {
-                            try {
-                                TransactionUtil.commit(beganTx2);
-                            } catch (GenericTransactionException e) {
-                                Debug.logWarning(e, module);
-                            }
-                        }
-                    }
-                } else {
-                    noMoreResults = true;
-                }
-            }
-
-            // Now JobSandbox data is cleaned up. Now process Runtime data and remove the whole data in single shot that is of no need.
-            boolean beganTx3 = false;
-            GenericValue runtimeData = null;
-            EntityListIterator runTimeDataIt = null;
-            List<GenericValue> runtimeDataToDelete = new LinkedList<GenericValue>();
-            long jobsandBoxCount = 0;
-            try {
-                // begin this transaction
-                beganTx3 = TransactionUtil.begin();
-
-                runTimeDataIt = EntityQuery.use(delegator).select("runtimeDataId").from("RuntimeData").queryIterator();
-                try {
-                    while ((runtimeData = runTimeDataIt.next()) != null) {
-                        EntityCondition whereCondition = EntityCondition.makeCondition(UtilMisc.toList(EntityCondition.makeCondition("runtimeDataId", EntityOperator.NOT_EQUAL, null),
-                                EntityCondition.makeCondition("runtimeDataId", EntityOperator.EQUALS, runtimeData.getString("runtimeDataId"))), EntityOperator.AND);
-                        jobsandBoxCount = EntityQuery.use(delegator).from("JobSandbox").where(whereCondition).queryCount();
-                        if (BigDecimal.ZERO.compareTo(BigDecimal.valueOf(jobsandBoxCount)) == 0) {
-                            runtimeDataToDelete.add(runtimeData);
-                        }
-                    }
-                } finally {
-                    runTimeDataIt.close();
-                }
-                // Now we are ready to delete runtimeData, we can safely delete complete list that we have recently fetched i.e runtimeDataToDelete.
-                delegator.removeAll(runtimeDataToDelete);
-            } catch (GenericEntityException e) {
-                Debug.logError(e, "Cannot obtain runtime data from datasource", module);
-                try {
-                    TransactionUtil.rollback(beganTx3, e.getMessage(), e);
-                } catch (GenericTransactionException e1) {
-                    Debug.logWarning(e1, module);
-                }
-                return ServiceUtil.returnError(e.getMessage());
-            } finally {
-                try {
-                    TransactionUtil.commit(beganTx3);
-                } catch (GenericTransactionException e) {
-                    Debug.logWarning(e, module);
-                }
-            }
+            JobPurger.purgeJobs(delegator, condition);
+            // remove the RuntimeData left behind by jobs removed some other way
+            JobPurger.purgeOrphanedRuntimeData(delegator);
         } catch (GenericTransactionException e) {
             Debug.logError(e, "Unable to suspend transaction; cannot purge jobs!", module);
             return ServiceUtil.returnError(e.getMessage());
@@ -609,6 +490,65 @@ public final class ServiceUtil {
         }
     }
 
+    /** Clears the service permission decision cache, for one user login when userLoginId is passed */
+    public static Map<String, Object> clearServicePermissionCache(DispatchContext dctx, Map<String, ? extends Object> context) {
+        String userLoginId = (String) context.get("userLoginId");
+        if (UtilValidate.isNotEmpty(userLoginId)) {
+            ServicePermissionCache.clearUserLogin(userLoginId);
+        } else {
+            ServicePermissionCache.clear();
+        }
+        return ServiceUtil.returnSuccess();
+    }
+
+    public static Map<String, Object> clearTemporalExpressionCache(DispatchContext dctx, Map<String, ? extends Object> context) {
+        TemporalExpressionWorker.clearExpressionCache();
+        return ServiceUtil.returnSuccess();
+    }
+
+    /** Clears the service authentication cache, for one user login when userLoginId is passed */
+    public static Map<String, Object> clearServiceAuthCache(DispatchContext dctx, Map<String, ? extends Object> context) {
+        String userLoginId = (String) context.get("userLoginId");
+        if (UtilValidate.isNotEmpty(userLoginId)) {
+            ServiceAuthCache.clearUserLogin(userLoginId);
+        } else {
+            ServiceAuthCache.clear();
+        }
+        return ServiceUtil.returnSuccess();
+    }
+
+    /** Returns the hit/miss counters of the service authentication cache */
+    public static Map<String, Object> getServiceAuthCacheStats(DispatchContext dctx, Map<String, ? extends Object> context) {
+        Map<String, Object> result = ServiceUtil.returnSuccess();
+        result.put("enabled", ServiceAuthCache.isEnabled());
+        result.put("hitCount", ServiceAuthCache.getHitCount());
+        result.put("missCount", ServiceAuthCache.getMissCount());
+        return result;
+    }
+
+    public static Map<String, Object> getServiceStats(DispatchContext dctx, Map<String, ? extends Object> context) {
+        String serviceName = (String) context.get("serviceName");
+        Integer maxServices = (Integer) context.get("maxServices");
+        List<String> serviceNames;
+        if (UtilValidate.isNotEmpty(serviceName)) {
+            serviceNames = UtilMisc.toList(serviceName);
+        } else if (maxServices != null) {
+            serviceNames = ServiceStats.getSlowestServiceNames(maxServices);
+        } else {
+            serviceNames = ServiceStats.getServiceNames();
+        }
+        Map<String, Object> serviceStats = new LinkedHashMap<String, Object>();
+        for (String name : serviceNames) {
+            ServiceStats stats = ServiceStats.findStats(name);
+            if (stats != null) {
+                serviceStats.put(name, stats.getSnapshot());
+            }
+        }
+        Map<String, Object> result = ServiceUtil.returnSuccess();
+        result.put("serviceStats", serviceStats);
+        return result;
+    }
+
     public static Map<String, Object> genericDateCondition(DispatchContext dctx, Map<String, ? extends Object> context) {
         Timestamp fromDate = (Timestamp) context.get("fromDate");
         Timestamp thruDate = (Timestamp) context.get("thruDate");
@@ -696,6 +636,28 @@ public final class ServiceUtil {
         return ServiceUtil.returnSuccess();
     }
 
+    /**
+     * Gives the normal priority to the unfinished jobs without a priority, created before job priorities or
+     * outside of the job manager. Run it once after an upgrade, the portable job claim sorts the jobs without a priority last.
+     */
+    public static Map<String, Object> setDefaultJobPriority(DispatchContext dctx, Map<String, Object> context) {
+        Delegator delegator = dctx.getDelegator();
+        int rowsUpdated;
+        try {
+            rowsUpdated = delegator.storeByCondition("JobSandbox", UtilMisc.toMap("priority", Long.valueOf(JobPriority.NORMAL)),
+                    EntityCondition.makeCondition(UtilMisc.toList(
+                            EntityCondition.makeCondition("priority", EntityOperator.EQUALS, null),
+                            EntityCondition.makeCondition("finishDateTime", EntityOperator.EQUALS, null),
+                            EntityCondition.makeCondition("cancelDateTime", EntityOperator.EQUALS, null))));
+        } catch (GenericEntityException e) {
+            Debug.logError(e, module);
+            return ServiceUtil.returnError(e.getMessage());
+        }
+        Map<String, Object> result = ServiceUtil.returnSuccess();
+        result.put("jobsUpdated", rowsUpdated);
+        return result;
+    }
+
     /**
      * Checks all incoming service attributes and look for fields with the same
      * name in the incoming map and copy those onto the outgoing map. Also
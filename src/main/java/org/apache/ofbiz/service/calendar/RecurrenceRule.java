@@ -18,12 +18,18 @@
  *******************************************************************************/
 package org.apache.ofbiz.service.calendar;
 
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
 import java.util.Arrays;
-import com.ibm.icu.util.Calendar;
+import java.util.BitSet;
 import java.util.Date;
-import java.util.Iterator;
 import java.util.List;
 
+import com.ibm.icu.util.Calendar;
+
 import org.apache.ofbiz.base.util.Debug;
 import org.apache.ofbiz.base.util.StringUtil;
 import org.apache.ofbiz.base.util.UtilValidate;
@@ -98,6 +104,27 @@ public class RecurrenceRule {
     protected List<String> byMonthList;
     protected List<String> bySetPosList;
 
+    // **********************
+    // * Evaluated rule, set by init()
+    // **********************
+    private int frequency;
+    private int interval;
+    private long endTime;
+    private long count;
+    // a null set means there is no such rule
+    private BitSet bySeconds;
+    private BitSet byMinutes;
+    private BitSet byHours;
+    private int[] byDayOfWeeks; // Calendar days of week
+    private int[] byDayNumbers; // nth day of week in the month or year, 0 for any
+    private BitSet byMonthDays;
+    private BitSet byMonthDaysFromEnd;
+    private BitSet byYearDays;
+    private BitSet byYearDaysFromEnd;
+    private BitSet byWeekNos;
+    private BitSet byWeekNosFromEnd;
+    private BitSet byMonths;
+
     /**
      * Creates a new RecurrenceRule object from a RecurrenceInfo entity.
      *@param rule GenericValue object defining this rule.
@@ -132,6 +159,92 @@ public class RecurrenceRule {
         byWeekNoList = StringUtil.split(rule.getString("byWeekNoList"), ",");
         byMonthList = StringUtil.split(rule.getString("byMonthList"), ",");
         bySetPosList = StringUtil.split(rule.getString("bySetPosList"), ",");
+
+        // Evaluate the rule once, next() and validCurrent() only use the parsed values
+        frequency = getFrequency();
+        interval = getIntervalInt();
+        endTime = getEndTime();
+        count = getCount();
+        bySeconds = parseValues(bySecondList, MAX_SEC);
+        byMinutes = parseValues(byMinuteList, MAX_MIN);
+        byHours = parseValues(byHourList, MAX_HR);
+        byDayOfWeeks = null;
+        byDayNumbers = null;
+        if (UtilValidate.isNotEmpty(byDayList)) {
+            byDayOfWeeks = new int[byDayList.size()];
+            byDayNumbers = new int[byDayList.size()];
+            for (int i = 0; i < byDayList.size(); i++) {
+                String dayRule = byDayList.get(i);
+                byDayOfWeeks[i] = getCalendarDay(getDailyString(dayRule));
+                byDayNumbers[i] = dayRule.length() > 0 && hasNumber(dayRule) ? getDailyNumber(dayRule) : 0;
+            }
+        }
+        byMonthDays = parseNumbers(byMonthDayList, MAX_MTH_DAY, false);
+        byMonthDaysFromEnd = parseNumbers(byMonthDayList, -MIN_MTH_DAY, true);
+        byYearDays = parseNumbers(byYearDayList, MAX_YEAR_DAY, false);
+        byYearDaysFromEnd = parseNumbers(byYearDayList, -MIN_YEAR_DAY, true);
+        byWeekNos = parseNumbers(byWeekNoList, MAX_WEEK_NO, false);
+        byWeekNosFromEnd = parseNumbers(byWeekNoList, -MIN_WEEK_NO, true);
+        byMonths = null;
+        if (UtilValidate.isNotEmpty(byMonthList)) {
+            byMonths = new BitSet(MAX_MTH);
+            for (String monthStr : byMonthList) {
+                int month = 0;
+                try {
+                    month = Integer.parseInt(monthStr);
+                } catch (NumberFormatException nfe) {
+                    Debug.logError(nfe, "Error parsing month string " + monthStr + ": " + nfe.toString(), module);
+                }
+                // months have always been compared with the zero based Calendar.MONTH
+                if (month >= 0 && month < MAX_MTH) {
+                    byMonths.set(month);
+                }
+            }
+        }
+    }
+
+    // Returns the values of a bySecond/byMinute/byHour list, entries only match their plain decimal form
+    private static BitSet parseValues(List<String> list, int max) {
+        if (UtilValidate.isEmpty(list)) {
+            return null;
+        }
+        BitSet values = new BitSet(max + 1);
+        for (String str : list) {
+            try {
+                int value = Integer.parseInt(str);
+                if (value >= 0 && value <= max && String.valueOf(value).equals(str)) {
+                    values.set(value);
+                }
+            } catch (NumberFormatException nfe) {
+                // never matches
+            }
+        }
+        return values;
+    }
+
+    // Returns the positive numbers of a byMonthDay/byYearDay/byWeekNo list, or the negated negative numbers
+    private static BitSet parseNumbers(List<String> list, int max, boolean fromEnd) {
+        if (UtilValidate.isEmpty(list)) {
+            return null;
+        }
+        BitSet numbers = new BitSet(max + 1);
+        for (String str : list) {
+            int number = 0;
+            try {
+                number = Integer.parseInt(str);
+            } catch (NumberFormatException nfe) {
+                if (!fromEnd) {
+                    Debug.logError(nfe, "Error parsing number string " + str + ": " + nfe.toString(), module);
+                }
+            }
+            if (fromEnd) {
+                number = -number;
+            }
+            if (number > 0 && number <= max) {
+                numbers.set(number);
+            }
+        }
+        return numbers;
     }
 
     // Checks for a valid frequency property.
@@ -257,31 +370,18 @@ public class RecurrenceRule {
             fromTime = startTime;
 
         // Test the end time of the recurrence.
-        if (getEndTime() != 0 && getEndTime() <= RecurrenceUtil.now())
+        if (endTime != 0 && endTime <= RecurrenceUtil.now())
             return 0;
         Debug.logVerbose("Rule NOT expired by end time.", module);
 
         // Test the recurrence limit.
-        if (getCount() != -1 && currentCount >= getCount())
+        if (count != -1 && currentCount >= count)
             return 0;
         Debug.logVerbose("Rule NOT expired by max count.", module);
 
-        boolean isSeeking = true;
-        long nextRuntime = 0;
-        long seekTime = fromTime;
-        int loopProtection = 0;
-        int maxLoop = (10 * 10 * 10 * 10 * 10);
-
-        while (isSeeking && loopProtection < maxLoop) {
-            Date nextRun = getNextFreq(startTime, seekTime);
-            seekTime = nextRun.getTime();
-            if (validByRule(nextRun)) {
-                isSeeking = false;
-                nextRuntime = nextRun.getTime();
-            }
-            loopProtection++;
-        }
-        return nextRuntime;
+        // Only the first recurrence from fromTime is a candidate: seeking again from it finds the same recurrence
+        long nextRuntime = getNextFreq(startTime, fromTime);
+        return validByRule(nextRuntime) ? nextRuntime : 0;
     }
 
     /**
@@ -301,33 +401,32 @@ public class RecurrenceRule {
         }
 
         // Test the end time of the recurrence.
-        if (getEndTime() != 0 && getEndTime() <= RecurrenceUtil.now()) {
+        if (endTime != 0 && endTime <= RecurrenceUtil.now()) {
             return 0;
         }
 
         // Test the recurrence limit.
-        if (getCount() != -1 && currentCount >= getCount()) {
+        if (count != -1 && currentCount >= count) {
             return 0;
         }
 
         // Get the next frequency from checkTime
-        Date nextRun = getNextFreq(startTime, checkTime);
         Calendar cal = Calendar.getInstance();
         Calendar checkTimeCal = Calendar.getInstance();
-        cal.setTime(nextRun);
-        checkTimeCal.setTime(new Date(checkTime));
+        cal.setTimeInMillis(getNextFreq(startTime, checkTime));
+        checkTimeCal.setTimeInMillis(checkTime);
 
         // Get previous frequency and update its values from checkTime
-        switch (getFrequency()) {
+        switch (frequency) {
         case YEARLY:
-            cal.add(Calendar.YEAR, -getIntervalInt());
+            cal.add(Calendar.YEAR, -interval);
             if (cal.get(Calendar.YEAR) != checkTimeCal.get(Calendar.YEAR)) {
                 return 0;
             }
 
         case MONTHLY:
-            if (MONTHLY == getFrequency()) {
-                cal.add(Calendar.MONTH, -getIntervalInt());
+            if (MONTHLY == frequency) {
+                cal.add(Calendar.MONTH, -interval);
                 if (cal.get(Calendar.MONTH) != checkTimeCal.get(Calendar.MONTH)) {
                     return 0;
                 }
@@ -336,8 +435,8 @@ public class RecurrenceRule {
             }
 
         case WEEKLY:
-            if (WEEKLY == getFrequency()) {
-                cal.add(Calendar.WEEK_OF_YEAR, -getIntervalInt());
+            if (WEEKLY == frequency) {
+                cal.add(Calendar.WEEK_OF_YEAR, -interval);
                 if (cal.get(Calendar.WEEK_OF_YEAR) != checkTimeCal.get(Calendar.WEEK_OF_YEAR)) {
                     return 0;
                 }
@@ -346,8 +445,8 @@ public class RecurrenceRule {
             }
 
         case DAILY:
-            if (DAILY == getFrequency()) {
-                cal.add(Calendar.DAY_OF_MONTH, -getIntervalInt());
+            if (DAILY == frequency) {
+                cal.add(Calendar.DAY_OF_MONTH, -interval);
                 if (cal.get(Calendar.DAY_OF_MONTH) != checkTimeCal.get(Calendar.DAY_OF_MONTH)) {
                     return 0;
                 }
@@ -356,8 +455,8 @@ public class RecurrenceRule {
             }
 
         case HOURLY:
-            if (HOURLY == getFrequency()) {
-                cal.add(Calendar.HOUR_OF_DAY, -getIntervalInt());
+            if (HOURLY == frequency) {
+                cal.add(Calendar.HOUR_OF_DAY, -interval);
                 if (cal.get(Calendar.HOUR_OF_DAY) != checkTimeCal.get(Calendar.HOUR_OF_DAY)) {
                     return 0;
                 }
@@ -366,8 +465,8 @@ public class RecurrenceRule {
             }
 
         case MINUTELY:
-            if (MINUTELY == getFrequency()) {
-                cal.add(Calendar.MINUTE, -getIntervalInt());
+            if (MINUTELY == frequency) {
+                cal.add(Calendar.MINUTE, -interval);
                 if (cal.get(Calendar.MINUTE) != checkTimeCal.get(Calendar.MINUTE)) {
                     return 0;
                 }
@@ -376,8 +475,8 @@ public class RecurrenceRule {
             }
 
         case SECONDLY:
-            if (SECONDLY == getFrequency()) {
-                cal.add(Calendar.SECOND, -getIntervalInt());
+            if (SECONDLY == frequency) {
+                cal.add(Calendar.SECOND, -interval);
                 if (cal.get(Calendar.SECOND) != checkTimeCal.get(Calendar.SECOND)) {
                     return 0;
                 }
@@ -387,8 +486,9 @@ public class RecurrenceRule {
         }
 
         // Check for validity of the current frequency.
-        if (validByRule(cal.getTime())) {
-             return cal.getTime().getTime();
+        long currentTime = cal.getTimeInMillis();
+        if (validByRule(currentTime)) {
+             return currentTime;
         }
 
         return 0;
@@ -433,240 +533,115 @@ public class RecurrenceRule {
         }
     }
 
-    // Gets the next frequency/interval recurrence from specified time
-    private Date getNextFreq(long startTime, long fromTime) {
-        // Build a Calendar object
-        Calendar cal = Calendar.getInstance();
-
-        cal.setTime(new Date(startTime));
-
-        long nextStartTime = startTime;
-
-        while (nextStartTime < fromTime) {
-            // if (Debug.verboseOn()) Debug.logVerbose("[RecurrenceInfo.getNextFreq] : Updating time - " + getFrequency(), module);
-            switch (getFrequency()) {
-            case SECONDLY:
-                cal.add(Calendar.SECOND, getIntervalInt());
-                break;
-
-            case MINUTELY:
-                cal.add(Calendar.MINUTE, getIntervalInt());
-                break;
-
-            case HOURLY:
-                cal.add(Calendar.HOUR_OF_DAY, getIntervalInt());
-                break;
-
-            case DAILY:
-                cal.add(Calendar.DAY_OF_MONTH, getIntervalInt());
-                break;
-
-            case WEEKLY:
-                cal.add(Calendar.WEEK_OF_YEAR, getIntervalInt());
-                break;
-
-            case MONTHLY:
-                cal.add(Calendar.MONTH, getIntervalInt());
-                break;
-
-            case YEARLY:
-                cal.add(Calendar.YEAR, getIntervalInt());
-                break;
-
-            default:
-                return null; // should never happen
-            }
-            nextStartTime = cal.getTime().getTime();
+    // Gets the first frequency/interval recurrence on or after the specified time
+    private long getNextFreq(long startTime, long fromTime) {
+        if (fromTime <= startTime) {
+            return startTime;
         }
-        return new Date(nextStartTime);
-    }
-
-    // Checks to see if a date is valid by the byXXX rules
-    private boolean validByRule(Date date) {
-        // Build a Calendar object
-        Calendar cal = Calendar.getInstance();
-
-        cal.setTime(date);
-
-        // Test each byXXX rule.
-        if (UtilValidate.isNotEmpty(bySecondList)) {
-            if (!bySecondList.contains(String.valueOf(cal.get(Calendar.SECOND))))
-                return false;
-        }
-        if (UtilValidate.isNotEmpty(byMinuteList)) {
-            if (!byMinuteList.contains(String.valueOf(cal.get(Calendar.MINUTE))))
-                return false;
+        long period = 0;
+        switch (frequency) {
+        case SECONDLY:
+            period = 1000L;
+            break;
+        case MINUTELY:
+            period = 60000L;
+            break;
+        case HOURLY:
+            period = 3600000L;
+            break;
         }
-        if (UtilValidate.isNotEmpty(byHourList)) {
-            if (!byHourList.contains(String.valueOf(cal.get(Calendar.HOUR_OF_DAY))))
-                return false;
+        if (period > 0) {
+            // fixed length periods are plain arithmetic
+            period *= interval;
+            return startTime + ((fromTime - startTime + period - 1) / period) * period;
         }
-        if (UtilValidate.isNotEmpty(byDayList)) {
-            Iterator<String> iter = byDayList.iterator();
-            boolean foundDay = false;
-
-            while (iter.hasNext() && !foundDay) {
-                String dayRule = iter.next();
-                String dayString = getDailyString(dayRule);
-
-                if (cal.get(Calendar.DAY_OF_WEEK) == getCalendarDay(dayString)) {
-                    if ((hasNumber(dayRule)) && (getFrequency() == MONTHLY || getFrequency() == YEARLY)) {
-                        int modifier = getDailyNumber(dayRule);
-
-                        if (modifier == 0)
-                            foundDay = true;
-
-                        if (getFrequency() == MONTHLY) {
-                            // figure if we are the nth xDAY if this month
-                            int currentPos = cal.get(Calendar.WEEK_OF_MONTH);
-                            int dayPosCalc = cal.get(Calendar.DAY_OF_MONTH) - ((currentPos - 1) * 7);
-
-                            if (dayPosCalc < 1)
-                                currentPos--;
-                            if (modifier > 0) {
-                                if (currentPos == modifier) {
-                                    foundDay = true;
-                                }
-                            } else if (modifier < 0) {
-                                int maxDay = cal.getActualMaximum(Calendar.DAY_OF_MONTH);
-                                int firstDay = dayPosCalc > 0 ? dayPosCalc : dayPosCalc + 7;
-                                int totalDay = ((maxDay - firstDay) / 7) + 1;
-                                int thisDiff = (currentPos - totalDay) - 1;
-
-                                if (thisDiff == modifier) {
-                                    foundDay = true;
-                                }
-                            }
-                        } else if (getFrequency() == YEARLY) {
-                            // figure if we are the nth xDAY if this year
-                            int currentPos = cal.get(Calendar.WEEK_OF_YEAR);
-                            int dayPosCalc = cal.get(Calendar.DAY_OF_YEAR) - ((currentPos - 1) * 7);
-
-                            if (dayPosCalc < 1) {
-                                currentPos--;
-                            }
-                            if (modifier > 0) {
-                                if (currentPos == modifier) {
-                                    foundDay = true;
-                                }
-                            } else if (modifier < 0) {
-                                int maxDay = cal.getActualMaximum(Calendar.DAY_OF_YEAR);
-                                int firstDay = dayPosCalc > 0 ? dayPosCalc : dayPosCalc + 7;
-                                int totalDay = ((maxDay - firstDay) / 7) + 1;
-                                int thisDiff = (currentPos - totalDay) - 1;
-
-                                if (thisDiff == modifier) {
-                                    foundDay = true;
-                                }
-                            }
-                        }
-                    } else {
-                        // we are a DOW only rule
-                        foundDay = true;
-                    }
-                }
+
+        // days, weeks, months and years keep the wall clock time: jump to the period before fromTime
+        // and step from there, months are only stepped when the start day may not exist in every month
+        ZoneId zone = ZoneId.systemDefault();
+        ZonedDateTime start = Instant.ofEpochMilli(startTime).atZone(zone);
+        LocalDate fromDate = Instant.ofEpochMilli(fromTime).atZone(zone).toLocalDate();
+        ZonedDateTime next = start;
+        if (frequency == DAILY || frequency == WEEKLY) {
+            long days = frequency == DAILY ? interval : 7L * interval;
+            long periods = ChronoUnit.DAYS.between(start.toLocalDate(), fromDate) / days - 1;
+            if (periods > 0) {
+                next = start.plusDays(periods * days);
             }
-            if (!foundDay) {
-                return false;
+            while (next.toInstant().toEpochMilli() < fromTime) {
+                next = next.plusDays(days);
             }
-        }
-        if (UtilValidate.isNotEmpty(byMonthDayList)) {
-            Iterator<String> iter = byMonthDayList.iterator();
-            boolean foundDay = false;
-
-            while (iter.hasNext() && !foundDay) {
-                int day = 0;
-                String dayStr = iter.next();
-
-                try {
-                    day = Integer.parseInt(dayStr);
-                } catch (NumberFormatException nfe) {
-                    Debug.logError(nfe, "Error parsing day string " + dayStr + ": " + nfe.toString(), module);
-                }
-                int maxDay = cal.getActualMaximum(Calendar.DAY_OF_MONTH);
-                int currentDay = cal.get(Calendar.DAY_OF_MONTH);
-
-                if (day > 0 && day == currentDay) {
-                    foundDay = true;
-                }
-                if (day < 0 && day == ((currentDay - maxDay) - 1)) {
-                    foundDay = true;
+        } else {
+            long months = frequency == MONTHLY ? interval : 12L * interval;
+            if (start.getDayOfMonth() <= 28) {
+                long periods = ChronoUnit.MONTHS.between(start.toLocalDate().withDayOfMonth(1), fromDate.withDayOfMonth(1)) / months - 1;
+                if (periods > 0) {
+                    next = start.plusMonths(periods * months);
                 }
             }
-            if (!foundDay) {
-                return false;
+            while (next.toInstant().toEpochMilli() < fromTime) {
+                next = next.plusMonths(months);
             }
         }
-        if (UtilValidate.isNotEmpty(byYearDayList)) {
-            Iterator<String> iter = byYearDayList.iterator();
-            boolean foundDay = false;
-
-            while (iter.hasNext() && !foundDay) {
-                int day = 0;
-                String dayStr = iter.next();
+        return next.toInstant().toEpochMilli();
+    }
 
-                try {
-                    day = Integer.parseInt(dayStr);
-                } catch (NumberFormatException nfe) {
-                    Debug.logError(nfe, "Error parsing day string " + dayStr + ": " + nfe.toString(), module);
-                }
-                int maxDay = cal.getActualMaximum(Calendar.DAY_OF_YEAR);
-                int currentDay = cal.get(Calendar.DAY_OF_YEAR);
+    // Checks to see if a time is valid by the byXXX rules
+    private boolean validByRule(long time) {
+        ZonedDateTime dateTime = Instant.ofEpochMilli(time).atZone(ZoneId.systemDefault());
 
-                if (day > 0 && day == currentDay)
-                    foundDay = true;
-                if (day < 0 && day == ((currentDay - maxDay) - 1))
-                    foundDay = true;
-            }
-            if (!foundDay)
+        // Test each byXXX rule.
+        if (bySeconds != null && !bySeconds.get(dateTime.getSecond()))
+            return false;
+        if (byMinutes != null && !byMinutes.get(dateTime.getMinute()))
+            return false;
+        if (byHours != null && !byHours.get(dateTime.getHour()))
+            return false;
+        LocalDate date = dateTime.toLocalDate();
+        if (byDayOfWeeks != null && !validDay(date))
+            return false;
+        if (byMonthDays != null && !validNumber(date.getDayOfMonth(), date.lengthOfMonth(), byMonthDays, byMonthDaysFromEnd))
+            return false;
+        if (byYearDays != null && !validNumber(date.getDayOfYear(), date.lengthOfYear(), byYearDays, byYearDaysFromEnd))
+            return false;
+        if (byWeekNos != null) {
+            // week numbers follow the locale week rules of the Calendar
+            Calendar cal = Calendar.getInstance();
+            cal.setTimeInMillis(time);
+            if (!validNumber(cal.get(Calendar.WEEK_OF_YEAR), cal.getActualMaximum(Calendar.WEEK_OF_YEAR), byWeekNos, byWeekNosFromEnd))
                 return false;
         }
-        if (UtilValidate.isNotEmpty(byWeekNoList)) {
-            Iterator<String> iter = byWeekNoList.iterator();
-            boolean foundWeek = false;
-
-            while (iter.hasNext() && !foundWeek) {
-                int week = 0;
-                String weekStr = iter.next();
+        if (byMonths != null && !byMonths.get(date.getMonthValue() - 1))
+            return false;
 
-                try {
-                    week = Integer.parseInt(weekStr);
-                } catch (NumberFormatException nfe) {
-                    Debug.logError(nfe, "Error parsing week string " + weekStr + ": " + nfe.toString(), module);
-                }
-                int maxWeek = cal.getActualMaximum(Calendar.WEEK_OF_YEAR);
-                int currentWeek = cal.get(Calendar.WEEK_OF_YEAR);
+        return true;
+    }
 
-                if (week > 0 && week == currentWeek)
-                    foundWeek = true;
-                if (week < 0 && week == ((currentWeek - maxWeek) - 1))
-                    foundWeek = true;
+    // Checks a date against the byDay rules, numbered days are the nth day of week in the month or year
+    private boolean validDay(LocalDate date) {
+        // java.time counts MONDAY as 1 and SUNDAY as 7, Calendar counts SUNDAY as 1
+        int dayOfWeek = date.getDayOfWeek().getValue() % 7 + 1;
+        for (int i = 0; i < byDayOfWeeks.length; i++) {
+            if (byDayOfWeeks[i] != dayOfWeek) {
+                continue;
             }
-            if (!foundWeek)
-                return false;
-        }
-        if (UtilValidate.isNotEmpty(byMonthList)) {
-            Iterator<String> iter = byMonthList.iterator();
-            boolean foundMonth = false;
-
-            while (iter.hasNext() && !foundMonth) {
-                int month = 0;
-                String monthStr = iter.next();
-
-                try {
-                    month = Integer.parseInt(monthStr);
-                } catch (NumberFormatException nfe) {
-                    Debug.logError(nfe, "Error parsing month string " + monthStr + ": " + nfe.toString(), module);
-                }
-                if (month == cal.get(Calendar.MONTH)) {
-                    foundMonth = true;
-                }
+            int number = byDayNumbers[i];
+            if (number == 0 || (frequency != MONTHLY && frequency != YEARLY)) {
+                // we are a DOW only rule
+                return true;
+            }
+            int day = frequency == MONTHLY ? date.getDayOfMonth() : date.getDayOfYear();
+            int maxDay = frequency == MONTHLY ? date.lengthOfMonth() : date.lengthOfYear();
+            if (number > 0 ? (day - 1) / 7 + 1 == number : (maxDay - day) / 7 + 1 == -number) {
+                return true;
             }
-            if (!foundMonth)
-                return false;
         }
+        return false;
+    }
 
-        return true;
+    // Checks a day or week number against the numbers counted from the start and from the end
+    private static boolean validNumber(int number, int maxNumber, BitSet fromStart, BitSet fromEnd) {
+        return fromStart.get(number) || fromEnd.get(maxNumber - number + 1);
     }
 
     // Tests a string for the contents of a number at the beginning
@@ -686,7 +661,7 @@ public class RecurrenceRule {
         StringBuilder numberBuf = new StringBuilder();
 
         for (int i = 0; i < str.length(); i++) {
-            String thisChar = str.substring(i, i);
+            String thisChar = str.substring(i, i + 1);
 
             if (hasNumber(thisChar))
                 numberBuf.append(thisChar);
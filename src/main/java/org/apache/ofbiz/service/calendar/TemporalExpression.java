@@ -20,6 +20,7 @@ package org.apache.ofbiz.service.calendar;
 
 import java.io.Serializable;
 import com.ibm.icu.util.Calendar;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Set;
 import java.util.TreeSet;
@@ -91,6 +92,32 @@ public abstract class TemporalExpression implements Serializable, Comparable<Tem
         return set;
     }
 
+    /** Returns the occurrences of this expression on or after <code>from</code> and
+     * before <code>to</code>, in ascending order, as milliseconds since the epoch.
+     * <p>The default implementation follows <code>first</code> and <code>next</code>
+     * like {@link #getRange}, expression types override it with a direct computation.</p>
+     * @param from The start of the period, its time zone and locale are used
+     * to evaluate the expression
+     * @param to The end of the period (exclusive), in milliseconds
+     * @param limit The maximum number of occurrences to return
+     * @return The occurrences, an empty array if there are none
+     * @throws IllegalStateException if the occurrences of a difference could not be
+     * enumerated in a bounded number of candidates, use a shorter period
+     */
+    public long[] occurrences(Calendar from, long to, int limit) {
+        OccurrenceList result = new OccurrenceList(limit);
+        Calendar next = first(from);
+        while (next != null && !result.isFull()) {
+            long millis = next.getTimeInMillis();
+            // stop like getRange does when the expression does not move forward
+            if (millis >= to || !result.add(millis)) {
+                break;
+            }
+            next = next(next);
+        }
+        return result.toArray();
+    }
+
     /** Returns true if this expression includes the specified date.
      * @param cal A date to evaluate
      * @return true if this expression includes the date represented by
@@ -136,6 +163,44 @@ public abstract class TemporalExpression implements Serializable, Comparable<Tem
         return this.getClass().getSimpleName() + " [" + this.id + "]";
     }
 
+    /** A list of ascending occurrences, bounded by a limit. */
+    protected static final class OccurrenceList {
+        private final int limit;
+        private long[] values;
+        private int size = 0;
+
+        protected OccurrenceList(int limit) {
+            this.limit = Math.max(limit, 0);
+            this.values = new long[Math.min(this.limit, 64)];
+        }
+
+        /** Adds an occurrence if it is after the last one added and the limit is not reached.
+         * @return false if the occurrence was not added
+         */
+        protected boolean add(long millis) {
+            if (isFull() || (size > 0 && millis <= values[size - 1])) {
+                return false;
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.min(limit, Math.max(size * 2, 64)));
+            }
+            values[size++] = millis;
+            return true;
+        }
+
+        protected boolean isFull() {
+            return size >= limit;
+        }
+
+        protected int size() {
+            return size;
+        }
+
+        protected long[] toArray() {
+            return values.length == size ? values : Arrays.copyOf(values, size);
+        }
+    }
+
     protected class ExpressionContext {
         public boolean hourBumped = false;
         public boolean dayBumped = false;
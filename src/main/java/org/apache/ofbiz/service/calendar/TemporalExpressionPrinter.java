@@ -62,6 +62,11 @@ public class TemporalExpressionPrinter implements TemporalExpressionVisitor {
         this.currentIndent -= this.indentSize;
     }
 
+    @Override
+    public void visit(TemporalExpressions.Cron expr) {
+        appendExpression(expr);
+    }
+
     @Override
     public void visit(TemporalExpressions.DateRange expr) {
         appendExpression(expr);
@@ -20,6 +20,7 @@ package org.apache.ofbiz.service.calendar;
 
 /** Temporal expression visitor interface. */
 public interface TemporalExpressionVisitor {
+    void visit(TemporalExpressions.Cron expr);
     void visit(TemporalExpressions.DateRange expr);
     void visit(TemporalExpressions.DayInMonth expr);
     void visit(TemporalExpressions.DayOfMonthRange expr);
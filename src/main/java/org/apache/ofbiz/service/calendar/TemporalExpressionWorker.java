@@ -23,7 +23,9 @@ import java.util.Set;
 import java.util.TreeSet;
 
 import org.apache.ofbiz.base.util.Debug;
+import org.apache.ofbiz.base.util.UtilProperties;
 import org.apache.ofbiz.base.util.UtilValidate;
+import org.apache.ofbiz.base.util.cache.UtilCache;
 import org.apache.ofbiz.entity.Delegator;
 import org.apache.ofbiz.entity.GenericEntityException;
 import org.apache.ofbiz.entity.GenericValue;
@@ -35,6 +37,7 @@ public final class TemporalExpressionWorker {
     public final static String module = TemporalExpressionWorker.class.getName();
 
     // Temporal expression type constants
+    private final static String Cron = "CRON";
     private final static String DateRange = "DATE_RANGE";
     private final static String DayInMonth = "DAY_IN_MONTH";
     private final static String DayOfMonthRange = "DAY_OF_MONTH_RANGE";
@@ -48,16 +51,23 @@ public final class TemporalExpressionWorker {
     private final static String Substitution = "SUBSTITUTION";
     private final static String Union = "UNION";
     private final static String ExpressionTypeList[] = {DateRange, DayInMonth, DayOfMonthRange, DayOfWeekRange,
-        Difference, Frequency, HourRange, Intersection, MinuteRange, MonthRange, Substitution, Union};
+        Difference, Frequency, HourRange, Intersection, MinuteRange, MonthRange, Substitution, Union, Cron};
 
     // Temporal expression assoc type constants
     private final static String INCLUDE = "INCLUDE";
     private final static String EXCLUDE = "EXCLUDE";
     private final static String SUBSTITUTE = "SUBSTITUTE";
 
+    // expression trees by delegator and tempExprId, see clearExpressionCache()
+    private final static boolean cacheEnabled = UtilProperties.propertyValueEqualsIgnoreCase("service", "temporalExpressionCache.enable", "true");
+    private final static UtilCache<String, TemporalExpression> expressionCache = UtilCache.createUtilCache("service.TemporalExpressions",
+            (int) UtilProperties.getPropertyAsLong("service", "temporalExpressionCache.maxSize", 10000), 0, false);
+
     private TemporalExpressionWorker () {}
 
     /** Get a <code>TemporalExpression</code> from persistent storage.
+     * <p>When the <code>temporalExpressionCache.enable</code> property is set, the expression trees
+     * are cached and shared, they must not be modified.</p>
      * @param delegator
      * @param tempExprId
      * @return A <code>TemporalExpression</code> instance based on <code>tempExprId</code>
@@ -67,6 +77,14 @@ public final class TemporalExpressionWorker {
         if (UtilValidate.isEmpty(tempExprId)) {
             throw new IllegalArgumentException("tempExprId argument cannot be empty");
         }
+        String cacheKey = null;
+        if (cacheEnabled) {
+            cacheKey = delegator.getDelegatorName() + "::" + tempExprId;
+            TemporalExpression cached = expressionCache.get(cacheKey);
+            if (cached != null) {
+                return cached;
+            }
+        }
         GenericValue exprValue = EntityQuery.use(delegator).from("TemporalExpression").where("tempExprId", tempExprId).cache().queryOne();
         if (UtilValidate.isEmpty(exprValue)) {
             throw new IllegalArgumentException("tempExprId argument invalid - expression not found");
@@ -76,9 +94,19 @@ public final class TemporalExpressionWorker {
             TemporalExpressionPrinter printer = new TemporalExpressionPrinter(result);
             Debug.logVerbose(printer.toString(), module);
         }
+        if (cacheKey != null) {
+            expressionCache.put(cacheKey, result);
+        }
         return result;
     }
 
+    /** Removes all the cached expression trees. Since a tree includes its child expressions,
+     * any change to a TemporalExpression or TemporalExpressionAssoc value clears the whole cache.
+     */
+    public static void clearExpressionCache() {
+        expressionCache.clear();
+    }
+
     /** Create a <code>TemporalExpression</code> instance from a TemporalExpression
      * GenericValue.<p>This method makes recursive calls, so care must be taken to
      * avoid endless loops.</p>
@@ -90,7 +118,9 @@ public final class TemporalExpressionWorker {
     public static TemporalExpression makeTemporalExpression(Delegator delegator, GenericValue exprValue) throws GenericEntityException {
         String tempExprId = exprValue.getString("tempExprId");
         String tempExprTypeId = exprValue.getString("tempExprTypeId");
-        if (DateRange.equals(tempExprTypeId)) {
+        if (Cron.equals(tempExprTypeId)) {
+            return setExpressionId(exprValue, new TemporalExpressions.Cron(exprValue.getString("string1")));
+        } else if (DateRange.equals(tempExprTypeId)) {
             return setExpressionId(exprValue, new TemporalExpressions.DateRange(exprValue.getTimestamp("date1"), exprValue.getTimestamp("date2")));
         } else if (DayInMonth.equals(tempExprTypeId)) {
             return setExpressionId(exprValue, new TemporalExpressions.DayInMonth(exprValue.getLong("integer1").intValue(), exprValue.getLong("integer2").intValue()));
@@ -152,7 +182,7 @@ public final class TemporalExpressionWorker {
         }
         Set<TemporalExpression> exprList = new TreeSet<TemporalExpression>();
         for (GenericValue value : valueList) {
-            exprList.add(makeTemporalExpression(delegator, value.getRelatedOne("ToTemporalExpression", false)));
+            exprList.add(makeTemporalExpression(delegator, value.getRelatedOne("ToTemporalExpression", true)));
         }
         return exprList;
     }
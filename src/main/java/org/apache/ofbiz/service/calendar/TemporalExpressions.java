@@ -20,6 +20,8 @@ package org.apache.ofbiz.service.calendar;
 
 import java.io.Serializable;
 import com.ibm.icu.util.Calendar;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Set;
@@ -46,6 +48,7 @@ public class TemporalExpressions implements Serializable {
     // Intersection: aggregates member expression sequence values
     // Substitution: adopts the sequence of its include expression
     // Union: adopts the sequence of its first member expression
+    public static final int SEQUENCE_CRON = 150;
     public static final int SEQUENCE_DATE_RANGE = 800;
     public static final int SEQUENCE_DAY_IN_MONTH = 460;
     public static final int SEQUENCE_DOM_RANGE = 400;
@@ -54,6 +57,360 @@ public class TemporalExpressions implements Serializable {
     public static final int SEQUENCE_HOUR_RANGE = 300;
     public static final int SEQUENCE_MINUTE_RANGE = 200;
     public static final int SEQUENCE_MONTH_RANGE = 600;
+    // bounds of the candidates of a filtered occurrence enumeration: per chunk and in total
+    private static final int MAX_CANDIDATE_CHUNK = 4096;
+    private static final int MAX_FILTERED_CANDIDATES = 1 << 20;
+
+    /** Returns true if <code>value</code> is within the range <code>start</code> to <code>end</code>
+     * of a cycle of <code>cycle</code> values, the range wraps around when <code>end</code> is lower than <code>start</code>. */
+    protected static boolean inCyclicRange(int value, int start, int end, int cycle) {
+        return Math.floorMod(value - start, cycle) <= Math.floorMod(end - start, cycle);
+    }
+
+    /** Moves <code>cal</code> forward towards the next instant where <code>field</code> equals <code>target</code>,
+     * in one <code>add</code> instead of one unit at a time. A daylight saving gap can skip up to <code>maxGap</code>
+     * field values, so the move stops that many units short: the instants it passes over are the ones a
+     * unit by unit loop would have found excluded, the caller steps the rest of the way. */
+    protected static void fastForward(Calendar cal, int field, int target, int cycle, int maxGap) {
+        int units = Math.floorMod(target - cal.get(field), cycle) - maxGap;
+        if (units > 1) {
+            cal.add(field, units);
+        }
+    }
+
+    /** Returns the occurrences of <code>source</code> that are not in <code>excluded</code>. The source is asked
+     * for candidates in chunks, each one continuing after the last candidate of the previous one, until it
+     * has no more before <code>to</code>.
+     * @throws IllegalStateException when <code>MAX_FILTERED_CANDIDATES</code> candidates were examined
+     * without reaching <code>to</code> or <code>limit</code>, which happens when a filter rarely passes */
+    protected static long[] filterOccurrences(TemporalExpression source, TemporalExpression excluded, Calendar from, long to, int limit) {
+        if (limit <= 0) {
+            return new long[0];
+        }
+        Calendar start = (Calendar) from.clone();
+        Calendar probe = (Calendar) from.clone();
+        TemporalExpression.OccurrenceList result = new TemporalExpression.OccurrenceList(limit);
+        int chunkSize = Math.min(limit, MAX_CANDIDATE_CHUNK);
+        int examined = 0;
+        long lastCandidate = Long.MIN_VALUE;
+        while (true) {
+            long[] candidates = source.occurrences(start, to, chunkSize);
+            for (long candidate : candidates) {
+                if (candidate <= lastCandidate) {
+                    // already examined in the previous chunk
+                    continue;
+                }
+                probe.setTimeInMillis(candidate);
+                if (!excluded.includesDate(probe)) {
+                    result.add(candidate);
+                    if (result.isFull()) {
+                        return result.toArray();
+                    }
+                }
+            }
+            examined += candidates.length;
+            if (candidates.length < chunkSize || candidates[candidates.length - 1] <= lastCandidate) {
+                return result.toArray();
+            }
+            if (examined >= MAX_FILTERED_CANDIDATES) {
+                throw new IllegalStateException("Gave up enumerating the occurrences of " + source + " after " + examined
+                        + " candidates, " + result.size() + " occurrences found before " + new Date(candidates[candidates.length - 1]));
+            }
+            lastCandidate = candidates[candidates.length - 1];
+            start.setTimeInMillis(lastCandidate + 1);
+            chunkSize = Math.min(chunkSize * 2, MAX_CANDIDATE_CHUNK);
+        }
+    }
+
+    // the field values a daylight saving gap of the calendar time zone can skip
+    private static int hourGap(Calendar cal) {
+        return (cal.getTimeZone().getDSTSavings() + 3599999) / 3600000;
+    }
+
+    private static int minuteGap(Calendar cal) {
+        return (cal.getTimeZone().getDSTSavings() % 3600000) / 60000;
+    }
+
+    /** A temporal expression that represents a cron schedule.
+     * <p>The expression has the five cron fields - minute, hour, day of month, month and day of
+     * week - optionally preceded by a seconds field. A field is <code>*</code>, <code>?</code> or a
+     * list of values and ranges, each with an optional step: <code>0,30</code>, <code>8-18/2</code>,
+     * <code>*&#47;15</code>. Months and days of week can be names (<code>JAN</code>, <code>MON</code>),
+     * Sunday is 0 or 7. As in cron, when both the day of month and the day of week are restricted
+     * a day matching either one is included.</p>
+     * <p>The fields are compiled to bit sets, the next occurrence is found by moving each calendar
+     * field to its next included value, carrying into the larger field when there is none.</p>
+     */
+    public static class Cron extends TemporalExpression {
+        // a search gives up after this many years, enough to reach a 29th of February
+        protected static final int MAX_YEARS = 8;
+        protected static final String[] MONTH_NAMES = {"JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT", "NOV", "DEC"};
+        protected static final String[] DAY_NAMES = {"SUN", "MON", "TUE", "WED", "THU", "FRI", "SAT"};
+        protected final String expression;
+        protected final BitSet seconds;
+        protected final BitSet minutes;
+        protected final BitSet hours;
+        protected final BitSet daysOfMonth;
+        // Calendar months, January = 0
+        protected final BitSet months;
+        // Calendar days of week, Sunday = 1
+        protected final BitSet daysOfWeek;
+        protected final boolean anyDayOfMonth;
+        protected final boolean anyDayOfWeek;
+
+        /**
+         * @param expression A cron expression: minute hour day-of-month month day-of-week,
+         * optionally preceded by seconds
+         */
+        public Cron(String expression) {
+            if (expression == null) {
+                throw new IllegalArgumentException("expression argument cannot be null");
+            }
+            this.expression = expression.trim();
+            String[] fields = this.expression.split("\\s+");
+            if (fields.length != 5 && fields.length != 6) {
+                throw new IllegalArgumentException("Invalid cron expression: " + expression);
+            }
+            int offset = fields.length - 5;
+            this.seconds = offset == 0 ? parseField("0", 0, 59, null) : parseField(fields[0], 0, 59, null);
+            this.minutes = parseField(fields[offset], 0, 59, null);
+            this.hours = parseField(fields[offset + 1], 0, 23, null);
+            this.daysOfMonth = parseField(fields[offset + 2], 1, 31, null);
+            this.months = parseField(fields[offset + 3], 1, 12, MONTH_NAMES).get(1, 13);
+            this.daysOfWeek = new BitSet(8);
+            BitSet days = parseField(fields[offset + 4], 0, 7, DAY_NAMES);
+            for (int day = days.nextSetBit(0); day >= 0; day = days.nextSetBit(day + 1)) {
+                this.daysOfWeek.set(day % 7 + 1);
+            }
+            this.anyDayOfMonth = isWildcard(fields[offset + 2]);
+            this.anyDayOfWeek = isWildcard(fields[offset + 4]);
+            this.sequence = SEQUENCE_CRON;
+            if (Debug.verboseOn()) {
+                Debug.logVerbose("Created " + this, module);
+            }
+        }
+
+        private static boolean isWildcard(String field) {
+            return field.startsWith("*") || "?".equals(field);
+        }
+
+        private static BitSet parseField(String field, int min, int max, String[] names) {
+            BitSet values = new BitSet(max + 1);
+            for (String part : field.split(",")) {
+                int step = 1;
+                int slash = part.indexOf('/');
+                if (slash >= 0) {
+                    step = parseValue(part.substring(slash + 1), 1, Integer.MAX_VALUE, null, field);
+                    part = part.substring(0, slash);
+                }
+                int start = min;
+                int end = max;
+                if (!"*".equals(part) && !"?".equals(part)) {
+                    int dash = part.indexOf('-', 1);
+                    if (dash > 0) {
+                        start = parseValue(part.substring(0, dash), min, max, names, field);
+                        end = parseValue(part.substring(dash + 1), min, max, names, field);
+                    } else {
+                        start = parseValue(part, min, max, names, field);
+                        end = slash >= 0 ? max : start;
+                    }
+                }
+                if (start > end) {
+                    throw new IllegalArgumentException("Invalid cron field: " + field);
+                }
+                for (int i = start; i <= end; i += step) {
+                    values.set(i);
+                }
+            }
+            return values;
+        }
+
+        private static int parseValue(String value, int min, int max, String[] names, String field) {
+            if (names != null) {
+                for (int i = 0; i < names.length; i++) {
+                    if (names[i].equalsIgnoreCase(value)) {
+                        return min + i;
+                    }
+                }
+            }
+            try {
+                int result = Integer.parseInt(value);
+                if (result >= min && result <= max) {
+                    return result;
+                }
+            } catch (NumberFormatException e) {}
+            throw new IllegalArgumentException("Invalid cron field: " + field);
+        }
+
+        @Override
+        public void accept(TemporalExpressionVisitor visitor) {
+            visitor.visit(this);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            try {
+                return this.expression.equals(((Cron) obj).expression);
+            } catch (ClassCastException e) {}
+            return false;
+        }
+
+        @Override
+        public Calendar first(Calendar cal) {
+            return search(cal);
+        }
+
+        /** Returns the cron expression of this expression.
+         * @return The cron expression of this expression
+         */
+        public String getExpression() {
+            return this.expression;
+        }
+
+        @Override
+        public boolean includesDate(Calendar cal) {
+            return this.seconds.get(cal.get(Calendar.SECOND)) && this.minutes.get(cal.get(Calendar.MINUTE))
+                    && this.hours.get(cal.get(Calendar.HOUR_OF_DAY)) && includesDay(cal) && this.months.get(cal.get(Calendar.MONTH));
+        }
+
+        protected boolean includesDay(Calendar cal) {
+            boolean dayOfMonth = this.daysOfMonth.get(cal.get(Calendar.DAY_OF_MONTH));
+            boolean dayOfWeek = this.daysOfWeek.get(cal.get(Calendar.DAY_OF_WEEK));
+            if (!this.anyDayOfMonth && !this.anyDayOfWeek) {
+                return dayOfMonth || dayOfWeek;
+            }
+            return dayOfMonth && dayOfWeek;
+        }
+
+        @Override
+        public boolean isSubstitutionCandidate(Calendar cal, TemporalExpression expressionToTest) {
+            // step back by the smallest field that has more than one value, like the range expressions
+            // step by their own unit, and give up after MAX_YEARS like search() does
+            int unit = getStepField();
+            Calendar checkCal = (Calendar) cal.clone();
+            int minYear = checkCal.get(Calendar.YEAR) - MAX_YEARS;
+            checkCal.add(unit, -1);
+            while (!includesDate(checkCal)) {
+                if (checkCal.get(Calendar.YEAR) < minYear) {
+                    return false;
+                }
+                if (expressionToTest.includesDate(checkCal)) {
+                    return true;
+                }
+                checkCal.add(unit, -1);
+            }
+            return false;
+        }
+
+        // the smallest calendar field with more than one included value, the day when the expression fires once a day
+        protected int getStepField() {
+            if (this.seconds.cardinality() > 1) {
+                return Calendar.SECOND;
+            }
+            if (this.minutes.cardinality() > 1) {
+                return Calendar.MINUTE;
+            }
+            if (this.hours.cardinality() > 1) {
+                return Calendar.HOUR_OF_DAY;
+            }
+            return Calendar.DAY_OF_MONTH;
+        }
+
+        @Override
+        public Calendar next(Calendar cal, ExpressionContext context) {
+            Calendar next = (Calendar) cal.clone();
+            next.set(Calendar.MILLISECOND, 0);
+            next.add(Calendar.SECOND, 1);
+            next = search(next);
+            if (next != null) {
+                if (cal.get(Calendar.MONTH) != next.get(Calendar.MONTH) || cal.get(Calendar.YEAR) != next.get(Calendar.YEAR)) {
+                    context.monthBumped = true;
+                } else if (cal.get(Calendar.DAY_OF_MONTH) != next.get(Calendar.DAY_OF_MONTH)) {
+                    context.dayBumped = true;
+                } else if (cal.get(Calendar.HOUR_OF_DAY) != next.get(Calendar.HOUR_OF_DAY)) {
+                    context.hourBumped = true;
+                }
+            }
+            return next;
+        }
+
+        /** Returns the first included second on or after <code>cal</code>, or <code>null</code>
+         * if there is none within <code>MAX_YEARS</code>. The fields are checked from the month down
+         * to the second, a field without an included value left carries into the larger field and
+         * the check starts again. */
+        protected Calendar search(Calendar cal) {
+            Calendar next = (Calendar) cal.clone();
+            if (next.get(Calendar.MILLISECOND) != 0) {
+                next.set(Calendar.MILLISECOND, 0);
+                next.add(Calendar.SECOND, 1);
+            }
+            int maxYear = next.get(Calendar.YEAR) + MAX_YEARS;
+            while (next.get(Calendar.YEAR) <= maxYear) {
+                int month = next.get(Calendar.MONTH);
+                if (!this.months.get(month)) {
+                    int nextMonth = this.months.nextSetBit(month);
+                    next.set(Calendar.DAY_OF_MONTH, 1);
+                    if (nextMonth < 0) {
+                        next.add(Calendar.YEAR, 1);
+                        nextMonth = this.months.nextSetBit(0);
+                    }
+                    next.set(Calendar.MONTH, nextMonth);
+                    resetBelow(next, Calendar.DAY_OF_MONTH);
+                    continue;
+                }
+                if (!includesDay(next)) {
+                    next.add(Calendar.DAY_OF_MONTH, 1);
+                    resetBelow(next, Calendar.DAY_OF_MONTH);
+                    continue;
+                }
+                if (advance(next, Calendar.HOUR_OF_DAY, this.hours, Calendar.DAY_OF_MONTH)
+                        && advance(next, Calendar.MINUTE, this.minutes, Calendar.HOUR_OF_DAY)
+                        && advance(next, Calendar.SECOND, this.seconds, Calendar.MINUTE)) {
+                    return next;
+                }
+            }
+            return null;
+        }
+
+        // Moves a time field to its next included value, or carries into the larger field.
+        // Returns true if the field value was already included.
+        private boolean advance(Calendar cal, int field, BitSet values, int largerField) {
+            int value = cal.get(field);
+            if (values.get(value)) {
+                return true;
+            }
+            int nextValue = values.nextSetBit(value);
+            if (nextValue < 0) {
+                cal.add(largerField, 1);
+                resetBelow(cal, largerField);
+            } else {
+                cal.set(field, nextValue);
+                resetBelow(cal, field);
+            }
+            return false;
+        }
+
+        // Sets the time fields smaller than field to their first included value
+        private void resetBelow(Calendar cal, int field) {
+            if (field == Calendar.DAY_OF_MONTH) {
+                cal.set(Calendar.HOUR_OF_DAY, this.hours.nextSetBit(0));
+            }
+            if (field == Calendar.DAY_OF_MONTH || field == Calendar.HOUR_OF_DAY) {
+                cal.set(Calendar.MINUTE, this.minutes.nextSetBit(0));
+            }
+            if (field != Calendar.SECOND) {
+                cal.set(Calendar.SECOND, this.seconds.nextSetBit(0));
+            }
+        }
+
+        @Override
+        public String toString() {
+            return super.toString() + ", expression = " + this.expression;
+        }
+    }
 
     /** A temporal expression that represents a range of dates. */
     public static class DateRange extends TemporalExpression {
@@ -434,21 +791,7 @@ public class TemporalExpressions implements Serializable {
 
         @Override
         public boolean includesDate(Calendar cal) {
-            int dow = cal.get(Calendar.DAY_OF_WEEK);
-            if (dow == this.start || dow == this.end) {
-                return true;
-            }
-            Calendar compareCal = (Calendar) cal.clone();
-            while (compareCal.get(Calendar.DAY_OF_WEEK) != this.start) {
-                compareCal.add(Calendar.DAY_OF_MONTH, 1);
-            }
-            while (compareCal.get(Calendar.DAY_OF_WEEK) != this.end) {
-                if (compareCal.get(Calendar.DAY_OF_WEEK) == dow) {
-                    return true;
-                }
-                compareCal.add(Calendar.DAY_OF_MONTH, 1);
-            }
-            return false;
+            return inCyclicRange(cal.get(Calendar.DAY_OF_WEEK), this.start, this.end, 7);
         }
 
         @Override
@@ -573,6 +916,11 @@ public class TemporalExpressions implements Serializable {
             return next;
         }
 
+        @Override
+        public long[] occurrences(Calendar from, long to, int limit) {
+            return filterOccurrences(this.included, this.excluded, from, to, limit);
+        }
+
         @Override
         public String toString() {
             return super.toString() + ", included = " + this.included + ", excluded = " + this.excluded;
@@ -689,6 +1037,32 @@ public class TemporalExpressions implements Serializable {
             return next;
         }
 
+        @Override
+        public long[] occurrences(Calendar from, long to, int limit) {
+            OccurrenceList result = new OccurrenceList(limit);
+            Calendar next = first(from);
+            long period = 0;
+            if (this.freqType == Calendar.HOUR) {
+                period = 3600000L * this.freqCount;
+            } else if (this.freqType == Calendar.MINUTE) {
+                period = 60000L * this.freqCount;
+            } else if (this.freqType == Calendar.SECOND) {
+                period = 1000L * this.freqCount;
+            }
+            if (period > 0) {
+                // fixed length periods, no calendar arithmetic needed
+                for (long millis = next.getTimeInMillis(); millis < to && !result.isFull(); millis += period) {
+                    result.add(millis);
+                }
+            } else {
+                while (next.getTimeInMillis() < to && !result.isFull()) {
+                    result.add(next.getTimeInMillis());
+                    next.add(this.freqType, this.freqCount);
+                }
+            }
+            return result.toArray();
+        }
+
         protected Calendar prepareCal(Calendar cal) {
             // Performs a "sane" skip forward in time - avoids time consuming loops
             // like incrementing every second from Jan 1 2000 until today
@@ -698,21 +1072,28 @@ public class TemporalExpressions implements Serializable {
             if (deltaMillis < 1000) {
                 return skip;
             }
-            long divisor = deltaMillis;
+            long units;
             if (this.freqType == Calendar.DAY_OF_MONTH) {
-                divisor = 86400000;
+                units = deltaMillis / 86400000;
             } else if (this.freqType == Calendar.HOUR) {
-                divisor = 3600000;
+                units = deltaMillis / 3600000;
             } else if (this.freqType == Calendar.MINUTE) {
-                divisor = 60000;
+                units = deltaMillis / 60000;
             } else if (this.freqType == Calendar.SECOND) {
-                divisor = 1000;
+                units = deltaMillis / 1000;
+            } else if (skip.get(Calendar.DAY_OF_MONTH) <= 28) {
+                // months and years are counted on the calendar fields, adding them at once is the same as
+                // adding them one by one as long as the start day exists in every month
+                units = cal.get(Calendar.YEAR) - skip.get(Calendar.YEAR);
+                if (this.freqType == Calendar.MONTH) {
+                    units = units * 12 + cal.get(Calendar.MONTH) - skip.get(Calendar.MONTH);
+                }
             } else {
                 return skip;
             }
-            float units = deltaMillis / divisor;
+            // whole periods only, so the result stays on the start + n * freqCount grid
             units = (units / this.freqCount) * this.freqCount;
-            skip.add(this.freqType, (int)units);
+            skip.add(this.freqType, (int) units);
             while (skip.after(cal)) {
                 skip.add(this.freqType, -this.freqCount);
             }
@@ -777,6 +1158,9 @@ public class TemporalExpressions implements Serializable {
         @Override
         public Calendar first(Calendar cal) {
             Calendar first = (Calendar) cal.clone();
+            if (!includesDate(first)) {
+                fastForward(first, Calendar.HOUR_OF_DAY, this.start, 24, hourGap(first));
+            }
             while (!includesDate(first)) {
                 first.add(Calendar.HOUR_OF_DAY, 1);
             }
@@ -814,19 +1198,7 @@ public class TemporalExpressions implements Serializable {
 
         @Override
         public boolean includesDate(Calendar cal) {
-            int hour = cal.get(Calendar.HOUR_OF_DAY);
-            if (hour == this.start || hour == this.end) {
-                return true;
-            }
-            Calendar compareCal = (Calendar) cal.clone();
-            compareCal.set(Calendar.HOUR_OF_DAY, this.start);
-            while (compareCal.get(Calendar.HOUR_OF_DAY) != this.end) {
-                if (compareCal.get(Calendar.HOUR_OF_DAY) == hour) {
-                    return true;
-                }
-                compareCal.add(Calendar.HOUR_OF_DAY, 1);
-            }
-            return false;
+            return inCyclicRange(cal.get(Calendar.HOUR_OF_DAY), this.start, this.end, 24);
         }
 
         @Override
@@ -851,6 +1223,9 @@ public class TemporalExpressions implements Serializable {
                 }
                 next.add(Calendar.HOUR_OF_DAY, 1);
             }
+            if (!includesDate(next)) {
+                fastForward(next, Calendar.HOUR_OF_DAY, this.start, 24, hourGap(next));
+            }
             while (!includesDate(next)) {
                 next.add(Calendar.HOUR_OF_DAY, 1);
             }
@@ -1034,6 +1409,9 @@ public class TemporalExpressions implements Serializable {
         @Override
         public Calendar first(Calendar cal) {
             Calendar first = (Calendar) cal.clone();
+            if (!includesDate(first)) {
+                fastForward(first, Calendar.MINUTE, this.start, 60, minuteGap(first));
+            }
             while (!includesDate(first)) {
                 first.add(Calendar.MINUTE, 1);
             }
@@ -1071,19 +1449,7 @@ public class TemporalExpressions implements Serializable {
 
         @Override
         public boolean includesDate(Calendar cal) {
-            int minute = cal.get(Calendar.MINUTE);
-            if (minute == this.start || minute == this.end) {
-                return true;
-            }
-            Calendar compareCal = (Calendar) cal.clone();
-            compareCal.set(Calendar.MINUTE, this.start);
-            while (compareCal.get(Calendar.MINUTE) != this.end) {
-                if (compareCal.get(Calendar.MINUTE) == minute) {
-                    return true;
-                }
-                compareCal.add(Calendar.MINUTE, 1);
-            }
-            return false;
+            return inCyclicRange(cal.get(Calendar.MINUTE), this.start, this.end, 60);
         }
 
         @Override
@@ -1105,6 +1471,9 @@ public class TemporalExpressions implements Serializable {
             if (includesDate(next)) {
                 next.add(Calendar.MINUTE, 1);
             }
+            if (!includesDate(next)) {
+                fastForward(next, Calendar.MINUTE, this.start, 60, minuteGap(next));
+            }
             while (!includesDate(next)) {
                 next.add(Calendar.MINUTE, 1);
             }
@@ -1193,21 +1562,7 @@ public class TemporalExpressions implements Serializable {
 
         @Override
         public boolean includesDate(Calendar cal) {
-            int month = cal.get(Calendar.MONTH);
-            if (month == this.start || month == this.end) {
-                return true;
-            }
-            Calendar compareCal = (Calendar) cal.clone();
-            while (compareCal.get(Calendar.MONTH) != this.start) {
-                compareCal.add(Calendar.MONTH, 1);
-            }
-            while (compareCal.get(Calendar.MONTH) != this.end) {
-                if (compareCal.get(Calendar.MONTH) == month) {
-                    return true;
-                }
-                compareCal.add(Calendar.MONTH, 1);
-            }
-            return false;
+            return inCyclicRange(cal.get(Calendar.MONTH), this.start, this.end, cal.getMaximum(Calendar.MONTH) + 1);
         }
 
         @Override
@@ -1473,6 +1828,36 @@ public class TemporalExpressions implements Serializable {
             return result;
         }
 
+        /** Returns the merged occurrences of the member expressions, from the occurrence returned by
+         * {@link #first(Calendar)} like a <code>first</code>/<code>next</code> walk. */
+        @Override
+        public long[] occurrences(Calendar from, long to, int limit) {
+            Calendar first = first(from);
+            if (first == null) {
+                return new long[0];
+            }
+            long[][] memberOccurrences = new long[this.expressionSet.size()][];
+            int total = 0;
+            int i = 0;
+            for (TemporalExpression expression : this.expressionSet) {
+                memberOccurrences[i] = expression.occurrences(first, to, limit);
+                total += memberOccurrences[i++].length;
+            }
+            long[] merged = new long[total];
+            int pos = 0;
+            for (long[] occurrences : memberOccurrences) {
+                System.arraycopy(occurrences, 0, merged, pos, occurrences.length);
+                pos += occurrences.length;
+            }
+            Arrays.sort(merged);
+            OccurrenceList result = new OccurrenceList(limit);
+            for (int j = 0; j < merged.length && !result.isFull(); j++) {
+                // duplicates are skipped
+                result.add(merged[j]);
+            }
+            return result.toArray();
+        }
+
         @Override
         public String toString() {
             return super.toString() + ", size = " + this.expressionSet.size();
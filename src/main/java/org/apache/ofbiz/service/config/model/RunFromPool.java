@@ -24,11 +24,16 @@ import org.w3c.dom.Element;
 
 /**
  * An object that models the <code>&lt;run-from-pool&gt;</code> element.
+ * <p>A pool with a <code>max-threads</code> attribute runs its jobs in its own thread pool,
+ * the other pools share the <code>&lt;thread-pool&gt;</code> threads.</p>
  */
 @ThreadSafe
 public final class RunFromPool {
 
     private final String name;
+    private final int jobs;
+    private final int maxThreads;
+    private final int minThreads;
 
     RunFromPool(Element runFromPoolElement) throws ServiceConfigException {
         String name = runFromPoolElement.getAttribute("name").intern();
@@ -36,9 +41,67 @@ public final class RunFromPool {
             throw new ServiceConfigException("<run-from-pool> element name attribute is empty");
         }
         this.name = name;
+        String maxThreads = runFromPoolElement.getAttribute("max-threads").intern();
+        if (maxThreads.isEmpty()) {
+            this.maxThreads = 0;
+        } else {
+            try {
+                this.maxThreads = Integer.parseInt(maxThreads);
+                if (this.maxThreads < 1) {
+                    throw new ServiceConfigException("<run-from-pool> element max-threads attribute value is invalid");
+                }
+            } catch (Exception e) {
+                throw new ServiceConfigException("<run-from-pool> element max-threads attribute value is invalid");
+            }
+        }
+        String minThreads = runFromPoolElement.getAttribute("min-threads").intern();
+        if (minThreads.isEmpty()) {
+            this.minThreads = Math.min(ThreadPool.MIN_THREADS, this.maxThreads);
+        } else {
+            try {
+                this.minThreads = Integer.parseInt(minThreads);
+                if (this.minThreads < 1 || this.maxThreads < this.minThreads) {
+                    throw new ServiceConfigException("<run-from-pool> element min-threads attribute value is invalid");
+                }
+            } catch (Exception e) {
+                throw new ServiceConfigException("<run-from-pool> element min-threads attribute value is invalid");
+            }
+        }
+        String jobs = runFromPoolElement.getAttribute("jobs").intern();
+        if (jobs.isEmpty()) {
+            this.jobs = ThreadPool.QUEUE_SIZE;
+        } else {
+            try {
+                this.jobs = Integer.parseInt(jobs);
+                if (this.jobs < 1) {
+                    throw new ServiceConfigException("<run-from-pool> element jobs attribute value is invalid");
+                }
+            } catch (Exception e) {
+                throw new ServiceConfigException("<run-from-pool> element jobs attribute value is invalid");
+            }
+        }
     }
 
     public String getName() {
         return name;
     }
+
+    /**
+     * Returns <code>true</code> if the jobs of this pool run in their own thread pool.
+     */
+    public boolean hasOwnThreads() {
+        return maxThreads > 0;
+    }
+
+    public int getJobs() {
+        return jobs;
+    }
+
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    public int getMinThreads() {
+        return minThreads;
+    }
 }
@@ -28,6 +28,7 @@ import java.util.TreeSet;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.ofbiz.base.component.ComponentConfig;
 import org.apache.ofbiz.base.concurrent.ExecutionPool;
@@ -52,11 +53,14 @@ public final class ServiceEcaUtil {
 
     // using a cache is dangerous here because if someone clears it the ECAs won't run: public static UtilCache ecaCache = new UtilCache("service.ServiceECAs", 0, 0, false);
     private static Map<String, Map<String, List<ServiceEcaRule>>> ecaCache = new ConcurrentHashMap<String, Map<String, List<ServiceEcaRule>>>();
+    // incremented every time the ECA definitions change, so that callers caching rule lookups can detect stale data
+    private static final AtomicInteger generation = new AtomicInteger();
 
     private ServiceEcaUtil() {}
 
     public static void reloadConfig() {
         ecaCache.clear();
+        generation.incrementAndGet();
         readConfig();
     }
 
@@ -149,6 +153,15 @@ public final class ServiceEcaUtil {
             }
             rules.add(rule);
         }
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Returns the current generation of the ECA definitions. The value changes every time
+     * rules are loaded, added or cleared.
+     */
+    public static int getGeneration() {
+        return generation.get();
     }
 
     public static Map<String, List<ServiceEcaRule>> getServiceEventMap(String serviceName) {
@@ -33,6 +33,7 @@ import org.apache.ofbiz.entity.serialize.SerializeException;
 import org.apache.ofbiz.entity.serialize.XmlSerializer;
 import org.apache.ofbiz.service.DispatchContext;
 import org.apache.ofbiz.service.GenericRequester;
+import org.apache.ofbiz.service.GenericResultFuture;
 import org.apache.ofbiz.service.GenericServiceException;
 import org.apache.ofbiz.service.ModelService;
 import org.apache.ofbiz.service.ServiceDispatcher;
@@ -111,6 +112,7 @@ public abstract class GenericAsyncEngine extends AbstractEngine {
                 jFields.put("serviceName", modelService.name);
                 jFields.put("loaderName", localName);
                 jFields.put("maxRetry", Long.valueOf(modelService.maxRetry));
+                jFields.put("priority", Long.valueOf(modelService.priority));
                 jFields.put("runtimeDataId", dataId);
                 if (UtilValidate.isNotEmpty(authUserLoginId)) {
                     jFields.put("authUserLoginId", authUserLoginId);
@@ -136,7 +138,10 @@ public abstract class GenericAsyncEngine extends AbstractEngine {
             if (jMgr != null) {
                 String name = Long.toString(System.currentTimeMillis());
                 String jobId = modelService.name + "." + name;
-                job = new GenericServiceJob(dctx, jobId, name, modelService.name, context, requester);
+                job = new GenericServiceJob(dctx, jobId, name, modelService.name, context, requester, modelService.priority);
+                if (requester instanceof GenericResultFuture) {
+                    ((GenericResultFuture) requester).setJob(job);
+                }
                 try {
                     dispatcher.getJobManager().runJob(job);
                 } catch (JobManagerException jse) {
@@ -18,10 +18,13 @@
  */
 package org.apache.ofbiz.service.engine;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.ofbiz.service.DispatchContext;
 import org.apache.ofbiz.service.GenericServiceException;
@@ -36,6 +39,14 @@ import org.apache.ofbiz.base.util.UtilGenerics;
 public final class StandardJavaEngine extends GenericAsyncEngine {
 
     public static final String module = StandardJavaEngine.class.getName();
+    private static final MethodType SERVICE_METHOD_TYPE = MethodType.methodType(Object.class, DispatchContext.class, Map.class);
+    // resolved service methods by invoke name, attached to the location class so they are collected with its class loader
+    private static final ClassValue<ConcurrentHashMap<String, ServiceMethod>> serviceMethods = new ClassValue<ConcurrentHashMap<String, ServiceMethod>>() {
+        @Override
+        protected ConcurrentHashMap<String, ServiceMethod> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<String, ServiceMethod>();
+        }
+    };
 
     public StandardJavaEngine(ServiceDispatcher dispatcher) {
         super(dispatcher);
@@ -77,8 +88,6 @@ public final class StandardJavaEngine extends GenericAsyncEngine {
             Debug.logError("ERROR: Null Service Context.", module);
         }
 
-        Object result = null;
-
         // check the package and method names
         if (modelService.location == null || modelService.invoke == null) {
             throw new GenericServiceException("Service [" + modelService.name + "] is missing location and/or invoke values which are required for execution.");
@@ -93,35 +102,62 @@ public final class StandardJavaEngine extends GenericAsyncEngine {
             cl = dctx.getClassLoader();
         }
 
+        MethodHandle handle = getServiceMethod(modelService, cl).handle;
         try {
-            Class<?> c = cl.loadClass(this.getLocation(modelService));
-            Method m = c.getMethod(modelService.invoke, DispatchContext.class, Map.class);
-            if (Modifier.isStatic(m.getModifiers())) {
-                result = m.invoke(null, dctx, context);
-            } else {
-                result = m.invoke(c.newInstance(), dctx, context);
-            }
+            return (Object) handle.invokeExact(dctx, context);
+        } catch (Throwable th) {
+            throw new GenericServiceException("Service [" + modelService.name + "] target threw an unexpected exception", th);
+        }
+    }
+
+    // Returns the resolved method of the service, the lookup is done once per location class and invoke name.
+    private ServiceMethod getServiceMethod(ModelService modelService, ClassLoader cl) throws GenericServiceException {
+        Class<?> c;
+        try {
+            c = cl.loadClass(this.getLocation(modelService));
         } catch (ClassNotFoundException cnfe) {
             throw new GenericServiceException("Cannot find service [" + modelService.name + "] location class", cnfe);
-        } catch (NoSuchMethodException nsme) {
-            throw new GenericServiceException("Service [" + modelService.name + "] specified Java method (invoke attribute) does not exist", nsme);
-        } catch (SecurityException se) {
-            throw new GenericServiceException("Service [" + modelService.name + "] Access denied", se);
-        } catch (IllegalAccessException iae) {
-            throw new GenericServiceException("Service [" + modelService.name + "] Method not accessible", iae);
-        } catch (IllegalArgumentException iarge) {
-            throw new GenericServiceException("Service [" + modelService.name + "] Invalid parameter match", iarge);
-        } catch (InvocationTargetException ite) {
-            throw new GenericServiceException("Service [" + modelService.name + "] target threw an unexpected exception", ite.getTargetException());
-        } catch (NullPointerException npe) {
-            throw new GenericServiceException("Service [" + modelService.name + "] ran into an unexpected null object", npe);
-        } catch (ExceptionInInitializerError eie) {
-            throw new GenericServiceException("Service [" + modelService.name + "] Initialization failed", eie);
-        } catch (Throwable th) {
-            throw new GenericServiceException("Service [" + modelService.name + "] Error or unknown exception", th);
         }
+        ConcurrentHashMap<String, ServiceMethod> classMethods = serviceMethods.get(c);
+        ServiceMethod serviceMethod = classMethods.get(modelService.invoke);
+        if (serviceMethod == null) {
+            serviceMethod = new ServiceMethod(modelService, c);
+            // keep the first resolved method so an instance method service has a single instance
+            ServiceMethod existing = classMethods.putIfAbsent(modelService.invoke, serviceMethod);
+            if (existing != null) {
+                serviceMethod = existing;
+            }
+        }
+        return serviceMethod;
+    }
 
-        return result;
+    /**
+     * A Java service method resolved to a <code>MethodHandle</code> with the
+     * <code>(DispatchContext, Map)Object</code> type. Instance methods are bound
+     * to a single instance of the location class, created when the method is resolved.
+     */
+    private static final class ServiceMethod {
+        private final MethodHandle handle;
+
+        private ServiceMethod(ModelService modelService, Class<?> c) throws GenericServiceException {
+            try {
+                Method m = c.getMethod(modelService.invoke, DispatchContext.class, Map.class);
+                MethodHandle mh = MethodHandles.publicLookup().unreflect(m);
+                if (!Modifier.isStatic(m.getModifiers())) {
+                    mh = mh.bindTo(c.newInstance());
+                }
+                this.handle = mh.asType(SERVICE_METHOD_TYPE);
+            } catch (NoSuchMethodException nsme) {
+                throw new GenericServiceException("Service [" + modelService.name + "] specified Java method (invoke attribute) does not exist", nsme);
+            } catch (SecurityException se) {
+                throw new GenericServiceException("Service [" + modelService.name + "] Access denied", se);
+            } catch (IllegalAccessException iae) {
+                throw new GenericServiceException("Service [" + modelService.name + "] Method not accessible", iae);
+            } catch (ExceptionInInitializerError eie) {
+                throw new GenericServiceException("Service [" + modelService.name + "] Initialization failed", eie);
+            } catch (Throwable th) {
+                throw new GenericServiceException("Service [" + modelService.name + "] Error or unknown exception", th);
+            }
+        }
     }
 }
-
@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.service.group;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Load and latency statistics of one service of a group, used by the "least-loaded" and "fastest" send modes.
+ * <p>The latency is an exponentially weighted moving average of the invocation times; failed
+ * invocations count with a penalty so that load moves away from failing services. The average decays
+ * toward a prior, the mean of the group, with the time elapsed since the last completed invocation,
+ * halving the difference every <code>DECAY_HALF_LIFE_MILLIS</code>, so a service that is no longer chosen
+ * after a slow or failed invocation is eventually tried again. The average is never lower than the age of
+ * the oldest invocation in flight, so a service that hangs looks slower the longer it hangs. A service
+ * that has never completed an invocation is tried first, but with only one invocation in flight at a time.</p>
+ */
+final class GroupMemberStats {
+
+    // weight of the latest sample in the moving average
+    private static final double ALPHA = 0.2;
+    private static final long FAILURE_PENALTY_MILLIS = 1000;
+    private static final double DECAY_HALF_LIFE_MILLIS = 10000;
+
+    // start times of the invocations in flight
+    private final List<Long> inFlightStarts = new ArrayList<Long>();
+    private double averageMillis = 0;
+    private long lastSampleNanos = 0;
+    private boolean sampled = false;
+
+    synchronized long start() {
+        long now = System.nanoTime();
+        inFlightStarts.add(now);
+        return now;
+    }
+
+    /**
+     * Records the end of an invocation, the average first decays toward <code>priorMillis</code>
+     * for the time elapsed since the previous sample.
+     */
+    synchronized void end(long startNanos, boolean failed, double priorMillis) {
+        inFlightStarts.remove(Long.valueOf(startNanos));
+        long now = System.nanoTime();
+        double millis = (now - startNanos) / 1000000.0;
+        if (failed) {
+            millis += FAILURE_PENALTY_MILLIS;
+        }
+        if (sampled) {
+            double average = decayedAverage(now, priorMillis);
+            averageMillis = average + ALPHA * (millis - average);
+        } else {
+            averageMillis = millis;
+        }
+        lastSampleNanos = now;
+        sampled = true;
+    }
+
+    synchronized int getInFlight() {
+        return inFlightStarts.size();
+    }
+
+    synchronized boolean isSampled() {
+        return sampled;
+    }
+
+    /** Returns the moving average as of the last sample, without decay, used to compute the prior of the group. */
+    synchronized double getSampledAverageMillis() {
+        return averageMillis;
+    }
+
+    /**
+     * Returns the average latency, decayed toward <code>priorMillis</code> and at least the age of the
+     * oldest invocation in flight. A service never invoked returns 0 so that it gets sampled, or
+     * <code>Double.POSITIVE_INFINITY</code> while its first invocation is in flight.
+     */
+    synchronized double getAverageMillis(double priorMillis) {
+        if (!sampled) {
+            return inFlightStarts.isEmpty() ? 0 : Double.POSITIVE_INFINITY;
+        }
+        long now = System.nanoTime();
+        double average = decayedAverage(now, priorMillis);
+        if (!inFlightStarts.isEmpty()) {
+            long oldest = now;
+            for (Long start : inFlightStarts) {
+                if (start - oldest < 0) {
+                    oldest = start;
+                }
+            }
+            average = Math.max(average, (now - oldest) / 1000000.0);
+        }
+        return average;
+    }
+
+    /**
+     * Returns the expected time to complete one more invocation, see {@link #getAverageMillis(double)}.
+     */
+    synchronized double score(double priorMillis) {
+        return (inFlightStarts.size() + 1) * getAverageMillis(priorMillis);
+    }
+
+    private double decayedAverage(long now, double priorMillis) {
+        double elapsedMillis = (now - lastSampleNanos) / 1000000.0;
+        return priorMillis + (averageMillis - priorMillis) * Math.pow(0.5, elapsedMillis / DECAY_HALF_LIFE_MILLIS);
+    }
+}
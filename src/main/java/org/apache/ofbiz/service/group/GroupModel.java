@@ -18,14 +18,24 @@
  *******************************************************************************/
 package org.apache.ofbiz.service.group;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.ofbiz.base.util.Debug;
 import org.apache.ofbiz.base.util.UtilMisc;
 import org.apache.ofbiz.base.util.UtilXml;
 import org.apache.ofbiz.service.GenericServiceException;
+import org.apache.ofbiz.service.ParallelServiceRunner;
 import org.apache.ofbiz.service.ServiceDispatcher;
 import org.apache.ofbiz.service.ServiceUtil;
 import org.w3c.dom.Element;
@@ -40,7 +50,8 @@ public class GroupModel {
     private String groupName, sendMode;
     private List<GroupServiceModel> services;
     private boolean optional = false;
-    private int lastServiceRan;
+    private final AtomicInteger lastServiceRan = new AtomicInteger(-1);
+    private volatile GroupMemberStats[] memberStats = null;
 
     /**
      * Constructor using DOM Element
@@ -50,7 +61,6 @@ public class GroupModel {
         this.sendMode = group.getAttribute("send-mode");
         this.groupName = group.getAttribute("name");
         this.services = new LinkedList<GroupServiceModel>();
-        this.lastServiceRan = -1;
 
         if (groupName == null) {
             throw new IllegalArgumentException("Group Definition found with no name attribute! : " + group);
@@ -80,7 +90,6 @@ public class GroupModel {
      * @param services List of GroupServiceModel objects
      */
     public GroupModel(String groupName, String sendMode, List<GroupServiceModel> services) {
-        this.lastServiceRan = -1;
         this.groupName = groupName;
         this.sendMode = sendMode;
         this.services = services;
@@ -126,13 +135,19 @@ public class GroupModel {
             throws GenericServiceException {
         if (this.getSendMode().equals("all")) {
             return runAll(dispatcher, localName, context);
+        } else if (this.getSendMode().equals("parallel")) {
+            return runParallel(dispatcher, localName, context);
         } else if (this.getSendMode().equals("round-robin")) {
-            return runIndex(dispatcher, localName, context, (++lastServiceRan % services.size()));
+            return runIndex(dispatcher, localName, context, Math.floorMod(lastServiceRan.incrementAndGet(), services.size()));
         } else if (this.getSendMode().equals("random")) {
             int randomIndex = (int) (Math.random() * (services.size()));
             return runIndex(dispatcher, localName, context, randomIndex);
         } else if (this.getSendMode().equals("first-available")) {
             return runOne(dispatcher, localName, context);
+        } else if (this.getSendMode().equals("least-loaded")) {
+            return runIndex(dispatcher, localName, context, bestIndex(true));
+        } else if (this.getSendMode().equals("fastest")) {
+            return runIndex(dispatcher, localName, context, bestIndex(false));
         } else if (this.getSendMode().equals("none")) {
             return new HashMap<String, Object>();
         } else {
@@ -180,25 +195,215 @@ public class GroupModel {
         return result;
     }
 
+    /**
+     * Runs the services concurrently, each in its own transaction. A service with result-to-context
+     * ends a stage: the following services run after it, with its results in their context. Results are
+     * merged in the order the services are defined. The first error cancels the services not started yet, the
+     * running ones are not interrupted in their transaction and their results are ignored.
+     */
+    private Map<String, Object> runParallel(ServiceDispatcher dispatcher, String localName, Map<String, Object> context)
+            throws GenericServiceException {
+        Map<String, Object> runContext = UtilMisc.makeMapWritable(context);
+        Map<String, Object> result = new HashMap<String, Object>();
+        int stageStart = 0;
+        while (stageStart < services.size()) {
+            int stageEnd = stageStart;
+            while (stageEnd < services.size() - 1 && !services.get(stageEnd).resultToContext()) {
+                stageEnd++;
+            }
+            List<GroupServiceModel> stage = services.subList(stageStart, stageEnd + 1);
+            if (Debug.verboseOn())
+                Debug.logVerbose("Running stage " + stage + " using context: " + runContext, module);
+            List<Map<String, Object>> stageResults = new ArrayList<Map<String, Object>>(stage.size());
+            Map<String, Object> errorResult = runStage(dispatcher, localName, runContext, stage, stageResults);
+            if (errorResult != null) {
+                return errorResult;
+            }
+            for (Map<String, Object> thisResult : stageResults) {
+                result.putAll(thisResult);
+            }
+            GroupServiceModel last = stage.get(stage.size() - 1);
+            if (last.resultToContext()) {
+                runContext.putAll(stageResults.get(stageResults.size() - 1));
+                Debug.logVerbose("Added result(s) to context.", module);
+            }
+            stageStart = stageEnd + 1;
+        }
+        return result;
+    }
+
+    // runs the services of one stage concurrently and fills stageResults in order, returns the first error result if any
+    private Map<String, Object> runStage(ServiceDispatcher dispatcher, String localName, Map<String, Object> runContext,
+            List<GroupServiceModel> stage, List<Map<String, Object>> stageResults) throws GenericServiceException {
+        BlockingQueue<Integer> completed = new LinkedBlockingQueue<Integer>();
+        List<Future<Map<String, Object>>> futures = new ArrayList<Future<Map<String, Object>>>(stage.size());
+        for (int i = 0; i < stage.size(); i++) {
+            futures.add(ParallelServiceRunner.submit(new MemberTask(new MemberCall(dispatcher, localName, runContext, stage.get(i)), i, completed)));
+        }
+        try {
+            for (int done = 0; done < futures.size(); done++) {
+                int index = completed.take();
+                GroupServiceModel model = stage.get(index);
+                Map<String, Object> thisResult;
+                try {
+                    thisResult = futures.get(index).get();
+                } catch (CancellationException e) {
+                    throw new GenericServiceException("Grouped service [" + model.getName() + "] was cancelled");
+                } catch (ExecutionException e) {
+                    Debug.logError("Grouped service [" + model.getName() + "] failed.", module);
+                    if (e.getCause() instanceof GenericServiceException) {
+                        throw (GenericServiceException) e.getCause();
+                    }
+                    throw new GenericServiceException("Grouped service [" + model.getName() + "] failed", e.getCause());
+                }
+                if (Debug.verboseOn())
+                    Debug.logVerbose("Result: " + thisResult, module);
+                if (ServiceUtil.isError(thisResult)) {
+                    Debug.logError("Grouped service [" + model.getName() + "] failed.", module);
+                    return thisResult;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GenericServiceException("Interrupted while running service group [" + groupName + "]", e);
+        } finally {
+            for (Future<Map<String, Object>> future : futures) {
+                future.cancel(false);
+            }
+        }
+        for (Future<Map<String, Object>> future : futures) {
+            try {
+                stageResults.add(future.get());
+            } catch (Exception e) {
+                // not possible, all the futures completed successfully above
+                throw new GenericServiceException(e);
+            }
+        }
+        return null;
+    }
+
+    // invokes one service of a parallel group
+    private static final class MemberCall implements Callable<Map<String, Object>> {
+        private final ServiceDispatcher dispatcher;
+        private final String localName;
+        private final Map<String, Object> context;
+        private final GroupServiceModel model;
+
+        private MemberCall(ServiceDispatcher dispatcher, String localName, Map<String, Object> context, GroupServiceModel model) {
+            this.dispatcher = dispatcher;
+            this.localName = localName;
+            this.context = context;
+            this.model = model;
+        }
+
+        public Map<String, Object> call() throws GenericServiceException {
+            return model.invoke(dispatcher, localName, context);
+        }
+    }
+
+    // signals the completion of a member call, including when it is cancelled before running
+    private static final class MemberTask extends FutureTask<Map<String, Object>> {
+        private final int index;
+        private final BlockingQueue<Integer> completed;
+
+        private MemberTask(MemberCall call, int index, BlockingQueue<Integer> completed) {
+            super(call);
+            this.index = index;
+            this.completed = completed;
+        }
+
+        @Override
+        protected void done() {
+            completed.add(index);
+        }
+    }
+
     private Map<String, Object> runIndex(ServiceDispatcher dispatcher, String localName, Map<String, Object> context, int index)
             throws GenericServiceException {
-        GroupServiceModel model = services.get(index);
-        return model.invoke(dispatcher, localName, context);
+        return invokeMember(dispatcher, localName, context, index);
     }
 
+    // stops at the first service that runs without error
     private Map<String, Object> runOne(ServiceDispatcher dispatcher, String localName, Map<String, Object> context)
             throws GenericServiceException {
         Map<String, Object> result = null;
-        for (GroupServiceModel model : services) {
+        for (int i = 0; i < services.size(); i++) {
             try {
-                result = model.invoke(dispatcher, localName, context);
+                result = invokeMember(dispatcher, localName, context, i);
+                if (!ServiceUtil.isError(result)) {
+                    return result;
+                }
+                Debug.logError("Service: " + services.get(i) + " returned an error.", module);
             } catch (GenericServiceException e) {
-                Debug.logError("Service: " + model + " failed.", module);
+                Debug.logError("Service: " + services.get(i) + " failed.", module);
             }
         }
         if (result == null) {
             throw new GenericServiceException("All services failed to run; none available.");
         }
+        // all the services returned an error, return the last one
         return result;
     }
+
+    // the service with the lowest expected completion time given its in-flight calls and average latency,
+    // or with the lowest average latency when not load aware
+    private int bestIndex(boolean loadAware) {
+        GroupMemberStats[] stats = getMemberStats();
+        double prior = priorMillis(stats);
+        int best = -1;
+        double bestScore = 0;
+        for (int i = 0; i < stats.length; i++) {
+            double score = loadAware ? stats[i].score(prior) : stats[i].getAverageMillis(prior);
+            if (best < 0 || score < bestScore || (score == bestScore && stats[i].getInFlight() < stats[best].getInFlight())) {
+                best = i;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    // the mean latency of the sampled services, the averages of the services decay toward it
+    private static double priorMillis(GroupMemberStats[] stats) {
+        double total = 0;
+        int count = 0;
+        for (GroupMemberStats memberStats : stats) {
+            if (memberStats.isSampled()) {
+                total += memberStats.getSampledAverageMillis();
+                count++;
+            }
+        }
+        return count == 0 ? 0 : total / count;
+    }
+
+    private GroupMemberStats[] getMemberStats() {
+        GroupMemberStats[] stats = memberStats;
+        if (stats == null || stats.length != services.size()) {
+            synchronized (this) {
+                stats = memberStats;
+                if (stats == null || stats.length != services.size()) {
+                    stats = new GroupMemberStats[services.size()];
+                    for (int i = 0; i < stats.length; i++) {
+                        stats[i] = new GroupMemberStats();
+                    }
+                    memberStats = stats;
+                }
+            }
+        }
+        return stats;
+    }
+
+    private Map<String, Object> invokeMember(ServiceDispatcher dispatcher, String localName, Map<String, Object> context, int index)
+            throws GenericServiceException {
+        GroupMemberStats[] allStats = getMemberStats();
+        GroupMemberStats stats = allStats[index];
+        long start = stats.start();
+        boolean failed = true;
+        try {
+            Map<String, Object> result = services.get(index).invoke(dispatcher, localName, context);
+            failed = ServiceUtil.isError(result);
+            return result;
+        } finally {
+            stats.end(start, failed, priorMillis(allStats));
+        }
+    }
 }
@@ -37,11 +37,17 @@ public abstract class AbstractJob implements Job {
     protected State currentState = State.CREATED;
     private long elapsedTime = 0;
     private final Date startTime = new Date();
+    private final long priority;
 
     protected AbstractJob(String jobId, String jobName) {
+        this(jobId, jobName, JobPriority.NORMAL);
+    }
+
+    protected AbstractJob(String jobId, String jobName, long priority) {
         Assert.notNull("jobId", jobId, "jobName", jobName);
         this.jobId = jobId;
         this.jobName = jobName;
+        this.priority = priority;
     }
 
     @Override
@@ -115,4 +121,9 @@ public abstract class AbstractJob implements Job {
     public Date getStartTime() {
         return startTime;
     }
+
+    @Override
+    public long getPriority() {
+        return priority;
+    }
 }
@@ -25,7 +25,9 @@ import org.apache.ofbiz.base.util.Assert;
 import org.apache.ofbiz.base.util.Debug;
 import org.apache.ofbiz.service.DispatchContext;
 import org.apache.ofbiz.service.GenericRequester;
+import org.apache.ofbiz.service.GenericResultFuture;
 import org.apache.ofbiz.service.LocalDispatcher;
+import org.apache.ofbiz.service.ServiceStats;
 import org.apache.ofbiz.service.ServiceUtil;
 
 /**
@@ -42,7 +44,11 @@ public class GenericServiceJob extends AbstractJob implements Serializable {
     private final Map<String, Object> context;
 
     public GenericServiceJob(DispatchContext dctx, String jobId, String jobName, String service, Map<String, Object> context, GenericRequester req) {
-        super(jobId, jobName);
+        this(dctx, jobId, jobName, service, context, req, JobPriority.NORMAL);
+    }
+
+    public GenericServiceJob(DispatchContext dctx, String jobId, String jobName, String service, Map<String, Object> context, GenericRequester req, long priority) {
+        super(jobId, jobName, priority);
         Assert.notNull("dctx", dctx);
         this.dctx = dctx;
         this.service = service;
@@ -58,10 +64,20 @@ public class GenericServiceJob extends AbstractJob implements Serializable {
         if (currentState != State.QUEUED) {
             throw new InvalidJobException("Illegal state change");
         }
+        if (requester instanceof GenericResultFuture && ((GenericResultFuture) requester).isDone()) {
+            // cancelled or timed out before the job could be removed from the queue
+            currentState = State.FAILED;
+            if (Debug.verboseOn()) Debug.logVerbose("Async-Service [" + getServiceName() + "] was cancelled before it started.", module);
+            return;
+        }
         currentState = State.RUNNING;
         init();
         Throwable thrown = null;
         Map<String, Object> result = null;
+        ServiceStats stats = getServiceName() != null ? ServiceStats.getStats(getServiceName()) : null;
+        if (stats != null) {
+            stats.asyncBegin();
+        }
         // no transaction is necessary since runSync handles this
         try {
             // get the dispatcher and invoke the service via runSync -- will run all ECAs
@@ -81,6 +97,9 @@ public class GenericServiceJob extends AbstractJob implements Serializable {
             }
             thrown = t;
         }
+        if (stats != null) {
+            stats.asyncEnd();
+        }
         if (thrown == null) {
             finish(result);
         } else {
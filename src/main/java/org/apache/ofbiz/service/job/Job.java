@@ -72,5 +72,10 @@ public interface Job extends Runnable {
      * Returns the time this job is scheduled to start.
      */
     Date getStartTime();
+
+    /**
+     * Returns the priority of this job, see {@link JobPriority}.
+     */
+    long getPriority();
 }
 
@@ -27,6 +27,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.ofbiz.base.config.GenericConfigException;
 import org.apache.ofbiz.base.util.Assert;
@@ -45,10 +46,12 @@ import org.apache.ofbiz.entity.condition.EntityOperator;
 import org.apache.ofbiz.entity.serialize.SerializeException;
 import org.apache.ofbiz.entity.serialize.XmlSerializer;
 import org.apache.ofbiz.entity.transaction.TransactionUtil;
-import org.apache.ofbiz.entity.util.EntityListIterator;
 import org.apache.ofbiz.entity.util.EntityQuery;
 import org.apache.ofbiz.service.DispatchContext;
+import org.apache.ofbiz.service.GenericServiceException;
 import org.apache.ofbiz.service.LocalDispatcher;
+import org.apache.ofbiz.service.ModelService;
+import org.apache.ofbiz.service.ScheduledCall;
 import org.apache.ofbiz.service.ServiceContainer;
 import org.apache.ofbiz.service.calendar.RecurrenceInfo;
 import org.apache.ofbiz.service.calendar.RecurrenceInfoException;
@@ -73,6 +76,17 @@ public final class JobManager {
     public static final String instanceId = UtilProperties.getPropertyValue("general", "unique.instanceId", "ofbiz0");
     private static final ConcurrentHashMap<String, JobManager> registeredManagers = new ConcurrentHashMap<String, JobManager>();
     private static boolean isShutDown = false;
+    // the claim is retried with the next due jobs when other instances claimed some of them
+    private static final int MAX_CLAIM_ROUNDS = 3;
+    // the number of jobs scheduleAll builds and creates at a time
+    private static final int SCHEDULE_CHUNK_SIZE = 1000;
+    // lease based claiming: claimed jobs get a lease expiration renewed by the owner, expired leases can be reclaimed by any instance
+    private static final boolean leaseEnabled = UtilProperties.propertyValueEqualsIgnoreCase("service", "jobManager.lease.enable", "true");
+    private static final long leaseMillis = UtilProperties.getPropertyAsLong("service", "jobManager.lease.seconds", 600) * 1000;
+    // identifies each claim of this instance, so a claim reads back only the jobs it updated
+    private static final AtomicLong claimSequence = new AtomicLong(System.currentTimeMillis());
+    // disabled when the database does not support the statement
+    private static volatile boolean skipLocked = UtilProperties.propertyValueEqualsIgnoreCase("service", "jobManager.claim.skipLocked", "true");
 
     private static void assertIsRunning() {
         if (isShutDown) {
@@ -111,6 +125,9 @@ public final class JobManager {
 
     private final Delegator delegator;
     private boolean crashedJobsReloaded = false;
+    private long lastLeaseCheck = 0;
+    private long lastLeaseRenewal = 0;
+    private PurgeJob purgeJob = null;
 
     private JobManager(Delegator delegator) {
         this.delegator = delegator;
@@ -168,11 +185,37 @@ public final class JobManager {
     }
 
     /**
-     * Scans the JobSandbox entity and returns a list of jobs that are due to run.
+     * Scans the JobSandbox entity and returns a list of jobs that are due to run in the pools that
+     * share the thread-pool threads, or in no pool.
      * Returns an empty list if there are no jobs due to run.
      * This method is called by the {@link JobPoller} polling thread.
      */
     protected List<Job> poll(int limit) {
+        List<EntityExpr> poolsExpr = UtilMisc.toList(EntityCondition.makeCondition("poolId", EntityOperator.EQUALS, null));
+        try {
+            for (RunFromPool runFromPool : ServiceConfigUtil.getServiceEngine().getThreadPool().getRunFromPools()) {
+                if (!runFromPool.hasOwnThreads()) {
+                    poolsExpr.add(EntityCondition.makeCondition("poolId", EntityOperator.EQUALS, runFromPool.getName()));
+                }
+            }
+        } catch (GenericConfigException e) {
+            Debug.logWarning(e, "Unable to get run pools - not running job: ", module);
+            return Collections.emptyList();
+        }
+        return poll(poolsExpr, limit, true);
+    }
+
+    /**
+     * Scans the JobSandbox entity and returns a list of jobs that are due to run in
+     * a pool that has its own threads.
+     * This method is called by the {@link JobPoller} polling thread.
+     */
+    protected List<Job> poll(String poolId, int limit) {
+        return poll(UtilMisc.toList(EntityCondition.makeCondition("poolId", EntityOperator.EQUALS, poolId)), limit, false);
+    }
+
+    // polls the due jobs of the given pools, and the jobs to purge when there are none and purge is true
+    private List<Job> poll(List<EntityExpr> poolsExpr, int limit, boolean purge) {
         assertIsRunning();
         // The rest of this method logs exceptions and does not throw them.
         // The idea is to keep the JobPoller working even when a database
@@ -183,52 +226,39 @@ public final class JobManager {
             return Collections.emptyList();
         }
         // basic query
-        List<EntityExpr> expressions = UtilMisc.toList(EntityCondition.makeCondition("runTime", EntityOperator.LESS_THAN_EQUAL_TO, UtilDateTime.nowTimestamp()),
+        List<EntityExpr> expressions = UtilMisc.toList(EntityCondition.makeCondition("runTime", EntityOperator.LESS_THAN_EQUAL_TO,
+                new Timestamp(System.currentTimeMillis() + JobPoller.getLookaheadMillis())),
                 EntityCondition.makeCondition("startDateTime", EntityOperator.EQUALS, null),
                 EntityCondition.makeCondition("cancelDateTime", EntityOperator.EQUALS, null),
                 EntityCondition.makeCondition("runByInstanceId", EntityOperator.EQUALS, null));
-        // limit to just defined pools
-        List<String> pools = null;
-        try {
-            pools = getRunPools();
-        } catch (GenericConfigException e) {
-            Debug.logWarning(e, "Unable to get run pools - not running job: ", module);
-            return Collections.emptyList();
-        }
-        List<EntityExpr> poolsExpr = UtilMisc.toList(EntityCondition.makeCondition("poolId", EntityOperator.EQUALS, null));
-        if (!pools.isEmpty()) {
-            for (String poolName : pools) {
-                poolsExpr.add(EntityCondition.makeCondition("poolId", EntityOperator.EQUALS, poolName));
-            }
-        }
-        List<Job> poll = new ArrayList<Job>(limit);
         // make the conditions
         EntityCondition baseCondition = EntityCondition.makeCondition(expressions);
         EntityCondition poolCondition = EntityCondition.makeCondition(poolsExpr, EntityOperator.OR);
         EntityCondition mainCondition = EntityCondition.makeCondition(UtilMisc.toList(baseCondition, poolCondition));
-        EntityListIterator jobsIterator = null;
+        if (leaseEnabled) {
+            checkLeases();
+        }
+        List<Job> poll = new ArrayList<Job>(limit);
         boolean beganTransaction = false;
         try {
-            beganTransaction = TransactionUtil.begin();
-            if (!beganTransaction) {
-                Debug.logWarning("Unable to poll JobSandbox for jobs; unable to begin transaction.", module);
-                return poll;
-            }
-            jobsIterator = EntityQuery.use(delegator).from("JobSandbox").where(mainCondition).orderBy("runTime").queryIterator();
-            GenericValue jobValue = jobsIterator.next();
-            while (jobValue != null) {
-                // Claim ownership of this value. Using storeByCondition to avoid a race condition.
-                List<EntityExpr> updateExpression = UtilMisc.toList(EntityCondition.makeCondition("jobId", EntityOperator.EQUALS, jobValue.get("jobId")), EntityCondition.makeCondition("runByInstanceId", EntityOperator.EQUALS, null));
-                int rowsUpdated = delegator.storeByCondition("JobSandbox", UtilMisc.toMap("runByInstanceId", instanceId), EntityCondition.makeCondition(updateExpression));
-                if (rowsUpdated == 1) {
-                    poll.add(new PersistedServiceJob(dctx, jobValue, null));
-                    if (poll.size() == limit) {
-                        break;
-                    }
+            // claim in batches: jobs taken by other instances in the meantime are replaced by the next due jobs
+            for (int round = 0; round < MAX_CLAIM_ROUNDS && poll.size() < limit; round++) {
+                beganTransaction = TransactionUtil.begin();
+                if (!beganTransaction) {
+                    Debug.logWarning("Unable to poll JobSandbox for jobs; unable to begin transaction.", module);
+                    return poll;
+                }
+                int wanted = limit - poll.size();
+                List<Job> claimed = new ArrayList<Job>(wanted);
+                int candidates = claimJobs(dctx, mainCondition, wanted, claimed);
+                TransactionUtil.commit(beganTransaction);
+                beganTransaction = false;
+                poll.addAll(claimed);
+                if (candidates < wanted) {
+                    // no more due jobs
+                    break;
                 }
-                jobValue = jobsIterator.next();
             }
-            TransactionUtil.commit(beganTransaction);
         } catch (Throwable t) {
             String errMsg = "Exception thrown while polling JobSandbox: ";
             try {
@@ -237,17 +267,10 @@ public final class JobManager {
                 Debug.logWarning(e, "Exception thrown while rolling back transaction: ", module);
             }
             Debug.logWarning(t, errMsg, module);
-            return Collections.emptyList();
-        } finally {
-            if (jobsIterator != null) {
-                try {
-                    jobsIterator.close();
-                } catch (GenericEntityException e) {
-                    Debug.logWarning(e, module);
-                }
-            }
+            // the jobs claimed in the previous rounds are committed and must be run
+            return poll;
         }
-        if (poll.isEmpty()) {
+        if (poll.isEmpty() && purge) {
             // No jobs to run, see if there are any jobs to purge
             Calendar cal = Calendar.getInstance();
             try {
@@ -258,50 +281,179 @@ public final class JobManager {
                 return Collections.emptyList();
             }
             Timestamp purgeTime = new Timestamp(cal.getTimeInMillis());
-            List<EntityExpr> finExp = UtilMisc.toList(EntityCondition.makeCondition("finishDateTime", EntityOperator.NOT_EQUAL, null), EntityCondition.makeCondition("finishDateTime", EntityOperator.LESS_THAN, purgeTime));
-            List<EntityExpr> canExp = UtilMisc.toList(EntityCondition.makeCondition("cancelDateTime", EntityOperator.NOT_EQUAL, null), EntityCondition.makeCondition("cancelDateTime", EntityOperator.LESS_THAN, purgeTime));
-            EntityCondition doneCond = EntityCondition.makeCondition(UtilMisc.toList(EntityCondition.makeCondition(canExp), EntityCondition.makeCondition(finExp)), EntityOperator.OR);
-            mainCondition = EntityCondition.makeCondition(UtilMisc.toList(EntityCondition.makeCondition("runByInstanceId", instanceId), doneCond));
-            beganTransaction = false;
-            jobsIterator = null;
+            mainCondition = EntityCondition.makeCondition(UtilMisc.toList(EntityCondition.makeCondition("runByInstanceId", instanceId), JobPurger.makeDoneCondition(purgeTime)));
+            // one purge job at a time removes all the old jobs in chunks
+            PurgeJob previousPurge = purgeJob;
+            if (previousPurge != null && (previousPurge.currentState() == Job.State.QUEUED || previousPurge.currentState() == Job.State.RUNNING)) {
+                return poll;
+            }
             try {
-                beganTransaction = TransactionUtil.begin();
-                if (!beganTransaction) {
-                    Debug.logWarning("Unable to poll JobSandbox for jobs; unable to begin transaction.", module);
-                    return Collections.emptyList();
+                if (EntityQuery.use(delegator).select("jobId").from("JobSandbox").where(mainCondition).queryFirst() != null) {
+                    purgeJob = new PurgeJob(delegator, mainCondition);
+                    poll.add(purgeJob);
                 }
-                jobsIterator = EntityQuery.use(delegator).from("JobSandbox").where(mainCondition).orderBy("jobId").queryIterator();
-                GenericValue jobValue = jobsIterator.next();
-                while (jobValue != null) {
-                    poll.add(new PurgeJob(jobValue));
-                    if (poll.size() == limit) {
-                        break;
-                    }
-                    jobValue = jobsIterator.next();
-                }
-                TransactionUtil.commit(beganTransaction);
-            } catch (Throwable t) {
-                String errMsg = "Exception thrown while polling JobSandbox: ";
-                try {
-                    TransactionUtil.rollback(beganTransaction, errMsg, t);
-                } catch (GenericEntityException e) {
-                    Debug.logWarning(e, "Exception thrown while rolling back transaction: ", module);
-                }
-                Debug.logWarning(t, errMsg, module);
+            } catch (GenericEntityException e) {
+                Debug.logWarning(e, "Exception thrown while polling JobSandbox: ", module);
                 return Collections.emptyList();
-            } finally {
-                if (jobsIterator != null) {
-                    try {
-                        jobsIterator.close();
-                    } catch (GenericEntityException e) {
-                        Debug.logWarning(e, module);
-                    }
-                }
             }
         }
         return poll;
     }
 
+    /**
+     * Claims up to <code>limit</code> due jobs for this instance with one conditional update, and adds
+     * the claimed jobs to <code>claimed</code>. Returns the number of candidate jobs found.
+     */
+    private int claimJobs(DispatchContext dctx, EntityCondition dueCondition, int limit, List<Job> claimed) throws GenericEntityException {
+        List<String> jobIds;
+        if (skipLocked) {
+            try {
+                jobIds = SkipLockedJobSelector.selectJobIds(delegator, dueCondition, limit);
+            } catch (GenericEntityException e) {
+                // the transaction may be unusable now, use the portable claim from the next poll
+                skipLocked = false;
+                Debug.logWarning(e, "SELECT ... FOR UPDATE SKIP LOCKED is not supported, falling back to conditional claims", module);
+                throw e;
+            }
+        } else {
+            // jobs without a priority (see the setDefaultJobPriority service) sort last on every database
+            List<GenericValue> candidates = EntityQuery.use(delegator).select("jobId").from("JobSandbox").where(dueCondition)
+                    .orderBy("-priority NULLS LAST", "runTime").maxRows(limit).queryList();
+            jobIds = new ArrayList<String>(candidates.size());
+            for (GenericValue candidate : candidates) {
+                jobIds.add(candidate.getString("jobId"));
+            }
+        }
+        if (jobIds.isEmpty()) {
+            return 0;
+        }
+        // claim ownership of the jobs that are still available, using storeByCondition to avoid a race condition
+        EntityCondition claimCondition = EntityCondition.makeCondition(UtilMisc.toList(
+                EntityCondition.makeCondition("jobId", EntityOperator.IN, jobIds),
+                EntityCondition.makeCondition("runByInstanceId", EntityOperator.EQUALS, null),
+                EntityCondition.makeCondition("startDateTime", EntityOperator.EQUALS, null),
+                EntityCondition.makeCondition("cancelDateTime", EntityOperator.EQUALS, null)));
+        Map<String, Object> claimFields = makeClaimFields();
+        int rowsUpdated = delegator.storeByCondition("JobSandbox", claimFields, claimCondition);
+        if (rowsUpdated > 0) {
+            // read back the jobs this claim won, not the ones claimed meanwhile by another thread of this instance
+            List<GenericValue> claimedValues = EntityQuery.use(delegator).from("JobSandbox").where(
+                    EntityCondition.makeCondition("jobId", EntityOperator.IN, jobIds),
+                    EntityCondition.makeCondition("claimToken", EntityOperator.EQUALS, claimFields.get("claimToken")))
+                    .orderBy("-priority NULLS LAST", "runTime").queryList();
+            for (GenericValue jobValue : claimedValues) {
+                claimed.add(new PersistedServiceJob(dctx, jobValue, null, true));
+            }
+        }
+        if (Debug.verboseOn()) Debug.logVerbose("Claimed " + rowsUpdated + " of " + jobIds.size() + " due jobs", module);
+        return jobIds.size();
+    }
+
+    // the fields set by a claim, with a new claim token
+    private static Map<String, Object> makeClaimFields() {
+        Map<String, Object> claimFields = UtilMisc.<String, Object>toMap("runByInstanceId", instanceId, "statusId", "SERVICE_QUEUED",
+                "claimToken", Long.toString(claimSequence.incrementAndGet()));
+        if (leaseEnabled) {
+            claimFields.put("leaseExpireDateTime", new Timestamp(System.currentTimeMillis() + leaseMillis));
+        }
+        return claimFields;
+    }
+
+    /**
+     * Returns the interval at which the job poller must call {@link #renewLeases()}, 0 when leases are disabled.
+     */
+    static long getLeaseRenewMillis() {
+        return leaseEnabled ? leaseMillis / 4 : 0;
+    }
+
+    /**
+     * Renews the leases of the jobs claimed by this instance, at most four times per lease period.
+     * Called by the job poller on every loop, whether or not it polls for jobs, so the leases of queued
+     * and running jobs never expire while this instance is alive.
+     */
+    void renewLeases() {
+        if (!leaseEnabled) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastLeaseRenewal < getLeaseRenewMillis()) {
+            return;
+        }
+        lastLeaseRenewal = now;
+        try {
+            delegator.storeByCondition("JobSandbox", UtilMisc.toMap("leaseExpireDateTime", new Timestamp(now + leaseMillis)),
+                    EntityCondition.makeCondition(EntityCondition.makeCondition("runByInstanceId", instanceId), makeActiveCondition()));
+        } catch (GenericEntityException e) {
+            Debug.logWarning(e, "Unable to renew the job leases of instance " + instanceId, module);
+        }
+    }
+
+    private static EntityCondition makeActiveCondition() {
+        return EntityCondition.makeCondition(UtilMisc.toList(
+                EntityCondition.makeCondition("statusId", EntityOperator.EQUALS, "SERVICE_QUEUED"),
+                EntityCondition.makeCondition("statusId", EntityOperator.EQUALS, "SERVICE_RUNNING")), EntityOperator.OR);
+    }
+
+    /**
+     * Reclaims the jobs whose lease expired, at most four times per lease period.
+     */
+    private void checkLeases() {
+        long now = System.currentTimeMillis();
+        if (now - lastLeaseCheck < getLeaseRenewMillis()) {
+            return;
+        }
+        lastLeaseCheck = now;
+        EntityCondition activeCondition = makeActiveCondition();
+        List<GenericValue> expired = null;
+        try {
+            expired = EntityQuery.use(delegator).from("JobSandbox").where(activeCondition,
+                    EntityCondition.makeCondition("leaseExpireDateTime", EntityOperator.LESS_THAN, new Timestamp(now)))
+                    .orderBy("runTime").queryList();
+        } catch (GenericEntityException e) {
+            Debug.logWarning(e, "Unable to load the jobs with an expired lease", module);
+            return;
+        }
+        Timestamp nowStamp = new Timestamp(now);
+        for (GenericValue job : expired) {
+            try {
+                // only one instance wins the reclaim of a job: the lease must still be the one we read
+                int rowsUpdated = delegator.storeByCondition("JobSandbox", UtilMisc.toMap("statusId", "SERVICE_CRASHED", "cancelDateTime", nowStamp),
+                        EntityCondition.makeCondition(UtilMisc.toList(
+                                EntityCondition.makeCondition("jobId", job.get("jobId")),
+                                EntityCondition.makeCondition("statusId", job.get("statusId")),
+                                EntityCondition.makeCondition("leaseExpireDateTime", job.get("leaseExpireDateTime")))));
+                if (rowsUpdated == 1) {
+                    rescheduleCrashedJob(job, nowStamp);
+                    Debug.logWarning("Lease of job [" + job.getString("jobId") + "] claimed by instance [" + job.getString("runByInstanceId") + "] expired, re-scheduled", module);
+                }
+            } catch (GenericEntityException e) {
+                Debug.logWarning(e, module);
+            }
+        }
+    }
+
+    // creates a new pending job, run once, from a job that did not complete
+    private void rescheduleCrashedJob(GenericValue job, Timestamp now) throws GenericEntityException {
+        String pJobId = job.getString("parentJobId");
+        if (pJobId == null) {
+            pJobId = job.getString("jobId");
+        }
+        GenericValue newJob = GenericValue.create(job);
+        newJob.set("statusId", "SERVICE_PENDING");
+        newJob.set("runTime", now);
+        newJob.set("previousJobId", job.getString("jobId"));
+        newJob.set("parentJobId", pJobId);
+        newJob.set("startDateTime", null);
+        newJob.set("runByInstanceId", null);
+        newJob.set("leaseExpireDateTime", null);
+        newJob.set("claimToken", null);
+        newJob.set("cancelDateTime", null);
+        //don't set a recurrent schedule on the new job, run it just one time
+        newJob.set("tempExprId", null);
+        newJob.set("recurrenceInfoId", null);
+        delegator.createSetNextSeqId(newJob);
+    }
+
     public synchronized void reloadCrashedJobs() {
         assertIsRunning();
         if (crashedJobsReloaded) {
@@ -324,21 +476,7 @@ public final class JobManager {
             for (GenericValue job : crashed) {
                 try {
                     if (Debug.infoOn()) Debug.logInfo("Scheduling Job : " + job, module);
-                    String pJobId = job.getString("parentJobId");
-                    if (pJobId == null) {
-                        pJobId = job.getString("jobId");
-                    }
-                    GenericValue newJob = GenericValue.create(job);
-                    newJob.set("statusId", "SERVICE_PENDING");
-                    newJob.set("runTime", now);
-                    newJob.set("previousJobId", job.getString("jobId"));
-                    newJob.set("parentJobId", pJobId);
-                    newJob.set("startDateTime", null);
-                    newJob.set("runByInstanceId", null);
-                    //don't set a recurrent schedule on the new job, run it just one time
-                    newJob.set("tempExprId", null);
-                    newJob.set("recurrenceInfoId", null);
-                    delegator.createSetNextSeqId(newJob);
+                    rescheduleCrashedJob(job, now);
                     // set the cancel time on the old job to the same as the re-schedule time
                     job.set("statusId", "SERVICE_CRASHED");
                     job.set("cancelDateTime", now);
@@ -497,6 +635,37 @@ public final class JobManager {
      */
     public void schedule(String jobName, String poolName, String serviceName, Map<String, ? extends Object> context, long startTime,
             int frequency, int interval, int count, long endTime, int maxRetry) throws JobManagerException {
+        schedule(jobName, poolName, serviceName, context, startTime, frequency, interval, count, endTime, maxRetry, getServicePriority(serviceName));
+    }
+
+    /**
+     * Schedule a job to start at a specific time with specific recurrence info and priority
+     * 
+     * @param jobName
+     *            The name of the job
+     *@param poolName
+     *            The name of the pool to run the service from
+     *@param serviceName
+     *            The name of the service to invoke
+     *@param context
+     *            The context for the service
+     *@param startTime
+     *            The time in milliseconds the service should run
+     *@param frequency
+     *            The frequency of the recurrence (HOURLY,DAILY,MONTHLY,etc)
+     *@param interval
+     *            The interval of the frequency recurrence
+     *@param count
+     *            The number of times to repeat
+     *@param endTime
+     *            The time in milliseconds the service should expire
+     *@param maxRetry
+     *            The max number of retries on failure (-1 for no max)
+     *@param priority
+     *            The job priority, see {@link JobPriority}
+     */
+    public void schedule(String jobName, String poolName, String serviceName, Map<String, ? extends Object> context, long startTime,
+            int frequency, int interval, int count, long endTime, int maxRetry, long priority) throws JobManagerException {
         // persist the context
         String dataId = null;
         try {
@@ -512,7 +681,7 @@ public final class JobManager {
             throw new JobManagerException(ioe.getMessage(), ioe);
         }
         // schedule the job
-        schedule(jobName, poolName, serviceName, dataId, startTime, frequency, interval, count, endTime, maxRetry);
+        schedule(jobName, poolName, serviceName, dataId, startTime, frequency, interval, count, endTime, maxRetry, priority);
     }
 
     /**
@@ -542,6 +711,38 @@ public final class JobManager {
      */
     public void schedule(String jobName, String poolName, String serviceName, String dataId, long startTime, int frequency, int interval,
             int count, long endTime, int maxRetry) throws JobManagerException {
+        schedule(jobName, poolName, serviceName, dataId, startTime, frequency, interval, count, endTime, maxRetry, getServicePriority(serviceName));
+    }
+
+    /**
+     * Schedule a job to start at a specific time with specific recurrence info and priority
+     * 
+     * @param jobName
+     *            The name of the job
+     *@param poolName
+     *            The name of the pool to run the service from
+     *@param serviceName
+     *            The name of the service to invoke
+     *@param dataId
+     *            The persisted context (RuntimeData.runtimeDataId)
+     *@param startTime
+     *            The time in milliseconds the service should run
+     *@param frequency
+     *            The frequency of the recurrence (HOURLY,DAILY,MONTHLY,etc)
+     *@param interval
+     *            The interval of the frequency recurrence
+     *@param count
+     *            The number of times to repeat
+     *@param endTime
+     *            The time in milliseconds the service should expire
+     *@param maxRetry
+     *            The max number of retries on failure (-1 for no max)
+     *@param priority
+     *            The job priority, see {@link JobPriority}
+     * @throws IllegalStateException if the Job Manager is shut down.
+     */
+    public void schedule(String jobName, String poolName, String serviceName, String dataId, long startTime, int frequency, int interval,
+            int count, long endTime, int maxRetry, long priority) throws JobManagerException {
         assertIsRunning();
         // create the recurrence
         String infoId = null;
@@ -574,6 +775,7 @@ public final class JobManager {
         // set the max retry
         jFields.put("maxRetry", Long.valueOf(maxRetry));
         jFields.put("currentRetryCount", new Long(0));
+        jFields.put("priority", Long.valueOf(priority));
         // create the value and store
         GenericValue jobV;
         try {
@@ -582,5 +784,134 @@ public final class JobManager {
         } catch (GenericEntityException e) {
             throw new JobManagerException(e.getMessage(), e);
         }
+        if (JobPoller.getLookaheadMillis() > 0 && startTime <= System.currentTimeMillis() + JobPoller.getLookaheadMillis()) {
+            queueScheduledJob(jobV);
+        }
+        if (JobPoller.isPolled(this)) {
+            JobPoller.getInstance().jobScheduled();
+        }
+    }
+
+    /**
+     * Schedules a list of non-recurring jobs in the current transaction; {@link org.apache.ofbiz.service.LocalDispatcher#scheduleAll}
+     * runs it in its own new transaction. The <code>RuntimeData</code> and <code>JobSandbox</code> values are built
+     * and created by chunks of <code>SCHEDULE_CHUNK_SIZE</code> jobs, with ids taken from the delegator sequence banks,
+     * so only one chunk of values is held in memory at a time.
+     *
+     * @param calls
+     *            The jobs to schedule
+     * @return The ids of the created jobs, in the same order as the calls
+     * @throws IllegalStateException if the Job Manager is shut down.
+     */
+    public List<String> scheduleAll(List<ScheduledCall> calls) throws JobManagerException {
+        assertIsRunning();
+        List<String> jobIds = new ArrayList<String>(calls.size());
+        if (calls.isEmpty()) {
+            return jobIds;
+        }
+        DispatchContext dctx = getDispatcher().getDispatchContext();
+        String sendToPool;
+        try {
+            sendToPool = ServiceConfigUtil.getServiceEngine().getThreadPool().getSendToPool();
+        } catch (GenericConfigException e) {
+            throw new JobManagerException(e.getMessage(), e);
+        }
+        String defaultJobName = Long.toString(System.currentTimeMillis());
+        long lookaheadTime = System.currentTimeMillis() + JobPoller.getLookaheadMillis();
+        boolean dueJobs = false;
+        int chunkSize = Math.min(calls.size(), SCHEDULE_CHUNK_SIZE);
+        List<GenericValue> runtimeDataValues = new ArrayList<GenericValue>(chunkSize);
+        List<GenericValue> jobValues = new ArrayList<GenericValue>(chunkSize);
+        try {
+            for (ScheduledCall call : calls) {
+                ModelService model = dctx.getModelService(call.getServiceName());
+                String dataId = delegator.getNextSeqId("RuntimeData");
+                GenericValue runtimeData = delegator.makeValue("RuntimeData", "runtimeDataId", dataId);
+                runtimeData.set("runtimeInfo", XmlSerializer.serialize(call.getContext()));
+                runtimeDataValues.add(runtimeData);
+
+                String jobId = delegator.getNextSeqId("JobSandbox");
+                Map<String, Object> jFields = UtilMisc.<String, Object> toMap("jobId", jobId, "runTime", new Timestamp(call.getStartTime()),
+                        "serviceName", model.name, "statusId", "SERVICE_PENDING", "runtimeDataId", dataId);
+                jFields.put("jobName", UtilValidate.isNotEmpty(call.getJobName()) ? call.getJobName() : defaultJobName);
+                jFields.put("poolId", UtilValidate.isNotEmpty(call.getPoolName()) ? call.getPoolName() : sendToPool);
+                jFields.put("loaderName", delegator.getDelegatorName());
+                jFields.put("maxRetry", Long.valueOf(call.getMaxRetry() != null ? call.getMaxRetry().longValue() : model.maxRetry));
+                jFields.put("currentRetryCount", Long.valueOf(0));
+                jFields.put("priority", call.getPriority() != null ? call.getPriority() : Long.valueOf(model.priority));
+                Object userLogin = call.getContext().get("userLogin");
+                if (userLogin instanceof GenericValue) {
+                    jFields.put("authUserLoginId", ((GenericValue) userLogin).getString("userLoginId"));
+                }
+                jobValues.add(delegator.makeValue("JobSandbox", jFields));
+                jobIds.add(jobId);
+                dueJobs = dueJobs || call.getStartTime() <= lookaheadTime;
+                if (jobValues.size() == SCHEDULE_CHUNK_SIZE) {
+                    createScheduledJobs(runtimeDataValues, jobValues);
+                }
+            }
+            createScheduledJobs(runtimeDataValues, jobValues);
+        } catch (GenericServiceException e) {
+            throw new JobManagerException(e.getMessage(), e);
+        } catch (GenericEntityException e) {
+            throw new JobManagerException(e.getMessage(), e);
+        } catch (SerializeException e) {
+            throw new JobManagerException(e.getMessage(), e);
+        } catch (IOException e) {
+            throw new JobManagerException(e.getMessage(), e);
+        }
+        if (dueJobs && JobPoller.isPolled(this)) {
+            JobPoller.getInstance().jobScheduled();
+        }
+        return jobIds;
+    }
+
+    // creates a chunk of scheduled jobs and clears the lists
+    private void createScheduledJobs(List<GenericValue> runtimeDataValues, List<GenericValue> jobValues) throws GenericEntityException {
+        for (GenericValue runtimeData : runtimeDataValues) {
+            delegator.create(runtimeData);
+        }
+        for (GenericValue jobV : jobValues) {
+            delegator.create(jobV);
+        }
+        runtimeDataValues.clear();
+        jobValues.clear();
+    }
+
+    // the priority set in the service definition, the default priority when the service is unknown
+    private long getServicePriority(String serviceName) {
+        try {
+            return getDispatcher().getDispatchContext().getModelService(serviceName).priority;
+        } catch (GenericServiceException e) {
+            return JobPriority.NORMAL;
+        }
+    }
+
+    /**
+     * Claims a job that was just scheduled within the lookahead window and hands it to the job poller,
+     * so it runs at its start time instead of waiting for the next poll. The job is left to the poller
+     * when it was created inside a transaction, since the claim would not be visible before the commit.
+     */
+    private void queueScheduledJob(GenericValue jobV) {
+        try {
+            if (!JobPoller.isPolled(this) || TransactionUtil.isTransactionInPlace()) {
+                return;
+            }
+            String poolId = jobV.getString("poolId");
+            if (poolId != null && !getRunPools().contains(poolId)) {
+                return;
+            }
+            Map<String, Object> claimFields = makeClaimFields();
+            int rowsUpdated = delegator.storeByCondition("JobSandbox", claimFields, EntityCondition.makeCondition(UtilMisc.toList(
+                    EntityCondition.makeCondition("jobId", jobV.get("jobId")),
+                    EntityCondition.makeCondition("runByInstanceId", EntityOperator.EQUALS, null))));
+            if (rowsUpdated == 1) {
+                jobV.setFields(claimFields);
+                JobPoller.getInstance().queueAt(new PersistedServiceJob(getDispatcher().getDispatchContext(), jobV, null, true));
+            }
+        } catch (Exception e) {
+            // the job is still in JobSandbox, it will be run by a poll or reclaimed by the lease check
+            Debug.logWarning(e, "Unable to queue scheduled job [" + jobV.getString("jobId") + "] directly", module);
+        }
     }
 }
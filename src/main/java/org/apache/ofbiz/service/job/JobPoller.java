@@ -19,14 +19,12 @@
 package org.apache.ofbiz.service.job;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -37,8 +35,10 @@ import org.apache.ofbiz.base.config.GenericConfigException;
 import org.apache.ofbiz.base.start.Start;
 import org.apache.ofbiz.base.util.Assert;
 import org.apache.ofbiz.base.util.Debug;
+import org.apache.ofbiz.base.util.UtilProperties;
 import org.apache.ofbiz.service.config.ServiceConfigUtil;
 import org.apache.ofbiz.service.config.ServiceConfigListener;
+import org.apache.ofbiz.service.config.model.RunFromPool;
 import org.apache.ofbiz.service.config.model.ServiceConfig;
 import org.apache.ofbiz.service.config.model.ThreadPool;
 
@@ -51,6 +51,14 @@ public final class JobPoller implements ServiceConfigListener {
     private static final AtomicInteger created = new AtomicInteger();
     private static final ConcurrentHashMap<String, JobManager> jobManagers = new ConcurrentHashMap<String, JobManager>();
     private static final ThreadPoolExecutor executor = createThreadPoolExecutor();
+    // the executors of the run-from-pools that have their own threads, by pool name
+    private static final ConcurrentHashMap<String, ThreadPoolExecutor> poolExecutors = createPoolExecutors();
+    // jobs due within the lookahead window are claimed early and run from the timing wheel at their run time
+    private static final long lookaheadMillis = UtilProperties.getPropertyAsLong("service", "jobPoller.lookaheadMillis", 0);
+    private static final long tickMillis = UtilProperties.getPropertyAsLong("service", "jobPoller.tickMillis", 20);
+    // bounds of the adaptive poll interval: shortest wait after a poll that filled the queue, longest wait when idle
+    private static final long minPollMillis = UtilProperties.getPropertyAsLong("service", "jobPoller.minPollMillis", 100);
+    private static final long maxPollMillis = UtilProperties.getPropertyAsLong("service", "jobPoller.maxPollMillis", 0);
     private static final JobPoller instance = new JobPoller();
 
     /**
@@ -64,14 +72,61 @@ public final class JobPoller implements ServiceConfigListener {
         try {
             ThreadPool threadPool = ServiceConfigUtil.getServiceEngine(ServiceConfigUtil.getEngine()).getThreadPool();
             return new ThreadPoolExecutor(threadPool.getMinThreads(), threadPool.getMaxThreads(), threadPool.getTtl(),
-                    TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(threadPool.getJobs()), new JobInvokerThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+                    TimeUnit.MILLISECONDS, new PriorityJobQueue(threadPool.getJobs()), new JobInvokerThreadFactory("OFBiz-JobQueue-"), new ThreadPoolExecutor.AbortPolicy());
         } catch (GenericConfigException e) {
             Debug.logError(e, "Exception thrown while getting <thread-pool> model, using default <thread-pool> values: ", module);
             return new ThreadPoolExecutor(ThreadPool.MIN_THREADS, ThreadPool.MAX_THREADS, ThreadPool.THREAD_TTL,
-                    TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(ThreadPool.QUEUE_SIZE), new JobInvokerThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+                    TimeUnit.MILLISECONDS, new PriorityJobQueue(ThreadPool.QUEUE_SIZE), new JobInvokerThreadFactory("OFBiz-JobQueue-"), new ThreadPoolExecutor.AbortPolicy());
         }
     }
 
+    private static ConcurrentHashMap<String, ThreadPoolExecutor> createPoolExecutors() {
+        ConcurrentHashMap<String, ThreadPoolExecutor> poolExecutors = new ConcurrentHashMap<String, ThreadPoolExecutor>();
+        try {
+            ThreadPool threadPool = ServiceConfigUtil.getServiceEngine(ServiceConfigUtil.getEngine()).getThreadPool();
+            for (RunFromPool runFromPool : threadPool.getRunFromPools()) {
+                if (runFromPool.hasOwnThreads()) {
+                    poolExecutors.put(runFromPool.getName(), createPoolExecutor(threadPool, runFromPool));
+                }
+            }
+        } catch (GenericConfigException e) {
+            Debug.logError(e, "Exception thrown while getting <thread-pool> model, all pools will share the <thread-pool> threads: ", module);
+        }
+        return poolExecutors;
+    }
+
+    private static ThreadPoolExecutor createPoolExecutor(ThreadPool threadPool, RunFromPool runFromPool) {
+        return new ThreadPoolExecutor(runFromPool.getMinThreads(), runFromPool.getMaxThreads(), threadPool.getTtl(),
+                TimeUnit.MILLISECONDS, new PriorityJobQueue(runFromPool.getJobs()),
+                new JobInvokerThreadFactory("OFBiz-JobQueue-" + runFromPool.getName() + "-"), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    private static void resize(ThreadPoolExecutor executor, int minThreads, int maxThreads, long ttl) {
+        // the core size can't exceed the maximum size, change them in an order that keeps it valid
+        if (maxThreads >= executor.getCorePoolSize()) {
+            executor.setMaximumPoolSize(maxThreads);
+            executor.setCorePoolSize(minThreads);
+        } else {
+            executor.setCorePoolSize(minThreads);
+            executor.setMaximumPoolSize(maxThreads);
+        }
+        executor.setKeepAliveTime(ttl, TimeUnit.MILLISECONDS);
+    }
+
+    // persisted jobs of a pool with its own threads run in that pool's executor, all other jobs in the shared one
+    private static ThreadPoolExecutor getExecutor(Job job) {
+        if (job instanceof PersistedServiceJob) {
+            String poolId = ((PersistedServiceJob) job).getPoolId();
+            if (poolId != null) {
+                ThreadPoolExecutor poolExecutor = poolExecutors.get(poolId);
+                if (poolExecutor != null) {
+                    return poolExecutor;
+                }
+            }
+        }
+        return executor;
+    }
+
     private static int pollWaitTime() {
         try {
             ThreadPool threadPool = ServiceConfigUtil.getServiceEngine(ServiceConfigUtil.getEngine()).getThreadPool();
@@ -82,6 +137,21 @@ public final class JobPoller implements ServiceConfigListener {
         }
     }
 
+    /**
+     * Returns the time window, in milliseconds, in which due jobs are claimed ahead of their run time.
+     * Returns zero when jobs are only claimed when due.
+     */
+    public static long getLookaheadMillis() {
+        return lookaheadMillis;
+    }
+
+    /**
+     * Returns <code>true</code> if the jobs of <code>jm</code> are polled and run by this instance.
+     */
+    static boolean isPolled(JobManager jm) {
+        return instance.jobManagerPollerThread != null && jobManagers.get(jm.getDelegator().getDelegatorName()) == jm;
+    }
+
     /**
      * Register a {@link JobManager} with the job poller.
      * 
@@ -96,6 +166,10 @@ public final class JobPoller implements ServiceConfigListener {
     // -------------------------------------- //
 
     private final Thread jobManagerPollerThread;
+    private final Object pollMonitor = new Object();
+    private volatile long pollInterval = pollWaitTime();
+    private final JobTimingWheel timingWheel;
+    private final Thread timerThread;
 
     private JobPoller() {
         if (pollEnabled()) {
@@ -105,6 +179,16 @@ public final class JobPoller implements ServiceConfigListener {
         } else {
             jobManagerPollerThread = null;
         }
+        if (lookaheadMillis > 0) {
+            // one revolution covers the lookahead window
+            timingWheel = new JobTimingWheel(tickMillis, (int) Math.min(lookaheadMillis / tickMillis + 1, 1 << 16));
+            timerThread = new Thread(new JobTimer(), "OFBiz-JobTimer");
+            timerThread.setDaemon(true);
+            timerThread.start();
+        } else {
+            timingWheel = null;
+            timerThread = null;
+        }
         ServiceConfigUtil.registerServiceConfigListener(this);
     }
 
@@ -113,15 +197,39 @@ public final class JobPoller implements ServiceConfigListener {
      */
     public Map<String, Object> getPoolState() {
         Map<String, Object> poolState = new HashMap<String, Object>();
-        poolState.put("keepAliveTimeInSeconds", executor.getKeepAliveTime(TimeUnit.SECONDS));
-        poolState.put("numberOfCoreInvokerThreads", executor.getCorePoolSize());
-        poolState.put("currentNumberOfInvokerThreads", executor.getPoolSize());
-        poolState.put("numberOfActiveInvokerThreads", executor.getActiveCount());
-        poolState.put("maxNumberOfInvokerThreads", executor.getMaximumPoolSize());
-        poolState.put("greatestNumberOfInvokerThreads", executor.getLargestPoolSize());
-        poolState.put("numberOfCompletedTasks", executor.getCompletedTaskCount());
-        BlockingQueue<Runnable> queue = executor.getQueue();
+        addExecutorState(poolState, executor);
         List<Map<String, Object>> taskList = new ArrayList<Map<String, Object>>();
+        addTasks(taskList, executor);
+        List<Map<String, Object>> pools = new ArrayList<Map<String, Object>>();
+        for (Map.Entry<String, ThreadPoolExecutor> entry : poolExecutors.entrySet()) {
+            Map<String, Object> pool = new HashMap<String, Object>();
+            pool.put("poolName", entry.getKey());
+            addExecutorState(pool, entry.getValue());
+            pool.put("numberOfScheduledJobs", timingWheel != null ? timingWheel.size(entry.getValue()) : 0);
+            pools.add(pool);
+            addTasks(taskList, entry.getValue());
+        }
+        poolState.put("taskList", taskList);
+        poolState.put("pools", pools);
+        poolState.put("pollIntervalMillis", pollInterval);
+        poolState.put("numberOfScheduledJobs", timingWheel != null ? timingWheel.size() : 0);
+        return poolState;
+    }
+
+    private static void addExecutorState(Map<String, Object> state, ThreadPoolExecutor executor) {
+        state.put("keepAliveTimeInSeconds", executor.getKeepAliveTime(TimeUnit.SECONDS));
+        state.put("numberOfCoreInvokerThreads", executor.getCorePoolSize());
+        state.put("currentNumberOfInvokerThreads", executor.getPoolSize());
+        state.put("numberOfActiveInvokerThreads", executor.getActiveCount());
+        state.put("maxNumberOfInvokerThreads", executor.getMaximumPoolSize());
+        state.put("greatestNumberOfInvokerThreads", executor.getLargestPoolSize());
+        state.put("numberOfCompletedTasks", executor.getCompletedTaskCount());
+        state.put("numberOfQueuedTasks", executor.getQueue().size());
+        state.put("remainingQueueCapacity", executor.getQueue().remainingCapacity());
+    }
+
+    private static void addTasks(List<Map<String, Object>> taskList, ThreadPoolExecutor executor) {
+        BlockingQueue<Runnable> queue = executor.getQueue();
         Map<String, Object> taskInfo = null;
         for (Runnable task : queue) {
             Job job = (Job) task;
@@ -137,17 +245,25 @@ public final class JobPoller implements ServiceConfigListener {
             taskInfo.put("runtime", job.getRuntime());
             taskList.add(taskInfo);
         }
-        poolState.put("taskList", taskList);
-        return poolState;
     }
 
     @Override
     public void onServiceConfigChange(ServiceConfig serviceConfig) {
         if (!executor.isShutdown()) {
             ThreadPool threadPool = serviceConfig.getServiceEngine(ServiceConfigUtil.getEngine()).getThreadPool();
-            executor.setCorePoolSize(threadPool.getMinThreads());
-            executor.setMaximumPoolSize(threadPool.getMaxThreads());
-            executor.setKeepAliveTime(threadPool.getTtl(), TimeUnit.MILLISECONDS);
+            resize(executor, threadPool.getMinThreads(), threadPool.getMaxThreads(), threadPool.getTtl());
+            for (RunFromPool runFromPool : threadPool.getRunFromPools()) {
+                if (!runFromPool.hasOwnThreads()) {
+                    continue;
+                }
+                // the queue size of an existing pool can't be changed
+                ThreadPoolExecutor poolExecutor = poolExecutors.get(runFromPool.getName());
+                if (poolExecutor == null) {
+                    poolExecutors.putIfAbsent(runFromPool.getName(), createPoolExecutor(threadPool, runFromPool));
+                } else {
+                    resize(poolExecutor, runFromPool.getMinThreads(), runFromPool.getMaxThreads(), threadPool.getTtl());
+                }
+            }
         }
     }
 
@@ -168,12 +284,62 @@ public final class JobPoller implements ServiceConfigListener {
     public void queueNow(Job job) throws InvalidJobException {
         job.queue();
         try {
-            executor.execute(job);
+            getExecutor(job).execute(job);
         } catch (Exception e) {
             job.deQueue();
         }
     }
 
+    /**
+     * Adds a job to the job queue at its start time. Jobs that are due, or all jobs when the
+     * lookahead window is disabled, are queued immediately.
+     * @throws InvalidJobException if the job is in an invalid state.
+     */
+    public void queueAt(Job job) throws InvalidJobException {
+        // the jobs of the wheel are counted by the executor that will run them
+        if (timingWheel == null || !timingWheel.add(job, getExecutor(job), job.getStartTime().getTime())) {
+            queueNow(job);
+        }
+    }
+
+    /**
+     * Notifies the job poller that a job was scheduled. Ends the idle back-off, so the job does not
+     * wait for the longest poll interval.
+     */
+    void jobScheduled() {
+        if (pollInterval > pollWaitTime()) {
+            synchronized (pollMonitor) {
+                pollInterval = pollWaitTime();
+                pollMonitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Returns the time to wait before the next poll: a short wait when the last poll filled a job
+     * queue, the configured poll-db-millis when it found jobs, and an exponential back-off up to
+     * <code>jobPoller.maxPollMillis</code> when it found none.
+     */
+    private long nextPollInterval(boolean backlog, boolean found) {
+        long baseInterval = pollWaitTime();
+        if (backlog) {
+            // there are more due jobs
+            return Math.min(minPollMillis, baseInterval);
+        }
+        if (found || maxPollMillis <= baseInterval) {
+            return baseInterval;
+        }
+        return Math.min(Math.max(pollInterval, baseInterval) * 2, maxPollMillis);
+    }
+
+    /**
+     * Removes a queued job that has not started yet.
+     * @return <code>true</code> if the job was removed from the queue.
+     */
+    public boolean remove(Job job) {
+        return getExecutor(job).remove(job);
+    }
+
     /**
      * Stops the <code>JobPoller</code>. This method is called when OFBiz shuts down.
      * The <code>JobPoller</code> cannot be restarted.
@@ -183,7 +349,22 @@ public final class JobPoller implements ServiceConfigListener {
         if (jobManagerPollerThread != null) {
             jobManagerPollerThread.interrupt();
         }
-        List<Runnable> queuedJobs = executor.shutdownNow();
+        if (timerThread != null) {
+            timerThread.interrupt();
+            // the jobs waiting for their run time are claimed, release them
+            for (Job job : timingWheel.drain()) {
+                try {
+                    job.queue();
+                    job.deQueue();
+                } catch (Exception e) {
+                    Debug.logWarning(e, module);
+                }
+            }
+        }
+        List<Runnable> queuedJobs = new ArrayList<Runnable>(executor.shutdownNow());
+        for (ThreadPoolExecutor poolExecutor : poolExecutors.values()) {
+            queuedJobs.addAll(poolExecutor.shutdownNow());
+        }
         for (Runnable task : queuedJobs) {
             try {
                 Job queuedJob = (Job) task;
@@ -192,13 +373,21 @@ public final class JobPoller implements ServiceConfigListener {
                 Debug.logWarning(e, module);
             }
         }
+        // write the states of the jobs completed so far
+        JobStateWriter.flush();
         Debug.logInfo("JobPoller shutdown completed.", module);
     }
 
     private static class JobInvokerThreadFactory implements ThreadFactory {
 
+        private final String namePrefix;
+
+        private JobInvokerThreadFactory(String namePrefix) {
+            this.namePrefix = namePrefix;
+        }
+
         public Thread newThread(Runnable runnable) {
-            return new Thread(runnable, "OFBiz-JobQueue-" + created.getAndIncrement());
+            return new Thread(runnable, namePrefix + created.getAndIncrement());
         }
     }
 
@@ -214,42 +403,33 @@ public final class JobPoller implements ServiceConfigListener {
                     Thread.sleep(1000);
                 }
                 while (!executor.isShutdown()) {
-                    int remainingCapacity = executor.getQueue().remainingCapacity();
-                    if (remainingCapacity > 0) {
-                        // Build "list of lists"
-                        Collection<JobManager> jmCollection = jobManagers.values();
-                        List<Iterator<Job>> pollResults = new ArrayList<Iterator<Job>>();
-                        for (JobManager jm : jmCollection) {
-                            if (!jm.isAvailable()) {
-                                if (Debug.infoOn()) Debug.logInfo("The job manager is locked.", module);
-                                continue;
-                            }
-                            jm.reloadCrashedJobs();
-                            pollResults.add(jm.poll(remainingCapacity).iterator());
-                        }
-                        // Create queue candidate list from "list of lists"
-                        List<Job> queueCandidates = new ArrayList<Job>();
-                        boolean addingJobs = true;
-                        while (addingJobs) {
-                            addingJobs = false;
-                            for (Iterator<Job> jobIterator : pollResults) {
-                                if (jobIterator.hasNext()) {
-                                    queueCandidates.add(jobIterator.next());
-                                    addingJobs = true;
-                                }
-                            }
-                        }
-                        // The candidate list might be larger than the queue remaining capacity,
-                        // but that is okay - the excess jobs will be dequeued and rescheduled.
-                        for (Job job : queueCandidates) {
-                            try {
-                                queueNow(job);
-                            } catch (InvalidJobException e) {
-                                Debug.logError(e, module);
-                            }
+                    List<JobManager> availableManagers = new ArrayList<JobManager>();
+                    for (JobManager jm : jobManagers.values()) {
+                        // the jobs already claimed keep their lease even when no job can be polled
+                        jm.renewLeases();
+                        if (!jm.isAvailable()) {
+                            if (Debug.infoOn()) Debug.logInfo("The job manager is locked.", module);
+                            continue;
                         }
+                        jm.reloadCrashedJobs();
+                        availableManagers.add(jm);
+                    }
+                    // poll each executor for its own remaining capacity
+                    int capacity = remainingCapacity(executor);
+                    int polled = pollJobs(availableManagers, null, capacity);
+                    boolean backlog = capacity > 0 && polled >= capacity;
+                    for (Map.Entry<String, ThreadPoolExecutor> entry : poolExecutors.entrySet()) {
+                        int poolCapacity = remainingCapacity(entry.getValue());
+                        int poolPolled = pollJobs(availableManagers, entry.getKey(), poolCapacity);
+                        backlog |= poolCapacity > 0 && poolPolled >= poolCapacity;
+                        polled += poolPolled;
+                    }
+                    synchronized (pollMonitor) {
+                        pollInterval = nextPollInterval(backlog, polled > 0);
+                        // woken up early by jobScheduled(), and in time to renew the job leases
+                        long leaseRenewMillis = JobManager.getLeaseRenewMillis();
+                        pollMonitor.wait(leaseRenewMillis > 0 ? Math.min(pollInterval, leaseRenewMillis) : pollInterval);
                     }
-                    Thread.sleep(pollWaitTime());
                 }
             } catch (InterruptedException e) {
                 // Happens when JobPoller shuts down - nothing to do.
@@ -257,5 +437,71 @@ public final class JobPoller implements ServiceConfigListener {
             }
             Debug.logInfo("JobPoller thread stopped.", module);
         }
+
+        private int remainingCapacity(ThreadPoolExecutor executor) {
+            int remainingCapacity = executor.getQueue().remainingCapacity();
+            if (timingWheel != null) {
+                // the jobs of this executor waiting in the timing wheel will need room in its queue
+                remainingCapacity -= timingWheel.size(executor);
+            }
+            return remainingCapacity;
+        }
+
+        // polls the jobs of one pool with its own threads, or of the shared pools when poolId is null, and queues them
+        private int pollJobs(List<JobManager> managers, String poolId, int remainingCapacity) {
+            if (remainingCapacity <= 0) {
+                return 0;
+            }
+            // Build "list of lists"
+            List<Iterator<Job>> pollResults = new ArrayList<Iterator<Job>>();
+            for (JobManager jm : managers) {
+                List<Job> jobs = poolId == null ? jm.poll(remainingCapacity) : jm.poll(poolId, remainingCapacity);
+                pollResults.add(jobs.iterator());
+            }
+            // Create queue candidate list from "list of lists"
+            List<Job> queueCandidates = new ArrayList<Job>();
+            boolean addingJobs = true;
+            while (addingJobs) {
+                addingJobs = false;
+                for (Iterator<Job> jobIterator : pollResults) {
+                    if (jobIterator.hasNext()) {
+                        queueCandidates.add(jobIterator.next());
+                        addingJobs = true;
+                    }
+                }
+            }
+            // The candidate list might be larger than the queue remaining capacity,
+            // but that is okay - the excess jobs will be dequeued and rescheduled.
+            for (Job job : queueCandidates) {
+                try {
+                    queueAt(job);
+                } catch (InvalidJobException e) {
+                    Debug.logError(e, module);
+                }
+            }
+            return queueCandidates.size();
+        }
+    }
+
+    // Queues the jobs of the timing wheel when their run time is reached.
+    private class JobTimer implements Runnable {
+
+        public void run() {
+            try {
+                while (!executor.isShutdown()) {
+                    Thread.sleep(timingWheel.getTickMillis());
+                    for (Job job : timingWheel.advance(System.currentTimeMillis())) {
+                        try {
+                            queueNow(job);
+                        } catch (InvalidJobException e) {
+                            Debug.logError(e, module);
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Happens when JobPoller shuts down - nothing to do.
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 }
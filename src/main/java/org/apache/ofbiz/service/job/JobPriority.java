@@ -0,0 +1,45 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.service.job;
+
+import org.apache.ofbiz.entity.GenericValue;
+
+/**
+ * Job priorities. Jobs with a higher priority are polled and run before the jobs with a lower
+ * priority, jobs with the same priority run in start time order.
+ */
+public final class JobPriority {
+
+    /** The priority of background jobs that can wait, like purging old jobs. */
+    public static final long LOW = 0;
+    /** The default job priority. */
+    public static final long NORMAL = 50;
+    /** The priority of urgent jobs. */
+    public static final long HIGH = 100;
+
+    private JobPriority() {}
+
+    /**
+     * Returns the priority of a JobSandbox value, <code>NORMAL</code> for jobs created without a priority.
+     */
+    public static long of(GenericValue jobValue) {
+        Long priority = jobValue.getLong("priority");
+        return priority != null ? priority.longValue() : NORMAL;
+    }
+}
@@ -0,0 +1,267 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.service.job;
+
+import java.sql.Timestamp;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.ofbiz.base.util.Debug;
+import org.apache.ofbiz.base.util.UtilMisc;
+import org.apache.ofbiz.base.util.UtilProperties;
+import org.apache.ofbiz.entity.Delegator;
+import org.apache.ofbiz.entity.GenericEntityException;
+import org.apache.ofbiz.entity.GenericValue;
+import org.apache.ofbiz.entity.condition.EntityCondition;
+import org.apache.ofbiz.entity.condition.EntityOperator;
+import org.apache.ofbiz.entity.transaction.GenericTransactionException;
+import org.apache.ofbiz.entity.transaction.TransactionUtil;
+import org.apache.ofbiz.entity.util.EntityQuery;
+
+/**
+ * Removes old jobs and the job data they leave behind with set-based deletes.
+ * <p>Jobs are removed in chunks of <code>jobPurge.chunkSize</code> rows (at most 1000, the IN list
+ * limit of some databases), one transaction per chunk. The RuntimeData, RecurrenceInfo and
+ * RecurrenceRule values of a chunk that no other job references are removed with it. The purge
+ * is throttled to <code>jobPurge.maxRowsPerSecond</code> removed rows per second when set.</p>
+ * <p>The methods must not be called inside a transaction: each chunk must commit on its own.</p>
+ */
+public final class JobPurger {
+
+    public static final String module = JobPurger.class.getName();
+
+    private static final int chunkSize = (int) Math.min(Math.max(UtilProperties.getPropertyAsLong("service", "jobPurge.chunkSize", 500), 1), 1000);
+    private static final long maxRowsPerSecond = UtilProperties.getPropertyAsLong("service", "jobPurge.maxRowsPerSecond", 0);
+
+    private JobPurger() {}
+
+    /**
+     * Returns the condition matching the jobs finished or cancelled before <code>purgeTime</code>.
+     */
+    public static EntityCondition makeDoneCondition(Timestamp purgeTime) {
+        EntityCondition finished = EntityCondition.makeCondition(UtilMisc.toList(
+                EntityCondition.makeCondition("finishDateTime", EntityOperator.NOT_EQUAL, null),
+                EntityCondition.makeCondition("finishDateTime", EntityOperator.LESS_THAN, purgeTime)));
+        EntityCondition cancelled = EntityCondition.makeCondition(UtilMisc.toList(
+                EntityCondition.makeCondition("cancelDateTime", EntityOperator.NOT_EQUAL, null),
+                EntityCondition.makeCondition("cancelDateTime", EntityOperator.LESS_THAN, purgeTime)));
+        return EntityCondition.makeCondition(UtilMisc.toList(cancelled, finished), EntityOperator.OR);
+    }
+
+    /**
+     * Removes the jobs matching <code>condition</code>, with the job data no other job references.
+     * @return the number of jobs removed
+     */
+    public static int purgeJobs(Delegator delegator, EntityCondition condition) {
+        Throttle throttle = new Throttle();
+        int purged = 0;
+        while (true) {
+            List<GenericValue> jobs;
+            boolean beganTransaction = false;
+            try {
+                beganTransaction = TransactionUtil.begin();
+                jobs = EntityQuery.use(delegator).select("jobId", "recurrenceInfoId", "runtimeDataId").from("JobSandbox")
+                        .where(condition).maxRows(chunkSize).queryList();
+                if (!jobs.isEmpty()) {
+                    delegator.removeByCondition("JobSandbox", EntityCondition.makeCondition("jobId", EntityOperator.IN, getValues(jobs, "jobId")));
+                }
+                TransactionUtil.commit(beganTransaction);
+            } catch (GenericEntityException e) {
+                String errMsg = "Exception thrown while purging jobs: ";
+                try {
+                    TransactionUtil.rollback(beganTransaction, errMsg, e);
+                } catch (GenericTransactionException e2) {
+                    Debug.logWarning(e2, "Exception thrown while rolling back transaction: ", module);
+                }
+                Debug.logWarning(e, errMsg, module);
+                break;
+            }
+            if (jobs.isEmpty()) {
+                break;
+            }
+            purged += jobs.size();
+            int removed = jobs.size();
+            removed += removeUnreferenced(delegator, "RuntimeData", "runtimeDataId", getValues(jobs, "runtimeDataId"));
+            removed += removeRecurrences(delegator, getValues(jobs, "recurrenceInfoId"));
+            if (jobs.size() < chunkSize) {
+                break;
+            }
+            if (!throttle.rowsRemoved(removed)) {
+                break;
+            }
+        }
+        if (purged > 0 && Debug.infoOn()) Debug.logInfo("Purged " + purged + " jobs", module);
+        return purged;
+    }
+
+    /**
+     * Removes the RuntimeData values that no job references, scanning RuntimeData by id range.
+     * @return the number of values removed
+     */
+    public static int purgeOrphanedRuntimeData(Delegator delegator) {
+        Throttle throttle = new Throttle();
+        int purged = 0;
+        String lastId = null;
+        while (true) {
+            List<GenericValue> chunk;
+            try {
+                EntityQuery query = EntityQuery.use(delegator).select("runtimeDataId").from("RuntimeData").orderBy("runtimeDataId").maxRows(chunkSize);
+                if (lastId != null) {
+                    query.where(EntityCondition.makeCondition("runtimeDataId", EntityOperator.GREATER_THAN, lastId));
+                }
+                chunk = query.queryList();
+            } catch (GenericEntityException e) {
+                Debug.logWarning(e, "Exception thrown while reading RuntimeData: ", module);
+                break;
+            }
+            if (chunk.isEmpty()) {
+                break;
+            }
+            lastId = chunk.get(chunk.size() - 1).getString("runtimeDataId");
+            int removed = removeUnreferenced(delegator, "RuntimeData", "runtimeDataId", getValues(chunk, "runtimeDataId"));
+            purged += removed;
+            if (chunk.size() < chunkSize) {
+                break;
+            }
+            if (!throttle.rowsRemoved(removed)) {
+                break;
+            }
+        }
+        if (purged > 0 && Debug.infoOn()) Debug.logInfo("Purged " + purged + " orphaned RuntimeData values", module);
+        return purged;
+    }
+
+    // removes the RecurrenceInfo values no job references, and their RecurrenceRule values no RecurrenceInfo references
+    private static int removeRecurrences(Delegator delegator, Set<String> infoIds) {
+        if (infoIds.isEmpty()) {
+            return 0;
+        }
+        Set<String> ruleIds = new HashSet<String>();
+        try {
+            List<GenericValue> infos = EntityQuery.use(delegator).select("recurrenceRuleId", "exceptionRuleId").from("RecurrenceInfo")
+                    .where(EntityCondition.makeCondition("recurrenceInfoId", EntityOperator.IN, infoIds)).queryList();
+            ruleIds.addAll(getValues(infos, "recurrenceRuleId"));
+            ruleIds.addAll(getValues(infos, "exceptionRuleId"));
+        } catch (GenericEntityException e) {
+            Debug.logWarning(e, "Exception thrown while reading RecurrenceInfo: ", module);
+            return 0;
+        }
+        int removed = removeUnreferenced(delegator, "RecurrenceInfo", "recurrenceInfoId", infoIds);
+        if (!ruleIds.isEmpty()) {
+            try {
+                List<GenericValue> used = EntityQuery.use(delegator).select("recurrenceRuleId", "exceptionRuleId").from("RecurrenceInfo")
+                        .where(EntityCondition.makeCondition(UtilMisc.toList(
+                                EntityCondition.makeCondition("recurrenceRuleId", EntityOperator.IN, ruleIds),
+                                EntityCondition.makeCondition("exceptionRuleId", EntityOperator.IN, ruleIds)), EntityOperator.OR))
+                        .queryList();
+                ruleIds.removeAll(getValues(used, "recurrenceRuleId"));
+                ruleIds.removeAll(getValues(used, "exceptionRuleId"));
+            } catch (GenericEntityException e) {
+                Debug.logWarning(e, "Exception thrown while reading RecurrenceInfo: ", module);
+                return removed;
+            }
+            removed += remove(delegator, "RecurrenceRule", "recurrenceRuleId", ruleIds);
+        }
+        return removed;
+    }
+
+    // removes the values of entityName whose primary key, fieldName, is not referenced by a job
+    private static int removeUnreferenced(Delegator delegator, String entityName, String fieldName, Set<String> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        Set<String> orphans = new HashSet<String>(ids);
+        try {
+            List<GenericValue> referenced = EntityQuery.use(delegator).select(fieldName).from("JobSandbox")
+                    .where(EntityCondition.makeCondition(fieldName, EntityOperator.IN, ids)).distinct().queryList();
+            orphans.removeAll(getValues(referenced, fieldName));
+        } catch (GenericEntityException e) {
+            Debug.logWarning(e, "Exception thrown while reading JobSandbox: ", module);
+            return 0;
+        }
+        return remove(delegator, entityName, fieldName, orphans);
+    }
+
+    private static int remove(Delegator delegator, String entityName, String pkFieldName, Set<String> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        boolean beganTransaction = false;
+        try {
+            beganTransaction = TransactionUtil.begin();
+            int removed = delegator.removeByCondition(entityName, EntityCondition.makeCondition(pkFieldName, EntityOperator.IN, ids));
+            TransactionUtil.commit(beganTransaction);
+            return removed;
+        } catch (GenericEntityException e) {
+            String errMsg = "Unable to remove " + ids.size() + " " + entityName + " values, removing them one by one: ";
+            try {
+                TransactionUtil.rollback(beganTransaction, errMsg, e);
+            } catch (GenericTransactionException e2) {
+                Debug.logWarning(e2, "Exception thrown while rolling back transaction: ", module);
+            }
+            Debug.logInfo(errMsg + e.getMessage(), module);
+        }
+        // values still referenced by other entities can't be removed, skip them
+        int removed = 0;
+        for (String id : ids) {
+            try {
+                removed += delegator.removeByAnd(entityName, UtilMisc.toMap(pkFieldName, id));
+            } catch (GenericEntityException e) {
+                if (Debug.verboseOn()) Debug.logVerbose("Cannot remove " + entityName + " [" + id + "]: " + e.getMessage(), module);
+            }
+        }
+        return removed;
+    }
+
+    private static Set<String> getValues(List<GenericValue> values, String fieldName) {
+        Set<String> result = new HashSet<String>();
+        for (GenericValue value : values) {
+            String fieldValue = value.getString(fieldName);
+            if (fieldValue != null) {
+                result.add(fieldValue);
+            }
+        }
+        return result;
+    }
+
+    // sleeps between chunks to keep the removal rate under jobPurge.maxRowsPerSecond
+    private static final class Throttle {
+        private final long startMillis = System.currentTimeMillis();
+        private long rows = 0;
+
+        // returns false when the purge must stop
+        private boolean rowsRemoved(int count) {
+            if (maxRowsPerSecond <= 0) {
+                return true;
+            }
+            rows += count;
+            long wait = rows * 1000 / maxRowsPerSecond - (System.currentTimeMillis() - startMillis);
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
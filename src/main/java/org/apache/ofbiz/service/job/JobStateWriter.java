@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.service.job;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.ofbiz.base.util.Debug;
+import org.apache.ofbiz.base.util.UtilProperties;
+import org.apache.ofbiz.entity.Delegator;
+import org.apache.ofbiz.entity.GenericEntityException;
+import org.apache.ofbiz.entity.condition.EntityCondition;
+import org.apache.ofbiz.entity.transaction.GenericTransactionException;
+import org.apache.ofbiz.entity.transaction.TransactionUtil;
+
+/**
+ * Writes the final state (finished or failed) of persisted jobs.
+ * <p>Only the fields of the final state are written, with a conditional update of the job row
+ * still owned by this instance, so fields changed meanwhile by others (like <code>cancelDateTime</code>)
+ * are kept.</p>
+ * <p>When <code>jobStateWriter.flushMillis</code> is set in <code>service.properties</code>, the
+ * JobSandbox updates of many jobs are collected and written together in one transaction, at most
+ * <code>flushMillis</code> after a job completed or as soon as <code>jobStateWriter.batchSize</code>
+ * updates are waiting. Otherwise each update is written when the job completes.</p>
+ * <p>A job whose final state is not written yet still has the running status in JobSandbox: if the
+ * server dies before the flush, the job is handled as a crashed job and run again.</p>
+ */
+final class JobStateWriter {
+
+    public static final String module = JobStateWriter.class.getName();
+
+    private static final long flushMillis = UtilProperties.getPropertyAsLong("service", "jobStateWriter.flushMillis", 0);
+    private static final int batchSize = (int) UtilProperties.getPropertyAsLong("service", "jobStateWriter.batchSize", 200);
+    private static final LinkedBlockingQueue<JobState> pending = new LinkedBlockingQueue<JobState>();
+    private static final Object flushMonitor = new Object();
+
+    static {
+        if (flushMillis > 0) {
+            Thread writerThread = new Thread(new Writer(), "OFBiz-JobStateWriter");
+            writerThread.setDaemon(true);
+            writerThread.start();
+        }
+    }
+
+    private JobStateWriter() {}
+
+    /**
+     * Stores the final state fields of a completed job, now or with the next batch.
+     */
+    static void store(Delegator delegator, String jobId, Map<String, Object> fields) throws GenericEntityException {
+        JobState state = new JobState(delegator, jobId, fields);
+        if (flushMillis <= 0) {
+            state.store();
+            return;
+        }
+        pending.add(state);
+        if (pending.size() >= batchSize) {
+            synchronized (flushMonitor) {
+                flushMonitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Writes all the waiting job states.
+     */
+    static synchronized void flush() {
+        List<JobState> batch = new ArrayList<JobState>(pending.size());
+        pending.drainTo(batch);
+        if (batch.isEmpty()) {
+            return;
+        }
+        boolean beganTransaction = false;
+        try {
+            beganTransaction = TransactionUtil.begin();
+            for (JobState state : batch) {
+                state.store();
+            }
+            TransactionUtil.commit(beganTransaction);
+            if (Debug.verboseOn()) Debug.logVerbose("Stored the state of " + batch.size() + " jobs", module);
+            return;
+        } catch (GenericEntityException e) {
+            String errMsg = "Unable to store the state of " + batch.size() + " jobs, storing them one by one";
+            Debug.logWarning(e, errMsg, module);
+            try {
+                TransactionUtil.rollback(beganTransaction, errMsg, e);
+            } catch (GenericTransactionException e2) {
+                Debug.logWarning(e2, "Exception thrown while rolling back transaction: ", module);
+            }
+        }
+        // one failing update must not lose the others
+        for (JobState state : batch) {
+            try {
+                state.store();
+            } catch (GenericEntityException e) {
+                Debug.logError(e, "Cannot update the job [" + state.jobId + "] sandbox", module);
+            }
+        }
+    }
+
+    // the final state fields of one job
+    private static final class JobState {
+        private final Delegator delegator;
+        private final String jobId;
+        private final Map<String, Object> fields;
+
+        private JobState(Delegator delegator, String jobId, Map<String, Object> fields) {
+            this.delegator = delegator;
+            this.jobId = jobId;
+            this.fields = fields;
+        }
+
+        private void store() throws GenericEntityException {
+            int rowsUpdated = delegator.storeByCondition("JobSandbox", fields, EntityCondition.makeCondition(
+                    EntityCondition.makeCondition("jobId", jobId), EntityCondition.makeCondition("runByInstanceId", JobManager.instanceId)));
+            if (rowsUpdated == 0) {
+                Debug.logWarning("Job [" + jobId + "] is no longer owned by this instance, its final state was not stored", module);
+            }
+        }
+    }
+
+    private static class Writer implements Runnable {
+
+        public void run() {
+            try {
+                while (true) {
+                    synchronized (flushMonitor) {
+                        if (pending.size() < batchSize) {
+                            flushMonitor.wait(flushMillis);
+                        }
+                    }
+                    try {
+                        flush();
+                    } catch (Exception e) {
+                        Debug.logError(e, "Exception thrown while storing job states", module);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.service.job;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A hashed timing wheel holding jobs until their run time.
+ * <p>The wheel has a fixed number of slots, each covering one tick. A job is added to the slot of
+ * its run time tick, with the number of full wheel revolutions to wait; advancing the wheel visits
+ * each elapsed slot once and returns the jobs that are due. Adding and removing a job are O(1),
+ * and the precision is one tick. Jobs are added with a group, the wheel keeps the number of jobs of each group.</p>
+ * <p>This class is thread-safe.</p>
+ */
+final class JobTimingWheel {
+
+    private final long tickMillis;
+    private final List<Entry>[] slots;
+    private final int mask;
+    private final long epochMillis;
+    // the next tick to process
+    private long currentTick = 0;
+    private int size = 0;
+    private final Map<Object, Integer> groupSizes = new HashMap<Object, Integer>();
+
+    /**
+     * @param tickMillis the duration of one tick
+     * @param slotCount the number of slots, rounded up to a power of two
+     */
+    JobTimingWheel(long tickMillis, int slotCount) {
+        this(tickMillis, slotCount, System.currentTimeMillis());
+    }
+
+    /**
+     * @param tickMillis the duration of one tick
+     * @param slotCount the number of slots, rounded up to a power of two
+     * @param epochMillis the time of the first tick
+     */
+    @SuppressWarnings("unchecked")
+    JobTimingWheel(long tickMillis, int slotCount, long epochMillis) {
+        int count = Integer.highestOneBit(Math.max(slotCount, 2) - 1) << 1;
+        this.tickMillis = tickMillis;
+        this.slots = new List[count];
+        for (int i = 0; i < count; i++) {
+            slots[i] = new LinkedList<Entry>();
+        }
+        this.mask = count - 1;
+        this.epochMillis = epochMillis;
+    }
+
+    long getTickMillis() {
+        return tickMillis;
+    }
+
+    /**
+     * Adds a job of a group to run at <code>runTime</code>. Returns <code>false</code> if the job is already due,
+     * in which case it is not added.
+     */
+    synchronized boolean add(Job job, Object group, long runTime) {
+        long tick = (runTime - epochMillis + tickMillis - 1) / tickMillis;
+        if (tick < currentTick) {
+            return false;
+        }
+        long rounds = (tick - currentTick) / slots.length;
+        slots[(int) (tick & mask)].add(new Entry(job, group, rounds));
+        size++;
+        groupSizes.put(group, groupSize(group) + 1);
+        return true;
+    }
+
+    /**
+     * Advances the wheel up to <code>now</code> and returns the jobs that are due.
+     */
+    synchronized List<Job> advance(long now) {
+        long targetTick = (now - epochMillis) / tickMillis;
+        List<Job> due = null;
+        // a full revolution visits every slot, no need to go around more than once
+        long lastTick = Math.min(targetTick, currentTick + slots.length - 1);
+        for (; currentTick <= lastTick; currentTick++) {
+            List<Entry> slot = slots[(int) (currentTick & mask)];
+            Iterator<Entry> it = slot.iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next();
+                if (entry.rounds <= 0) {
+                    it.remove();
+                    removed(entry);
+                    if (due == null) {
+                        due = new ArrayList<Job>();
+                    }
+                    due.add(entry.job);
+                } else {
+                    entry.rounds--;
+                }
+            }
+        }
+        if (currentTick <= targetTick) {
+            // more than one revolution elapsed (long pause): count the remaining visits of each slot at once
+            for (int i = 0; i < slots.length; i++) {
+                long firstVisit = currentTick + ((i - (currentTick & mask)) & mask);
+                long visits = firstVisit > targetTick ? 0 : (targetTick - firstVisit) / slots.length + 1;
+                Iterator<Entry> it = slots[i].iterator();
+                while (it.hasNext()) {
+                    Entry entry = it.next();
+                    entry.rounds -= visits;
+                    if (entry.rounds < 0) {
+                        it.remove();
+                        removed(entry);
+                        if (due == null) {
+                            due = new ArrayList<Job>();
+                        }
+                        due.add(entry.job);
+                    }
+                }
+            }
+            currentTick = targetTick + 1;
+        }
+        return due == null ? new ArrayList<Job>(0) : due;
+    }
+
+    /**
+     * Removes and returns all the jobs.
+     */
+    synchronized List<Job> drain() {
+        List<Job> jobs = new ArrayList<Job>(size);
+        for (List<Entry> slot : slots) {
+            for (Entry entry : slot) {
+                jobs.add(entry.job);
+            }
+            slot.clear();
+        }
+        size = 0;
+        groupSizes.clear();
+        return jobs;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of jobs of a group.
+     */
+    synchronized int size(Object group) {
+        return groupSize(group);
+    }
+
+    private int groupSize(Object group) {
+        Integer groupSize = groupSizes.get(group);
+        return groupSize != null ? groupSize : 0;
+    }
+
+    private void removed(Entry entry) {
+        size--;
+        int groupSize = groupSize(entry.group) - 1;
+        if (groupSize > 0) {
+            groupSizes.put(entry.group, groupSize);
+        } else {
+            groupSizes.remove(entry.group);
+        }
+    }
+
+    private static final class Entry {
+        private final Job job;
+        private final Object group;
+        private long rounds;
+
+        private Entry(Job job, Object group, long rounds) {
+            this.job = job;
+            this.group = group;
+            this.rounds = rounds;
+        }
+    }
+}
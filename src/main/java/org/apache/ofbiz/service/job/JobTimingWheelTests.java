@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.service.job;
+
+import java.util.List;
+
+import org.apache.ofbiz.service.testtools.OFBizTestCase;
+
+/**
+ * Tests of the job poller timing wheel. The class is package-private, so the tests are in its package.
+ * <p>The wheels have 8 slots of 10 ms starting at time 0, one revolution is 80 ms.</p>
+ */
+public class JobTimingWheelTests extends OFBizTestCase {
+
+    public JobTimingWheelTests(String name) {
+        super(name);
+    }
+
+    private Job makeJob(String jobId) {
+        return new GenericServiceJob(dispatcher.getDispatchContext(), jobId, "timingWheelTest", "testScv", null, null);
+    }
+
+    public void testDueJobs() throws Exception {
+        JobTimingWheel wheel = new JobTimingWheel(10, 8, 0);
+        Job job = makeJob("wheel1");
+        assertTrue("job added", wheel.add(job, "pool", 35));
+        assertTrue("not due before its tick", wheel.advance(39).isEmpty());
+        List<Job> due = wheel.advance(40);
+        assertEquals("due at its tick", 1, due.size());
+        assertSame("the added job", job, due.get(0));
+        assertEquals("wheel empty", 0, wheel.size());
+        // tick 4 was processed, a job of that tick is already due
+        assertFalse("due job not added", wheel.add(makeJob("wheel2"), "pool", 40));
+    }
+
+    public void testMultipleRevolutions() throws Exception {
+        JobTimingWheel wheel = new JobTimingWheel(10, 8, 0);
+        Job later = makeJob("wheel3");
+        Job sooner = makeJob("wheel4");
+        // same slot, three revolutions apart
+        assertTrue("later job added", wheel.add(later, "pool", 250));
+        assertTrue("sooner job added", wheel.add(sooner, "other", 10));
+        assertEquals("group size", 1, wheel.size("pool"));
+        assertEquals("group size", 1, wheel.size("other"));
+        List<Job> due = wheel.advance(100);
+        assertEquals("only the job of the first revolution", 1, due.size());
+        assertSame("sooner job", sooner, due.get(0));
+        assertEquals("group emptied", 0, wheel.size("other"));
+        assertTrue("slot visited again but job not due", wheel.advance(240).isEmpty());
+        due = wheel.advance(250);
+        assertEquals("job of the fourth revolution", 1, due.size());
+        assertSame("later job", later, due.get(0));
+        assertEquals("wheel empty", 0, wheel.size());
+        assertEquals("group emptied", 0, wheel.size("pool"));
+    }
+
+    public void testLongPause() throws Exception {
+        JobTimingWheel wheel = new JobTimingWheel(10, 8, 0);
+        Job first = makeJob("wheel5");
+        Job second = makeJob("wheel6");
+        Job third = makeJob("wheel7");
+        wheel.add(first, "pool", 30);
+        wheel.add(second, "pool", 1000);
+        wheel.add(third, "pool", 5000);
+        // more than one revolution elapses at once: each slot is visited once and the remaining visits are counted
+        List<Job> due = wheel.advance(1000);
+        assertEquals("jobs due after the pause", 2, due.size());
+        assertTrue("first job due", due.contains(first));
+        assertTrue("second job due", due.contains(second));
+        assertEquals("one job left", 1, wheel.size());
+        assertTrue("third job not due after a second pause", wheel.advance(4990).isEmpty());
+        due = wheel.advance(5000);
+        assertEquals("third job due", 1, due.size());
+        assertSame("third job", third, due.get(0));
+        assertEquals("wheel empty", 0, wheel.size("pool"));
+    }
+}
@@ -31,10 +31,13 @@ import org.apache.ofbiz.base.config.GenericConfigException;
 import org.apache.ofbiz.base.util.Debug;
 import org.apache.ofbiz.base.util.UtilDateTime;
 import org.apache.ofbiz.base.util.UtilGenerics;
+import org.apache.ofbiz.base.util.UtilMisc;
 import org.apache.ofbiz.base.util.UtilValidate;
 import org.apache.ofbiz.entity.Delegator;
 import org.apache.ofbiz.entity.GenericEntityException;
 import org.apache.ofbiz.entity.GenericValue;
+import org.apache.ofbiz.entity.condition.EntityCondition;
+import org.apache.ofbiz.entity.condition.EntityOperator;
 import org.apache.ofbiz.entity.serialize.SerializeException;
 import org.apache.ofbiz.entity.serialize.XmlSerializer;
 import org.apache.ofbiz.entity.util.EntityQuery;
@@ -67,6 +70,9 @@ public class PersistedServiceJob extends GenericServiceJob {
     private final long currentRetryCount;
     private final GenericValue jobValue;
     private final long startTime;
+    private boolean claimed;
+    // set when the run incremented the recurrence count, written with the final state
+    private boolean recurrenceCounted = false;
 
     /**
      * Creates a new PersistedServiceJob
@@ -75,7 +81,20 @@ public class PersistedServiceJob extends GenericServiceJob {
      * @param req
      */
     public PersistedServiceJob(DispatchContext dctx, GenericValue jobValue, GenericRequester req) {
-        super(dctx, jobValue.getString("jobId"), jobValue.getString("jobName"), null, null, req);
+        this(dctx, jobValue, req, false);
+    }
+
+    /**
+     * Creates a new PersistedServiceJob
+     * @param dctx
+     * @param jobValue
+     * @param req
+     * @param claimed <code>true</code> if <code>jobValue</code> was read after the job was claimed and
+     * set to the queued status by this instance, so queuing it doesn't need to update the JobSandbox
+     */
+    PersistedServiceJob(DispatchContext dctx, GenericValue jobValue, GenericRequester req, boolean claimed) {
+        super(dctx, jobValue.getString("jobId"), jobValue.getString("jobName"), null, null, req, JobPriority.of(jobValue));
+        this.claimed = claimed;
         this.delegator = dctx.getDelegator();
         this.jobValue = jobValue;
         Timestamp storedDate = jobValue.getTimestamp("runTime");
@@ -90,57 +109,66 @@ public class PersistedServiceJob extends GenericServiceJob {
         }
     }
 
+    /**
+     * Returns the job pool of this job, or <code>null</code> if the job has none.
+     */
+    String getPoolId() {
+        return jobValue.getString("poolId");
+    }
+
     @Override
     public void queue() throws InvalidJobException {
         super.queue();
+        if (claimed) {
+            // the claim already checked the job and set the queued status
+            claimed = false;
+            if (Debug.verboseOn()) {
+                Debug.logVerbose("Placing job [" + getJobId() + "] in queue", module);
+            }
+            return;
+        }
+        // check and update the job with one conditional update
+        int rowsUpdated;
         try {
-            jobValue.refresh();
+            rowsUpdated = delegator.storeByCondition("JobSandbox", UtilMisc.toMap("statusId", "SERVICE_QUEUED"), EntityCondition.makeCondition(UtilMisc.toList(
+                    EntityCondition.makeCondition("jobId", getJobId()),
+                    EntityCondition.makeCondition("runByInstanceId", JobManager.instanceId),
+                    EntityCondition.makeCondition("cancelDateTime", EntityOperator.EQUALS, null),
+                    EntityCondition.makeCondition("startDateTime", EntityOperator.EQUALS, null))));
         } catch (GenericEntityException e) {
-            throw new InvalidJobException("Unable to refresh JobSandbox value", e);
-        }
-        if (!JobManager.instanceId.equals(jobValue.getString("runByInstanceId"))) {
-            throw new InvalidJobException("Job has been accepted by a different instance");
+            throw new InvalidJobException("Unable to set the statusId on the current job [" + getJobId() + "]; not running!", e);
         }
-        Timestamp cancelTime = jobValue.getTimestamp("cancelDateTime");
-        Timestamp startTime = jobValue.getTimestamp("startDateTime");
-        if (cancelTime != null || startTime != null) {
+        if (rowsUpdated == 0) {
             // job not available
             throw new InvalidJobException("Job [" + getJobId() + "] is not available");
-        } else {
-            jobValue.set("statusId", "SERVICE_QUEUED");
-            try {
-                jobValue.store();
-            } catch (GenericEntityException e) {
-                throw new InvalidJobException("Unable to set the startDateTime and statusId on the current job [" + getJobId() + "]; not running!", e);
-            }
-            if (Debug.verboseOn()) {
-                Debug.logVerbose("Placing job [" + getJobId() + "] in queue", module);
-            }
+        }
+        jobValue.set("statusId", "SERVICE_QUEUED");
+        if (Debug.verboseOn()) {
+            Debug.logVerbose("Placing job [" + getJobId() + "] in queue", module);
         }
     }
 
     @Override
     protected void init() throws InvalidJobException {
         super.init();
+        // the job must still be ours, not cancelled and not started by a duplicate copy: check and update it with one conditional update
+        Timestamp now = UtilDateTime.nowTimestamp();
+        int rowsUpdated;
         try {
-            jobValue.refresh();
+            rowsUpdated = delegator.storeByCondition("JobSandbox", UtilMisc.toMap("startDateTime", now, "statusId", "SERVICE_RUNNING"),
+                    EntityCondition.makeCondition(UtilMisc.toList(
+                            EntityCondition.makeCondition("jobId", getJobId()),
+                            EntityCondition.makeCondition("runByInstanceId", JobManager.instanceId),
+                            EntityCondition.makeCondition("cancelDateTime", EntityOperator.EQUALS, null),
+                            EntityCondition.makeCondition("startDateTime", EntityOperator.EQUALS, null))));
         } catch (GenericEntityException e) {
-            throw new InvalidJobException("Unable to refresh JobSandbox value", e);
-        }
-        if (!JobManager.instanceId.equals(jobValue.getString("runByInstanceId"))) {
-            throw new InvalidJobException("Job has been accepted by a different instance");
+            throw new InvalidJobException("Unable to set the startDateTime and statusId on the current job [" + getJobId() + "]; not running!", e);
         }
-        if (jobValue.getTimestamp("cancelDateTime") != null) {
-            // Job cancelled
-            throw new InvalidJobException("Job [" + getJobId() + "] was cancelled");
+        if (rowsUpdated == 0) {
+            throw new InvalidJobException("Job [" + getJobId() + "] was cancelled, accepted by a different instance or already started");
         }
-        jobValue.set("startDateTime", UtilDateTime.nowTimestamp());
+        jobValue.set("startDateTime", now);
         jobValue.set("statusId", "SERVICE_RUNNING");
-        try {
-            jobValue.store();
-        } catch (GenericEntityException e) {
-            throw new InvalidJobException("Unable to set the startDateTime and statusId on the current job [" + getJobId() + "]; not running!", e);
-        }
         if (Debug.verboseOn()) {
             Debug.logVerbose("Job [" + getJobId() + "] running", module);
         }
@@ -170,6 +198,7 @@ public class PersistedServiceJob extends GenericServiceJob {
         if (maxRecurrenceCount != -1) {
             currentRecurrenceCount++;
             jobValue.set("currentRecurrenceCount", currentRecurrenceCount);
+            recurrenceCounted = true;
         }
         try {
             if (expr != null && (maxRecurrenceCount == -1 || currentRecurrenceCount <= maxRecurrenceCount)) {
@@ -201,6 +230,8 @@ public class PersistedServiceJob extends GenericServiceJob {
             newJob.set("statusId", "SERVICE_PENDING");
             newJob.set("startDateTime", null);
             newJob.set("runByInstanceId", null);
+            newJob.set("leaseExpireDateTime", null);
+            newJob.set("claimToken", null);
             newJob.set("runTime", new java.sql.Timestamp(next));
             if (isRetryOnFailure) {
                 newJob.set("currentRetryCount", new Long(currentRetryCount + 1));
@@ -229,7 +260,7 @@ public class PersistedServiceJob extends GenericServiceJob {
             jobValue.set("jobResult", jobResult);
         }
         try {
-            jobValue.store();
+            storeFinalState();
         } catch (GenericEntityException e) {
             Debug.logError(e, "Cannot update the job [" + getJobId() + "] sandbox", module);
         }
@@ -264,12 +295,25 @@ public class PersistedServiceJob extends GenericServiceJob {
         jobValue.set("finishDateTime", UtilDateTime.nowTimestamp());
         jobValue.set("jobResult", StringUtils.substring(t.getMessage(), 0, 255));
         try {
-            jobValue.store();
+            storeFinalState();
         } catch (GenericEntityException e) {
             Debug.logError(e, "Cannot update the JobSandbox entity", module);
         }
     }
 
+    // writes the fields changed by the run only, the other fields may have been changed since the job was polled
+    private void storeFinalState() throws GenericEntityException {
+        Map<String, Object> fields = UtilMisc.<String, Object>toMap("statusId", jobValue.get("statusId"),
+                "finishDateTime", jobValue.get("finishDateTime"));
+        if (jobValue.get("jobResult") != null) {
+            fields.put("jobResult", jobValue.get("jobResult"));
+        }
+        if (recurrenceCounted) {
+            fields.put("currentRecurrenceCount", jobValue.get("currentRecurrenceCount"));
+        }
+        JobStateWriter.store(delegator, getJobId(), fields);
+    }
+
     @Override
     protected String getServiceName() {
         if (jobValue == null || jobValue.get("serviceName") == null) {
@@ -360,6 +404,8 @@ public class PersistedServiceJob extends GenericServiceJob {
             jobValue.refresh();
             jobValue.set("startDateTime", null);
             jobValue.set("runByInstanceId", null);
+            jobValue.set("leaseExpireDateTime", null);
+            jobValue.set("claimToken", null);
             jobValue.set("statusId", "SERVICE_PENDING");
             jobValue.store();
         } catch (GenericEntityException e) {
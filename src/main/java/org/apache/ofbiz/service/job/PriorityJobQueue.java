@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.service.job;
+
+import java.util.Comparator;
+import java.util.concurrent.PriorityBlockingQueue;
+
+/**
+ * The job queue of a job poller executor: a bounded queue that hands out the jobs with the highest
+ * priority first, and jobs of the same priority in start time order.
+ * <p>The capacity bound is what lets the executor add threads up to its maximum and reject jobs
+ * when it is saturated, as with a <code>LinkedBlockingQueue</code>.</p>
+ */
+@SuppressWarnings("serial")
+final class PriorityJobQueue extends PriorityBlockingQueue<Runnable> {
+
+    private static final Comparator<Runnable> JOB_ORDER = new Comparator<Runnable>() {
+        public int compare(Runnable r1, Runnable r2) {
+            Job job1 = (Job) r1;
+            Job job2 = (Job) r2;
+            int result = Long.compare(job2.getPriority(), job1.getPriority());
+            if (result == 0) {
+                result = job1.getStartTime().compareTo(job2.getStartTime());
+            }
+            return result;
+        }
+    };
+
+    private final int capacity;
+
+    PriorityJobQueue(int capacity) {
+        super(Math.min(capacity, 11), JOB_ORDER);
+        this.capacity = capacity;
+    }
+
+    @Override
+    public synchronized boolean offer(Runnable job) {
+        if (size() >= capacity) {
+            return false;
+        }
+        return super.offer(job);
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Math.max(capacity - size(), 0);
+    }
+}
@@ -19,25 +19,35 @@
 package org.apache.ofbiz.service.job;
 
 import java.io.Serializable;
-import java.util.List;
 
-import org.apache.ofbiz.base.util.Debug;
-import org.apache.ofbiz.entity.GenericEntityException;
+import org.apache.ofbiz.entity.Delegator;
 import org.apache.ofbiz.entity.GenericValue;
+import org.apache.ofbiz.entity.condition.EntityCondition;
 
 /**
- * Purge job - removes a JobSandbox entity value and its related values.
+ * Purge job - removes JobSandbox entity values and their related values, see {@link JobPurger}.
  */
 @SuppressWarnings("serial")
 public class PurgeJob extends AbstractJob implements Serializable {
 
     public static final String module = PurgeJob.class.getName();
 
-    private final GenericValue jobValue;
+    private final transient Delegator delegator;
+    private final transient EntityCondition condition;
 
     public PurgeJob(GenericValue jobValue) {
-        super(jobValue.getString("jobId"), "Purge " + jobValue.getString("jobName"));
-        this.jobValue = jobValue;
+        super(jobValue.getString("jobId"), "Purge " + jobValue.getString("jobName"), JobPriority.LOW);
+        this.delegator = jobValue.getDelegator();
+        this.condition = EntityCondition.makeCondition("jobId", jobValue.getString("jobId"));
+    }
+
+    /**
+     * Creates a job that removes all the jobs matching <code>condition</code>.
+     */
+    public PurgeJob(Delegator delegator, EntityCondition condition) {
+        super("purge." + System.currentTimeMillis(), "Purge jobs", JobPriority.LOW);
+        this.delegator = delegator;
+        this.condition = condition;
     }
 
     @Override
@@ -47,27 +57,9 @@ public class PurgeJob extends AbstractJob implements Serializable {
         }
         currentState = State.RUNNING;
         try {
-            // TODO: This might need to be in a transaction - to avoid the possibility of
-            // leaving orphaned related values.
-            jobValue.remove();
-            GenericValue relatedValue = jobValue.getRelatedOne("RecurrenceInfo", false);
-            if (relatedValue != null) {
-                List<GenericValue> valueList = relatedValue.getRelated("JobSandbox", null, null, false);
-                if (valueList.isEmpty()) {
-                    relatedValue.remove();
-                    relatedValue.removeRelated("RecurrenceRule");
-                }
-            }
-            relatedValue = jobValue.getRelatedOne("RuntimeData", false);
-            if (relatedValue != null) {
-                List<GenericValue> valueList = relatedValue.getRelated("JobSandbox", null, null, false);
-                if (valueList.isEmpty()) {
-                    relatedValue.remove();
-                }
-            }
-            Debug.logInfo("Purged job " + getJobId(), module);
-        } catch (GenericEntityException e) {
-            Debug.logWarning(e, "Exception thrown while purging job: ", module);
+            JobPurger.purgeJobs(delegator, condition);
+        } finally {
+            currentState = State.FINISHED;
         }
     }
 
@@ -81,5 +73,6 @@ public class PurgeJob extends AbstractJob implements Serializable {
         if (currentState != State.QUEUED) {
             throw new InvalidJobException("Illegal state change");
         }
+        currentState = State.CREATED;
     }
 }
@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.service.job;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.ofbiz.entity.Delegator;
+import org.apache.ofbiz.entity.GenericEntityException;
+import org.apache.ofbiz.entity.condition.EntityCondition;
+import org.apache.ofbiz.entity.condition.EntityConditionParam;
+import org.apache.ofbiz.entity.config.model.Datasource;
+import org.apache.ofbiz.entity.config.model.EntityConfig;
+import org.apache.ofbiz.entity.datasource.GenericHelperInfo;
+import org.apache.ofbiz.entity.jdbc.SQLProcessor;
+import org.apache.ofbiz.entity.jdbc.SqlJdbcUtil;
+import org.apache.ofbiz.entity.model.ModelEntity;
+import org.apache.ofbiz.entity.model.ModelFieldTypeReader;
+
+/**
+ * Selects due jobs with <code>SELECT ... FOR UPDATE SKIP LOCKED</code>, so that instances polling
+ * the same JobSandbox concurrently get different jobs instead of racing for the oldest ones.
+ * <p>The rows stay locked until the current transaction ends. The statement uses the
+ * <code>LIMIT</code> syntax, supported with <code>SKIP LOCKED</code> by PostgreSQL (9.5+) and
+ * MySQL (8.0+); it is only used when enabled with the <code>jobManager.claim.skipLocked</code>
+ * property.</p>
+ */
+final class SkipLockedJobSelector {
+
+    private SkipLockedJobSelector() {}
+
+    /**
+     * Returns the ids of up to <code>limit</code> unlocked jobs matching <code>condition</code>, ordered
+     * by priority and run time, and locks them for the current transaction.
+     */
+    static List<String> selectJobIds(Delegator delegator, EntityCondition condition, int limit) throws GenericEntityException {
+        ModelEntity modelEntity = delegator.getModelEntity("JobSandbox");
+        GenericHelperInfo helperInfo = delegator.getGroupHelperInfo(delegator.getEntityGroupName("JobSandbox"));
+        Datasource datasourceInfo = EntityConfig.getDatasource(helperInfo.getHelperBaseName());
+        ModelFieldTypeReader fieldTypeReader = ModelFieldTypeReader.getModelFieldTypeReader(helperInfo.getHelperBaseName());
+
+        List<EntityConditionParam> params = new ArrayList<EntityConditionParam>();
+        StringBuilder sql = new StringBuilder("SELECT ");
+        sql.append(modelEntity.getField("jobId").getColName());
+        sql.append(" FROM ").append(modelEntity.getTableName(datasourceInfo));
+        sql.append(" WHERE ").append(condition.makeWhereString(modelEntity, params, datasourceInfo));
+        // jobs without a priority have the normal priority, whatever the database ordering of nulls
+        sql.append(" ORDER BY COALESCE(").append(modelEntity.getField("priority").getColName()).append(", ").append(JobPriority.NORMAL).append(") DESC, ");
+        sql.append(modelEntity.getField("runTime").getColName());
+        sql.append(" LIMIT ").append(limit);
+        sql.append(" FOR UPDATE SKIP LOCKED");
+
+        List<String> jobIds = new ArrayList<String>(limit);
+        SQLProcessor sqlP = new SQLProcessor(delegator, helperInfo);
+        try {
+            sqlP.prepareStatement(sql.toString());
+            for (EntityConditionParam param : params) {
+                SqlJdbcUtil.setValue(sqlP, param.getModelField(), modelEntity.getEntityName(), param.getFieldValue(), fieldTypeReader);
+            }
+            ResultSet resultSet = sqlP.executeQuery();
+            while (resultSet.next()) {
+                jobIds.add(resultSet.getString(1));
+            }
+        } catch (SQLException e) {
+            throw new GenericEntityException("Error selecting jobs with SKIP LOCKED: " + sql, e);
+        } finally {
+            sqlP.close();
+        }
+        return jobIds;
+    }
+}
@@ -0,0 +1,178 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.service.test;
+
+import java.util.Random;
+
+import org.apache.ofbiz.service.calendar.TemporalExpression;
+import org.apache.ofbiz.service.calendar.TemporalExpressions;
+import org.apache.ofbiz.service.calendar.TemporalExpressions.Cron;
+import org.apache.ofbiz.service.testtools.OFBizTestCase;
+
+import com.ibm.icu.util.Calendar;
+import com.ibm.icu.util.TimeZone;
+
+/**
+ * Tests of the CRON temporal expression: parsing of the fields, the day of month/day of week rule,
+ * and the field-wise search compared with a minute by minute walk over a randomized corpus.
+ * <p>Times are in UTC so that no daylight saving transition is involved.</p>
+ */
+public class CronTests extends OFBizTestCase {
+
+    private static final String[] FIELD_PARTS = {"*", "?", "%d", "%d-%d", "%d,%d", "*/%d", "%d-%d/%d"};
+    // how far the reference walk looks for an occurrence
+    private static final int MAX_WALK_MINUTES = 2 * 366 * 24 * 60;
+
+    public CronTests(String name) {
+        super(name);
+    }
+
+    private static Calendar utc(int year, int month, int day, int hour, int minute, int second) {
+        Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        cal.clear();
+        cal.set(year, month, day, hour, minute, second);
+        return cal;
+    }
+
+    private static void assertNext(String expression, Calendar from, Calendar expected) {
+        Calendar next = new Cron(expression).next(from);
+        assertNotNull(expression + " next " + from.getTime(), next);
+        assertEquals(expression + " next " + from.getTime(), expected.getTimeInMillis(), next.getTimeInMillis());
+    }
+
+    public void testParsing() throws Exception {
+        Cron cron = new Cron("*/15 8-18/2 * JAN,jul MON-FRI");
+        assertTrue("weekday morning", cron.includesDate(utc(2016, Calendar.JANUARY, 4, 8, 45, 0)));
+        assertFalse("minute not in the step", cron.includesDate(utc(2016, Calendar.JANUARY, 4, 8, 40, 0)));
+        assertFalse("hour not in the step", cron.includesDate(utc(2016, Calendar.JANUARY, 4, 9, 45, 0)));
+        assertFalse("Saturday", cron.includesDate(utc(2016, Calendar.JANUARY, 9, 8, 45, 0)));
+        assertFalse("month not in the list", cron.includesDate(utc(2016, Calendar.FEBRUARY, 1, 8, 45, 0)));
+        assertTrue("month name in lower case", cron.includesDate(utc(2016, Calendar.JULY, 1, 18, 0, 0)));
+        assertFalse("five fields fire on second 0", cron.includesDate(utc(2016, Calendar.JANUARY, 4, 8, 45, 1)));
+        // Sunday is 0 or 7, a value with a step runs to the end of the range
+        assertTrue("Sunday as 7", new Cron("0 0 * * 7").includesDate(utc(2016, Calendar.JANUARY, 3, 0, 0, 0)));
+        assertTrue("Sunday as 0", new Cron("0 0 ? * 0").includesDate(utc(2016, Calendar.JANUARY, 3, 0, 0, 0)));
+        assertTrue("value with a step", new Cron("50/5 * * * *").includesDate(utc(2016, Calendar.JANUARY, 3, 0, 55, 0)));
+        // six fields start with the seconds
+        Cron seconds = new Cron("10,40 0 12 * * ?");
+        assertTrue("second in the list", seconds.includesDate(utc(2016, Calendar.MARCH, 3, 12, 0, 40)));
+        assertFalse("second not in the list", seconds.includesDate(utc(2016, Calendar.MARCH, 3, 12, 0, 0)));
+        for (String invalid : new String[] {"* * * *", "* * * * * * *", "60 * * * *", "* 24 * * *", "* * 0 * *", "* * * 13 *",
+                "* * * * 8", "5-1 * * * *", "*/0 * * * *", "* * * FOO *", "a * * * *"}) {
+            try {
+                new Cron(invalid);
+                fail("Invalid expression accepted: " + invalid);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    public void testDayRules() throws Exception {
+        // both restricted: the 13th or a Friday
+        Cron either = new Cron("0 12 13 * FRI");
+        assertTrue("13th, a Wednesday", either.includesDate(utc(2016, Calendar.JANUARY, 13, 12, 0, 0)));
+        assertTrue("Friday the 8th", either.includesDate(utc(2016, Calendar.JANUARY, 8, 12, 0, 0)));
+        assertFalse("Thursday the 14th", either.includesDate(utc(2016, Calendar.JANUARY, 14, 12, 0, 0)));
+        // one of them unrestricted: only the other one counts
+        Cron dayOfMonth = new Cron("0 12 13 * ?");
+        assertFalse("Friday the 8th", dayOfMonth.includesDate(utc(2016, Calendar.JANUARY, 8, 12, 0, 0)));
+        Cron dayOfWeek = new Cron("0 12 * * FRI");
+        assertFalse("13th, a Wednesday", dayOfWeek.includesDate(utc(2016, Calendar.JANUARY, 13, 12, 0, 0)));
+        assertNext("0 12 13 * FRI", utc(2016, Calendar.JANUARY, 8, 12, 0, 0), utc(2016, Calendar.JANUARY, 13, 12, 0, 0));
+    }
+
+    public void testNext() throws Exception {
+        assertNext("0 0 * * *", utc(2016, Calendar.DECEMBER, 31, 23, 59, 59), utc(2017, Calendar.JANUARY, 1, 0, 0, 0));
+        assertNext("30 2 29 2 *", utc(2017, Calendar.MARCH, 1, 0, 0, 0), utc(2020, Calendar.FEBRUARY, 29, 2, 30, 0));
+        assertNext("0 9 31 * *", utc(2016, Calendar.APRIL, 1, 0, 0, 0), utc(2016, Calendar.MAY, 31, 9, 0, 0));
+        assertNext("*/20 * * * * *", utc(2016, Calendar.JUNE, 1, 10, 59, 45), utc(2016, Calendar.JUNE, 1, 11, 0, 0));
+        // an occurrence is not its own next occurrence
+        assertNext("0 8 * * MON", utc(2016, Calendar.JANUARY, 4, 8, 0, 0), utc(2016, Calendar.JANUARY, 11, 8, 0, 0));
+        // first includes the start time
+        Calendar start = utc(2016, Calendar.JANUARY, 4, 8, 0, 0);
+        assertEquals("first", start.getTimeInMillis(), new Cron("0 8 * * MON").first(start).getTimeInMillis());
+    }
+
+    public void testNeverFires() throws Exception {
+        Cron cron = new Cron("0 0 30 2 *");
+        Calendar from = utc(2016, Calendar.JANUARY, 1, 0, 0, 0);
+        assertNull("first of a 30th of February", cron.first(from));
+        assertNull("next of a 30th of February", cron.next(from));
+        // the walk back to the previous occurrence is bounded
+        assertFalse("substitution of a 30th of February", cron.isSubstitutionCandidate(from, TemporalExpressions.NullExpression));
+    }
+
+    public void testSubstitutionCandidate() throws Exception {
+        // a monthly expression walks back by days to the previous occurrence
+        Cron cron = new Cron("0 0 1 * *");
+        TemporalExpression thirtyFirst = new TemporalExpressions.DayOfMonthRange(31);
+        assertTrue("January has a 31st", cron.isSubstitutionCandidate(utc(2016, Calendar.FEBRUARY, 1, 0, 0, 0), thirtyFirst));
+        assertFalse("February has no 31st", cron.isSubstitutionCandidate(utc(2016, Calendar.MARCH, 1, 0, 0, 0), thirtyFirst));
+    }
+
+    public void testRandomExpressions() throws Exception {
+        Random random = new Random(20161017L);
+        long base = utc(2016, Calendar.JANUARY, 1, 0, 0, 0).getTimeInMillis();
+        for (int i = 0; i < 100; i++) {
+            String expression = randomField(random, 0, 59) + " " + randomField(random, 0, 23) + " " + randomField(random, 1, 31)
+                    + " " + randomField(random, 1, 12) + " " + randomField(random, 0, 7);
+            Cron cron = new Cron(expression);
+            Calendar from = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+            from.setTimeInMillis(base + (long) (random.nextDouble() * 4 * 365 * 86400000L));
+            Calendar next = cron.next(from);
+            Calendar walk = (Calendar) from.clone();
+            walk.set(Calendar.SECOND, 0);
+            walk.set(Calendar.MILLISECOND, 0);
+            boolean found = false;
+            for (int minute = 0; minute < MAX_WALK_MINUTES && !found; minute++) {
+                walk.add(Calendar.MINUTE, 1);
+                found = cron.includesDate(walk);
+            }
+            String message = expression + " next " + from.getTime();
+            if (found) {
+                assertNotNull(message, next);
+                assertEquals(message, walk.getTimeInMillis(), next.getTimeInMillis());
+            } else {
+                assertTrue(message, next == null || next.getTimeInMillis() > walk.getTimeInMillis());
+            }
+        }
+    }
+
+    // Returns a random cron field, mostly unrestricted so that most expressions fire within the walk
+    private static String randomField(Random random, int min, int max) {
+        if (random.nextInt(3) > 0) {
+            return "*";
+        }
+        String part = FIELD_PARTS[random.nextInt(FIELD_PARTS.length)];
+        int start = min + random.nextInt(max - min + 1);
+        int end = start + random.nextInt(max - start + 1);
+        int step = 1 + random.nextInt(Math.max((max - min) / 3, 1));
+        if (part.equals("%d,%d")) {
+            return String.format(part, start, min + random.nextInt(max - min + 1));
+        }
+        if (part.equals("*/%d")) {
+            return String.format(part, step);
+        }
+        if (part.equals("%d-%d/%d")) {
+            return String.format(part, start, end, step);
+        }
+        return String.format(part, start, end);
+    }
+}
@@ -0,0 +1,297 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.service.test;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.ofbiz.base.util.StringUtil;
+import org.apache.ofbiz.base.util.UtilValidate;
+import org.apache.ofbiz.entity.GenericValue;
+import org.apache.ofbiz.service.calendar.RecurrenceRule;
+import org.apache.ofbiz.service.testtools.OFBizTestCase;
+
+import com.ibm.icu.util.Calendar;
+
+/**
+ * Checks that RecurrenceRule gives the same results as the Calendar based
+ * implementation it replaced, over a randomized corpus of rules.
+ * <p>Start times are kept out of the 00:00-03:59 wall clock hours, where daylight saving
+ * transitions happen in most time zones: there java.time and Calendar may resolve
+ * skipped or repeated wall clock times differently. Numbered BYDAY entries are only used
+ * with frequencies ignoring the number, the old MONTHLY and YEARLY evaluation failed on them:
+ * their nth day of week in the month or year is checked on explicit dates instead.</p>
+ */
+public class RecurrenceRuleTests extends OFBizTestCase {
+
+    private static final String[] FREQUENCIES = {"", "SECONDLY", "MINUTELY", "HOURLY", "DAILY", "WEEKLY", "MONTHLY", "YEARLY"};
+    private static final String[] DAYS = {"MO", "TU", "WE", "TH", "FR", "SA", "SU"};
+    private static final int[] CALENDAR_DAYS = {Calendar.MONDAY, Calendar.TUESDAY, Calendar.WEDNESDAY, Calendar.THURSDAY,
+            Calendar.FRIDAY, Calendar.SATURDAY, Calendar.SUNDAY};
+    private static final int[] FIELDS = {0, Calendar.SECOND, Calendar.MINUTE, Calendar.HOUR_OF_DAY, Calendar.DAY_OF_MONTH,
+            Calendar.WEEK_OF_YEAR, Calendar.MONTH, Calendar.YEAR};
+    // how far from the start time the corpus looks, limited by the step by step reference
+    private static final long[] HORIZONS = {0, 2 * 3600000L, 5 * 86400000L, 200 * 86400000L,
+            15 * 365 * 86400000L, 15 * 365 * 86400000L, 15 * 365 * 86400000L, 15 * 365 * 86400000L};
+
+    public RecurrenceRuleTests(String name) {
+        super(name);
+    }
+
+    public void testCalendarCompatibility() throws Exception {
+        Random random = new Random(20161017L);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 300; i++) {
+            GenericValue value = randomRule(random);
+            RecurrenceRule rule = new RecurrenceRule(value);
+            CalendarRule reference = new CalendarRule(value);
+            int frequency = rule.getFrequency();
+            long startTime = randomStartTime(random, now);
+            for (int j = 0; j < 5; j++) {
+                long time = startTime - HORIZONS[frequency] / 10 + (long) (random.nextDouble() * HORIZONS[frequency]);
+                String message = value + " start " + startTime + " time " + time;
+                assertEquals("next " + message, reference.next(startTime, time), rule.next(startTime, time, 0));
+                assertEquals("validCurrent " + message, reference.validCurrent(startTime, time), rule.validCurrent(startTime, time, 0));
+                if (time > startTime) {
+                    // starting at the time itself only checks the byXXX rules
+                    assertEquals("byXXX " + message, reference.next(time, time), rule.next(time, time, 0));
+                }
+            }
+        }
+    }
+
+    public void testNumberedDays() throws Exception {
+        RecurrenceRule secondMonday = makeRule("MONTHLY", "2MO");
+        assertDay(secondMonday, LocalDate.of(2016, 2, 8), true);
+        assertDay(secondMonday, LocalDate.of(2016, 2, 1), false);
+        assertDay(secondMonday, LocalDate.of(2015, 2, 9), true);
+        assertDay(secondMonday, LocalDate.of(2015, 2, 10), false);
+        RecurrenceRule lastMonday = makeRule("MONTHLY", "-1MO");
+        // the 29th of February of a leap year, the 23rd of a 28 day February
+        assertDay(lastMonday, LocalDate.of(2016, 2, 29), true);
+        assertDay(lastMonday, LocalDate.of(2016, 2, 22), false);
+        assertDay(lastMonday, LocalDate.of(2015, 2, 23), true);
+        RecurrenceRule lastFriday = makeRule("MONTHLY", "-1FR");
+        // 30 day months, the last Friday on the 29th and on the 30th
+        assertDay(lastFriday, LocalDate.of(2016, 4, 29), true);
+        assertDay(lastFriday, LocalDate.of(2016, 4, 22), false);
+        assertDay(lastFriday, LocalDate.of(2016, 9, 30), true);
+        // 31 day months, the last Friday on the 25th and on the 31st
+        assertDay(lastFriday, LocalDate.of(2016, 3, 25), true);
+        assertDay(lastFriday, LocalDate.of(2016, 3, 18), false);
+        assertDay(lastFriday, LocalDate.of(2015, 7, 31), true);
+        assertDay(lastFriday, LocalDate.of(2015, 7, 24), false);
+        RecurrenceRule fifthFriday = makeRule("MONTHLY", "5FR,-5FR");
+        assertDay(fifthFriday, LocalDate.of(2016, 4, 29), true);
+        assertDay(fifthFriday, LocalDate.of(2016, 4, 1), true);
+        assertDay(fifthFriday, LocalDate.of(2016, 3, 25), false);
+        // yearly rules count the days of week in the year: 2016 is a leap year with 53 Fridays, 2015 has 52
+        RecurrenceRule yearlyFridays = makeRule("YEARLY", "53FR,-53FR");
+        assertDay(yearlyFridays, LocalDate.of(2016, 12, 30), true);
+        assertDay(yearlyFridays, LocalDate.of(2016, 1, 1), true);
+        assertDay(yearlyFridays, LocalDate.of(2015, 12, 25), false);
+        assertDay(yearlyFridays, LocalDate.of(2015, 1, 2), false);
+        RecurrenceRule yearlyMondays = makeRule("YEARLY", "20MO,-1FR");
+        assertDay(yearlyMondays, LocalDate.of(2016, 5, 16), true);
+        assertDay(yearlyMondays, LocalDate.of(2016, 5, 9), false);
+        assertDay(yearlyMondays, LocalDate.of(2015, 12, 25), true);
+        // the number is ignored by the other frequencies
+        RecurrenceRule weeklyMondays = makeRule("WEEKLY", "2MO");
+        assertDay(weeklyMondays, LocalDate.of(2016, 2, 29), true);
+    }
+
+    private RecurrenceRule makeRule(String frequency, String byDayList) throws Exception {
+        GenericValue value = delegator.makeValue("RecurrenceRule");
+        value.set("recurrenceRuleId", "TEST");
+        value.set("frequency", frequency);
+        value.set("intervalNumber", Long.valueOf(1));
+        value.set("countNumber", Long.valueOf(-1));
+        value.set("byDayList", byDayList);
+        return new RecurrenceRule(value);
+    }
+
+    // starting at the time itself, next() returns the time when the byXXX rules accept it and 0 otherwise
+    private static void assertDay(RecurrenceRule rule, LocalDate date, boolean valid) {
+        long time = date.atTime(12, 0).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        assertEquals(rule.getFrequencyName() + " " + date, valid ? time : 0, rule.next(time, time, 0));
+    }
+
+    private GenericValue randomRule(Random random) {
+        int frequency = random.nextInt(7) + 1;
+        GenericValue value = delegator.makeValue("RecurrenceRule");
+        value.set("recurrenceRuleId", "TEST");
+        value.set("frequency", FREQUENCIES[frequency]);
+        value.set("intervalNumber", Long.valueOf(random.nextInt(4) + 1));
+        value.set("countNumber", Long.valueOf(-1));
+        value.set("bySecondList", randomList(random, 0, 59));
+        value.set("byMinuteList", randomList(random, 0, 59));
+        value.set("byHourList", randomList(random, 0, 23));
+        value.set("byMonthDayList", randomList(random, -31, 31));
+        value.set("byYearDayList", randomList(random, -366, 366));
+        value.set("byWeekNoList", randomList(random, -53, 53));
+        value.set("byMonthList", randomList(random, 0, 12));
+        if (random.nextInt(4) == 0) {
+            StringBuilder days = new StringBuilder();
+            for (String day : DAYS) {
+                if (random.nextBoolean()) {
+                    if (frequency != RecurrenceRule.MONTHLY && frequency != RecurrenceRule.YEARLY && random.nextInt(4) == 0) {
+                        day = (random.nextInt(9) - 4) + day;
+                    }
+                    days.append(days.length() > 0 ? "," : "").append(day);
+                }
+            }
+            value.set("byDayList", days.length() > 0 ? days.toString() : null);
+        }
+        return value;
+    }
+
+    // Returns no list most of the time, otherwise about half the values of the range
+    private static String randomList(Random random, int min, int max) {
+        if (random.nextInt(4) != 0) {
+            return null;
+        }
+        StringBuilder list = new StringBuilder();
+        for (int i = min; i <= max; i++) {
+            if (random.nextBoolean()) {
+                list.append(list.length() > 0 ? "," : "").append(i);
+            }
+        }
+        return list.length() > 0 ? list.toString() : null;
+    }
+
+    private static long randomStartTime(Random random, long now) {
+        long startTime = now - (long) (random.nextDouble() * 3 * 365 * 86400000L);
+        if (Instant.ofEpochMilli(startTime).atZone(ZoneId.systemDefault()).getHour() < 4) {
+            startTime += 4 * 3600000L;
+        }
+        return startTime;
+    }
+
+    /**
+     * The Calendar based evaluation RecurrenceRule used before, without end time and count
+     * handling. The seek loop of next() is reduced to its first round: seeking again from an
+     * invalid recurrence always found that same recurrence.
+     */
+    private static final class CalendarRule {
+        private final int frequency;
+        private final int interval;
+        private final List<String> bySecondList;
+        private final List<String> byMinuteList;
+        private final List<String> byHourList;
+        private final List<String> byDayList;
+        private final List<String> byMonthDayList;
+        private final List<String> byYearDayList;
+        private final List<String> byWeekNoList;
+        private final List<String> byMonthList;
+
+        private CalendarRule(GenericValue rule) {
+            frequency = Arrays.asList(FREQUENCIES).indexOf(rule.getString("frequency"));
+            interval = rule.getLong("intervalNumber").intValue();
+            bySecondList = StringUtil.split(rule.getString("bySecondList"), ",");
+            byMinuteList = StringUtil.split(rule.getString("byMinuteList"), ",");
+            byHourList = StringUtil.split(rule.getString("byHourList"), ",");
+            byDayList = StringUtil.split(rule.getString("byDayList"), ",");
+            byMonthDayList = StringUtil.split(rule.getString("byMonthDayList"), ",");
+            byYearDayList = StringUtil.split(rule.getString("byYearDayList"), ",");
+            byWeekNoList = StringUtil.split(rule.getString("byWeekNoList"), ",");
+            byMonthList = StringUtil.split(rule.getString("byMonthList"), ",");
+        }
+
+        private long next(long startTime, long fromTime) {
+            long nextRun = getNextFreq(startTime, fromTime);
+            return validByRule(nextRun) ? nextRun : 0;
+        }
+
+        private long validCurrent(long startTime, long checkTime) {
+            Calendar cal = Calendar.getInstance();
+            Calendar checkTimeCal = Calendar.getInstance();
+            cal.setTimeInMillis(getNextFreq(startTime, checkTime));
+            checkTimeCal.setTimeInMillis(checkTime);
+            for (int i = frequency; i > 0; i--) {
+                if (i == frequency) {
+                    cal.add(FIELDS[i], -interval);
+                    if (cal.get(FIELDS[i]) != checkTimeCal.get(FIELDS[i])) {
+                        return 0;
+                    }
+                } else {
+                    cal.set(FIELDS[i], checkTimeCal.get(FIELDS[i]));
+                }
+            }
+            return validByRule(cal.getTimeInMillis()) ? cal.getTimeInMillis() : 0;
+        }
+
+        private long getNextFreq(long startTime, long fromTime) {
+            Calendar cal = Calendar.getInstance();
+            cal.setTimeInMillis(startTime);
+            long nextStartTime = startTime;
+            while (nextStartTime < fromTime) {
+                cal.add(FIELDS[frequency], interval);
+                nextStartTime = cal.getTimeInMillis();
+            }
+            return nextStartTime;
+        }
+
+        private boolean validByRule(long time) {
+            Calendar cal = Calendar.getInstance();
+            cal.setTimeInMillis(time);
+            if (UtilValidate.isNotEmpty(bySecondList) && !bySecondList.contains(String.valueOf(cal.get(Calendar.SECOND))))
+                return false;
+            if (UtilValidate.isNotEmpty(byMinuteList) && !byMinuteList.contains(String.valueOf(cal.get(Calendar.MINUTE))))
+                return false;
+            if (UtilValidate.isNotEmpty(byHourList) && !byHourList.contains(String.valueOf(cal.get(Calendar.HOUR_OF_DAY))))
+                return false;
+            if (UtilValidate.isNotEmpty(byDayList)) {
+                boolean foundDay = false;
+                for (String dayRule : byDayList) {
+                    // numbers are ignored by the frequencies in the corpus
+                    String day = dayRule.replaceAll("[-+0-9]", "").trim();
+                    int index = Arrays.asList(DAYS).indexOf(day);
+                    if (index >= 0 && cal.get(Calendar.DAY_OF_WEEK) == CALENDAR_DAYS[index]) {
+                        foundDay = true;
+                    }
+                }
+                if (!foundDay)
+                    return false;
+            }
+            if (UtilValidate.isNotEmpty(byMonthDayList) && !validNumber(byMonthDayList, cal.get(Calendar.DAY_OF_MONTH), cal.getActualMaximum(Calendar.DAY_OF_MONTH)))
+                return false;
+            if (UtilValidate.isNotEmpty(byYearDayList) && !validNumber(byYearDayList, cal.get(Calendar.DAY_OF_YEAR), cal.getActualMaximum(Calendar.DAY_OF_YEAR)))
+                return false;
+            if (UtilValidate.isNotEmpty(byWeekNoList) && !validNumber(byWeekNoList, cal.get(Calendar.WEEK_OF_YEAR), cal.getActualMaximum(Calendar.WEEK_OF_YEAR)))
+                return false;
+            if (UtilValidate.isNotEmpty(byMonthList) && !byMonthList.contains(String.valueOf(cal.get(Calendar.MONTH))))
+                return false;
+            return true;
+        }
+
+        private static boolean validNumber(List<String> list, int current, int max) {
+            for (String str : list) {
+                int number = Integer.parseInt(str);
+                if ((number > 0 && number == current) || (number < 0 && number == current - max - 1)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
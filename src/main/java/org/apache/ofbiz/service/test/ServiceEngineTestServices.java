@@ -18,10 +18,12 @@
  */
 package org.apache.ofbiz.service.test;
 
+import java.time.Duration;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.ofbiz.base.util.Debug;
 import org.apache.ofbiz.base.util.UtilMisc;
@@ -35,12 +37,15 @@ import org.apache.ofbiz.service.DispatchContext;
 import org.apache.ofbiz.service.GenericResultWaiter;
 import org.apache.ofbiz.service.GenericServiceException;
 import org.apache.ofbiz.service.LocalDispatcher;
+import org.apache.ofbiz.service.ServiceCall;
 import org.apache.ofbiz.service.ServiceUtil;
 
 public class ServiceEngineTestServices {
 
     public static final String module = ServiceEngineTestServices.class.getName();
     public static final String resource = "ServiceErrorUiLabels";
+    // how the parallel test calls ended, by test token
+    private static final Map<String, String> parallelOutcomes = new ConcurrentHashMap<String, String>();
 
     public static Map<String, Object> testServiceDeadLockRetry(DispatchContext dctx, Map<String, ? extends Object> context) {
         Locale locale = (Locale) context.get("locale");
@@ -375,4 +380,65 @@ public class ServiceEngineTestServices {
 
         return ServiceUtil.returnSuccess();
     }
+
+    /**
+     * Returns how the parallel test call with the given token ended: "completed", "interrupted", or null if it
+     * did not end yet or never started.
+     */
+    public static String getParallelOutcome(String testToken) {
+        return parallelOutcomes.get(testToken);
+    }
+
+    public static Map<String, Object> testParallelSleep(DispatchContext dctx, Map<String, ? extends Object> context) {
+        Long sleepMillis = (Long) context.get("sleepMillis");
+        String testToken = (String) context.get("testToken");
+        String outcome = "completed";
+        try {
+            Thread.sleep(sleepMillis);
+        } catch (InterruptedException e) {
+            outcome = "interrupted";
+            Thread.currentThread().interrupt();
+        }
+        if (testToken != null) {
+            parallelOutcomes.put(testToken, outcome);
+        }
+        return ServiceUtil.returnSuccess();
+    }
+
+    public static Map<String, Object> testParallelError(DispatchContext dctx, Map<String, ? extends Object> context) {
+        return ServiceUtil.returnError("Parallel test error");
+    }
+
+    public static Map<String, Object> testParallelNested(DispatchContext dctx, Map<String, ? extends Object> context) {
+        // called from a parallel pool thread, so the nested calls run one after the other in this thread
+        LocalDispatcher dispatcher = dctx.getDispatcher();
+        Long sleepMillis = (Long) context.get("sleepMillis");
+        Long deadlineMillis = (Long) context.get("deadlineMillis");
+        String testToken = (String) context.get("testToken");
+        List<ServiceCall> calls = new LinkedList<ServiceCall>();
+        for (int i = 0; i < 3; i++) {
+            calls.add(new ServiceCall("testParallelSleep", UtilMisc.toMap("sleepMillis", sleepMillis, "testToken", testToken + i)));
+        }
+        long successCount = 0;
+        for (Map<String, Object> callResult : dispatcher.runParallel(calls, Duration.ofMillis(deadlineMillis))) {
+            if (ServiceUtil.isSuccess(callResult)) {
+                successCount++;
+            }
+        }
+        Map<String, Object> result = ServiceUtil.returnSuccess();
+        result.put("successCount", successCount);
+        return result;
+    }
+
+    public static Map<String, Object> testParallelProduce(DispatchContext dctx, Map<String, ? extends Object> context) {
+        Map<String, Object> result = ServiceUtil.returnSuccess();
+        result.put("stageValue", "produced");
+        return result;
+    }
+
+    public static Map<String, Object> testParallelConsume(DispatchContext dctx, Map<String, ? extends Object> context) {
+        Map<String, Object> result = ServiceUtil.returnSuccess();
+        result.put("consumedValue", context.get("stageValue"));
+        return result;
+    }
 }
@@ -18,10 +18,14 @@
  *******************************************************************************/
 package org.apache.ofbiz.service.test;
 
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.ofbiz.base.util.UtilMisc;
 import org.apache.ofbiz.service.ModelService;
+import org.apache.ofbiz.service.ServiceCall;
+import org.apache.ofbiz.service.ServiceUtil;
 import org.apache.ofbiz.service.testtools.OFBizTestCase;
 
 public class ServiceEngineTests extends OFBizTestCase {
@@ -42,4 +46,38 @@ public class ServiceEngineTests extends OFBizTestCase {
         Map<String, Object> result = dispatcher.runSync("testScv", UtilMisc.toMap("message", "Unit Test"));
         assertEquals("Service result success", ModelService.RESPOND_SUCCESS, result.get(ModelService.RESPONSE_MESSAGE));
     }
+
+    public void testParallelDeadlineInline() throws Exception {
+        // the nested calls run in the calling pool thread: the first two start before the deadline and complete,
+        // the third would start after it and is not run
+        String testToken = "testParallelDeadlineInline-" + System.currentTimeMillis() + "-";
+        List<Map<String, Object>> results = dispatcher.runParallel(UtilMisc.toList(new ServiceCall("testParallelNested",
+                UtilMisc.toMap("sleepMillis", 400L, "deadlineMillis", 600L, "testToken", testToken))), null);
+        Map<String, Object> result = results.get(0);
+        assertTrue("Nested service result success", ServiceUtil.isSuccess(result));
+        assertEquals("Calls completed within the deadline", Long.valueOf(2), result.get("successCount"));
+        assertEquals("First call", "completed", ServiceEngineTestServices.getParallelOutcome(testToken + 0));
+        assertEquals("Call started before the deadline", "completed", ServiceEngineTestServices.getParallelOutcome(testToken + 1));
+        assertNull("Call after the deadline not started", ServiceEngineTestServices.getParallelOutcome(testToken + 2));
+    }
+
+    public void testParallelGroupFailFast() throws Exception {
+        // the error is returned without waiting for the sleeping member, which is not interrupted
+        String testToken = "testParallelGroupFailFast-" + System.currentTimeMillis();
+        long start = System.currentTimeMillis();
+        Map<String, Object> result = dispatcher.runSync("testParallelGroupFailFast", UtilMisc.toMap("sleepMillis", 2000L, "testToken", testToken));
+        assertTrue("Group result error", ServiceUtil.isError(result));
+        assertTrue("Error returned before the running member ends", System.currentTimeMillis() - start < 2000);
+        for (int i = 0; i < 100 && ServiceEngineTestServices.getParallelOutcome(testToken) == null; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals("Running member not interrupted", "completed", ServiceEngineTestServices.getParallelOutcome(testToken));
+    }
+
+    public void testParallelGroupStages() throws Exception {
+        // the member after a result-to-context member runs in the next stage, with its result in the context
+        Map<String, Object> result = dispatcher.runSync("testParallelGroupStages", new HashMap<String, Object>());
+        assertTrue("Group result success", ServiceUtil.isSuccess(result));
+        assertEquals("Value of the previous stage", "produced", result.get("consumedValue"));
+    }
 }
@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.apache.ofbiz.service.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.ofbiz.base.util.UtilMisc;
+import org.apache.ofbiz.service.calendar.TemporalExpression;
+import org.apache.ofbiz.service.calendar.TemporalExpressions;
+import org.apache.ofbiz.service.testtools.OFBizTestCase;
+
+import com.ibm.icu.util.Calendar;
+import com.ibm.icu.util.TimeZone;
+
+/**
+ * Tests of the bulk occurrence enumeration: the occurrences of an expression must be the ones
+ * found by following <code>first</code> and <code>next</code>.
+ * <p>Times are in UTC so that no daylight saving transition is involved.</p>
+ */
+public class TemporalExpressionTests extends OFBizTestCase {
+
+    private static final long DAY_MILLIS = 86400000L;
+
+    public TemporalExpressionTests(String name) {
+        super(name);
+    }
+
+    private static Calendar utc(int year, int month, int day, int hour, int minute) {
+        Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        cal.clear();
+        cal.set(year, month, day, hour, minute, 0);
+        return cal;
+    }
+
+    // the occurrences found like TemporalExpression.getRange does
+    private static long[] walk(TemporalExpression expression, Calendar from, long to, int limit) {
+        List<Long> walked = new ArrayList<Long>();
+        Calendar next = expression.first(from);
+        while (next != null && walked.size() < limit) {
+            long millis = next.getTimeInMillis();
+            if (millis >= to || (!walked.isEmpty() && millis <= walked.get(walked.size() - 1))) {
+                break;
+            }
+            walked.add(millis);
+            next = expression.next(next);
+        }
+        long[] result = new long[walked.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = walked.get(i);
+        }
+        return result;
+    }
+
+    private static void assertOccurrences(String message, TemporalExpression expression, Calendar from, long to, int limit) {
+        long[] expected = walk(expression, from, to, limit);
+        long[] occurrences = expression.occurrences(from, to, limit);
+        assertTrue(message + " has occurrences", expected.length > 0);
+        assertEquals(message, Arrays.toString(expected), Arrays.toString(occurrences));
+    }
+
+    private static void assertOccurrences(String message, TemporalExpression expression) {
+        Calendar from = utc(2016, Calendar.JANUARY, 1, 0, 0);
+        long to = from.getTimeInMillis() + 90 * DAY_MILLIS;
+        assertOccurrences(message + ", up to the end of the period", expression, from, to, 10000);
+        assertOccurrences(message + ", up to the limit", expression, utc(2016, Calendar.FEBRUARY, 3, 10, 17), to, 7);
+    }
+
+    public void testFrequency() throws Exception {
+        Date start = utc(2015, Calendar.DECEMBER, 30, 8, 20).getTime();
+        assertOccurrences("every 5 hours", new TemporalExpressions.Frequency(start, Calendar.HOUR, 5));
+        assertOccurrences("every 3 days", new TemporalExpressions.Frequency(start, Calendar.DAY_OF_MONTH, 3));
+        assertOccurrences("every month", new TemporalExpressions.Frequency(start, Calendar.MONTH, 1));
+    }
+
+    public void testUnion() throws Exception {
+        Date start = utc(2016, Calendar.JANUARY, 1, 6, 0).getTime();
+        TemporalExpression union = new TemporalExpressions.Union(UtilMisc.<TemporalExpression>toSet(
+                new TemporalExpressions.Frequency(start, Calendar.HOUR, 12),
+                new TemporalExpressions.Frequency(start, Calendar.HOUR, 8),
+                new TemporalExpressions.Cron("30 9 * * MON")));
+        assertOccurrences("union", union);
+    }
+
+    public void testIntersection() throws Exception {
+        Date start = utc(2016, Calendar.JANUARY, 1, 0, 0).getTime();
+        TemporalExpression intersection = new TemporalExpressions.Intersection(UtilMisc.<TemporalExpression>toSet(
+                new TemporalExpressions.Frequency(start, Calendar.HOUR, 3),
+                new TemporalExpressions.DayOfWeekRange(Calendar.MONDAY, Calendar.FRIDAY)));
+        assertOccurrences("intersection", intersection);
+    }
+
+    public void testDifference() throws Exception {
+        Date start = utc(2016, Calendar.JANUARY, 1, 9, 0).getTime();
+        TemporalExpression difference = new TemporalExpressions.Difference(
+                new TemporalExpressions.Frequency(start, Calendar.DAY_OF_MONTH, 1),
+                new TemporalExpressions.DayOfWeekRange(Calendar.SATURDAY, Calendar.SUNDAY));
+        assertOccurrences("difference", difference);
+    }
+
+    public void testTruncation() throws Exception {
+        // a filter that never passes: the enumeration gives up instead of returning a short result
+        Date start = utc(2016, Calendar.JANUARY, 1, 0, 0).getTime();
+        TemporalExpression never = new TemporalExpressions.Difference(new TemporalExpressions.Frequency(start, Calendar.SECOND, 1),
+                new TemporalExpressions.DayOfWeekRange(Calendar.SUNDAY, Calendar.SATURDAY));
+        Calendar from = utc(2016, Calendar.JANUARY, 1, 0, 0);
+        try {
+            never.occurrences(from, from.getTimeInMillis() + 30 * DAY_MILLIS, 10);
+            fail("Truncated enumeration not signalled");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        // a period with fewer candidates than the bound is enumerated to its end
+        assertEquals("no occurrences", 0, never.occurrences(from, from.getTimeInMillis() + DAY_MILLIS, 10).length);
+    }
+}